@@ -8,11 +8,21 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.CyclicBarrier;
@@ -573,12 +583,45 @@ public class UI {
      * @brief last_step is the number of iterations
      * @brief STC_count is the number of STCs
      * @brief RTC_count is the number of RTCs
+     * @brief checkpoint_steps are the iterations at which a single run records its
+     *        elapsed time and cell counts (null when not recording)
      */
     public static int time = 0;
     public static int last_step = 100;
     private boolean starter_cell_is_STC = true;
     private static int[] STC_count;
     private static int[] RTC_count;
+    private static int[] checkpoint_steps;
+    private static long[] checkpoint_times;
+    private static int[] checkpoint_STC;
+    private static int[] checkpoint_RTC;
+    private static int checkpoint_index;
+    private static long checkpoint_start;
+
+    /**
+     * @brief time gather repeats each scenario until the 95% confidence interval
+     *        of the mean time is narrower than time_gather_tolerance times the
+     *        mean, with at least time_gather_min_runs and at most
+     *        time_gather_max_runs runs
+     */
+    private static int time_gather_min_runs = 5;
+    private static int time_gather_max_runs = 50;
+    private static double time_gather_tolerance = 0.05;
+    private static final double[] STUDENT_T_975 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306,
+            2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069,
+            2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+    /**
+     * @brief This function returns the half width of the 95% confidence interval
+     *        of a mean
+     * @param runs The number of runs
+     * @param m2 The sum of squared deviations from the mean (Welford)
+     * @return The half width of the interval
+     */
+    private static double confidence_half_width(int runs, double m2) {
+        double t = runs - 1 <= STUDENT_T_975.length ? STUDENT_T_975[runs - 2] : 1.96;
+        return t * Math.sqrt(m2 / (runs - 1) / runs);
+    }
 
     private JFrame main_frame;
     private static JPanel main_panel;
@@ -592,6 +635,7 @@ public class UI {
     private JButton help_button;
     private JButton about_button;
     private JButton settings_button;
+    private JButton attach_button;
     private JButton settings_save_button;
     private JButton settings_load_button;
     private JButton settings_exit_button;
@@ -626,6 +670,7 @@ public class UI {
         help_button = new JButton("Help");
         about_button = new JButton("About");
         settings_button = new JButton("Settings");
+        attach_button = new JButton("attach");
 
         button_panel.add(start_button);
         button_panel.add(time_gather_button);
@@ -636,6 +681,7 @@ public class UI {
         button_panel.add(help_button);
         button_panel.add(about_button);
         button_panel.add(settings_button);
+        button_panel.add(attach_button);
 
         main_panel.add(button_panel, BorderLayout.SOUTH);
         main_frame.add(main_panel, BorderLayout.CENTER);
@@ -735,7 +781,9 @@ public class UI {
                         } catch (IOException e1) {
                             e1.printStackTrace();
                         }
-                        for (int j = 1; j <= 10; j++) {
+                        double mean_time = 0;
+                        double m2_time = 0;
+                        for (int j = 1; j <= time_gather_max_runs; j++) {
                             // start timer (system.nanoTime())
                             long start_time = System.nanoTime();
                             if (starter_cell_is_STC) {
@@ -761,6 +809,10 @@ public class UI {
                             long end_time = System.nanoTime();
                             // calculate time
                             long simulation_time = end_time - start_time;
+                            // update the running mean and variance (Welford)
+                            double delta = simulation_time / 1000000.0 - mean_time;
+                            mean_time += delta / j;
+                            m2_time += delta * (simulation_time / 1000000.0 - mean_time);
                             // write results to file
                             try {
                                 FileWriter writer = new FileWriter("MacroResults.txt", true);
@@ -780,6 +832,12 @@ public class UI {
                             g.clearRect(0, 0, main_panel.getWidth(), main_panel.getHeight() - 120);
                             g.clearRect(0, main_panel.getHeight() - 20, main_panel.getWidth(), main_panel.getHeight());
                             print_domain();
+
+                            // stop once the confidence interval of the mean time is narrow enough
+                            if (j >= time_gather_min_runs
+                                    && confidence_half_width(j, m2_time) <= time_gather_tolerance * mean_time) {
+                                break;
+                            }
                         }
                         try {
                             FileWriter writer = new FileWriter("MacroResults.txt", true);
@@ -831,7 +889,9 @@ public class UI {
                     last_step_results[20] = new int[] { 3996, 4795, 5594, 6393, 7192, 7992, 8791, 9590, 10389, 11188,
                             11987 };
 
-                    for (int i = 0; i < /*scenarios.length*/0; i++) {
+                    // A single run up to the last horizon records the time of every horizon,
+                    // instead of running the simulation again from scratch for each one
+                    for (int i = 0; i < scenarios.length; i++) {
                         try {
                             BufferedReader reader = new BufferedReader(
                                     new FileReader("./src/presets/" + scenarios[i]));
@@ -862,15 +922,20 @@ public class UI {
                                 writer.write(last_step_results[i][j] + " ");
                             }
                             writer.write("\n");
-                            writer.write("Y: ");
                             writer.close();
                         } catch (IOException e1) {
                             e1.printStackTrace();
                         }
+                        checkpoint_steps = last_step_results[i];
+                        last_step = checkpoint_steps[checkpoint_steps.length - 1];
                         for (int j = 1; j <= 10; j++) {
-                            last_step = last_step_results[i][j];
+                            checkpoint_times = new long[checkpoint_steps.length];
+                            checkpoint_STC = new int[checkpoint_steps.length];
+                            checkpoint_RTC = new int[checkpoint_steps.length];
+                            checkpoint_index = 0;
                             // start timer (system.nanoTime())
                             long start_time = System.nanoTime();
+                            checkpoint_start = start_time;
                             if (starter_cell_is_STC) {
                                 domain[domain_size/2 + domain_size/2 * domain_size] = cell_proliferation_potential_max + 1;
                                 Cell cell = new Cell(domain_size/2, domain_size/2);
@@ -894,10 +959,22 @@ public class UI {
                             long end_time = System.nanoTime();
                             // calculate time
                             long simulation_time = end_time - start_time;
-                            // write results to file
+                            // write results to file: time, RTCs and STCs at every horizon
                             try {
                                 FileWriter writer = new FileWriter("MacroResults.txt", true);
-                                writer.write(simulation_time / 1000000 + " ");
+                                writer.write("Y: ");
+                                for (int k = 0; k < checkpoint_steps.length; k++) {
+                                    writer.write(checkpoint_times[k] / 1000000 + " ");
+                                }
+                                writer.write("(" + simulation_time / 1000000 + ")\nRTC: ");
+                                for (int k = 0; k < checkpoint_steps.length; k++) {
+                                    writer.write(checkpoint_RTC[k] + " ");
+                                }
+                                writer.write("\nSTC: ");
+                                for (int k = 0; k < checkpoint_steps.length; k++) {
+                                    writer.write(checkpoint_STC[k] + " ");
+                                }
+                                writer.write("\n");
                                 writer.close();
                             } catch (IOException e1) {
                                 e1.printStackTrace();
@@ -914,6 +991,7 @@ public class UI {
                             g.clearRect(0, main_panel.getHeight() - 20, main_panel.getWidth(), main_panel.getHeight());
                             print_domain();
                         }
+                        checkpoint_steps = null;
                         try {
                             FileWriter writer = new FileWriter("MacroResults.txt", true);
                             writer.write("\n\n");
@@ -968,29 +1046,14 @@ public class UI {
          * This button saves the domain as an image
          * 
          * @details The button saves the domain as an image
-         * @note The button creates a new buffered image
-         * @note The button creates a new graphics 2D object
-         * @note The button draws the cells
+         * @note The button renders the domain into the indexed image
          * @note The button saves the image to a file
          * @note The button prints the file name
          */
         save_button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 System.out.println("Save");
-                BufferedImage image = new BufferedImage(domain_size, domain_size, BufferedImage.TYPE_INT_RGB);
-                Graphics2D g2 = image.createGraphics();
-                // Draw cells
-                for (int i = 0; i < domain_size; i++) {
-                    for (int j = 0; j < domain_size; j++) {
-                        if (domain[i + j * domain_size] == 0) {
-                            g2.setColor(Color.WHITE);
-                        } else if (domain[i + j * domain_size] > cell_proliferation_potential_max) {
-                            g2.setColor(Color.YELLOW);
-                        } else
-                            g2.setColor(new Color(255 * domain[i + j * domain_size] / cell_proliferation_potential_max, 0, 0));
-                        g2.fillRect(i, j, 1, 1);
-                    }
-                }
+                BufferedImage image = render_domain();
                 // get time stamp
                 long timeStamp = System.currentTimeMillis();
                 try {
@@ -1034,6 +1097,25 @@ public class UI {
             }
         });
 
+        /**
+         * This button attaches the viewer to a headless simulation
+         * 
+         * @details The button opens a file chooser for the live state file
+         *          written by java Simulation with -Dlive.file
+         * @note The button shows the frames of the file until the simulation
+         *       finishes
+         */
+        attach_button.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                System.out.println("Attach");
+                JFileChooser file_chooser = new JFileChooser();
+                file_chooser.setCurrentDirectory(new File(System.getProperty("user.dir")));
+                int return_value = file_chooser.showOpenDialog(null);
+                if (return_value == JFileChooser.APPROVE_OPTION)
+                    attach(file_chooser.getSelectedFile().getPath());
+            }
+        });
+
         help_button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 System.out.println("Help");
@@ -1356,8 +1438,85 @@ public class UI {
                 domain[i + j * domain_size] = 0;
             }
         }
+
+        // java UI --attach file: show a headless simulation instead of running one
+        if (args.length > 1 && args[0].equals("--attach"))
+            attach(args[1]);
     }
 
+    /**
+     * @brief Work done by every pool thread in one step of the simulation
+     * @details Each thread takes its share of tumor_cells between the entry and
+     *          exit barriers. A single instance is reused every step so the
+     *          simulation loop does not allocate a Runnable per thread and step.
+     */
+    private static final Runnable simulation_worker = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                EntryBarrier.await();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            int threadId = (int) Thread.currentThread().getId() % executor.getMaximumPoolSize();
+            float step = (float) tumor_cells.size() / (float) executor.getMaximumPoolSize();
+            int[] free_space;
+            for (int i = (int) (step * threadId); i < (int) (step * (threadId + 1)); i++) {
+                if (tumor_cells.get(0) != tumor_cells.get(0))
+                    System.out.println("Error");
+                // Check chance_spontaneous_death
+                if (chance_spontaneous_death(tumor_cells.get(i))) {
+                    // Empty tumor_cell
+                    set_value_in_domain(tumor_cells.get(i).x, tumor_cells.get(i).y, 0);
+                } else {
+                    // Check free_space
+                    free_space = look_free_space(tumor_cells.get(i));
+                    if (free_space != null) {
+                        // Check proliferation_chance
+                        if (chance_proliferation(tumor_cells.get(i))) {
+                            // Check cell_is_STC
+                            if (check_STC(tumor_cells.get(i))) {
+                                // Check chance_STC_creation
+                                if (chance_STC_creation(tumor_cells.get(i))) {
+                                    // Create STC_Daugther
+                                    create_STC_daughter(free_space);
+                                } else {
+                                    // Create RTC_Daugther
+                                    create_RTC_daughter(tumor_cells.get(i), free_space);
+                                }
+                            } else {
+                                // Adjust proliferation_potential
+                                adjust_proliferation_potential(tumor_cells.get(i));
+                                if (get_cell_proliferation_potential(tumor_cells.get(i)) > 0) {
+                                    // Create RTC_Daugther
+                                    create_RTC_daughter(tumor_cells.get(i), free_space);
+                                } else {
+                                    // empty cell
+                                    set_value_in_domain(tumor_cells.get(i).x, tumor_cells.get(i).y, 0);
+                                    set_value_in_domain(free_space[0], free_space[1], 0);
+                                }
+                            }
+                        } else {
+                            // Check migration_chance
+                            if (chance_migration(tumor_cells.get(i))) {
+                                // Update cell_position
+                                update_cell_position(tumor_cells.get(i), free_space);
+                            } else {
+                                // empty cell
+                                set_value_in_domain(free_space[0], free_space[1], 0);
+                            }
+                        }
+                    }
+                }
+            }
+            try {
+                ExitBarrier.await();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
     /**
      * @brief This function performs the simulation
      * @details The function performs the simulation
@@ -1388,76 +1547,9 @@ public class UI {
         while (time != last_step) {
             // shuffle tumor_cells
             shuffle_tumor_cells();
-            ArrayList<Cell> read_tumor_cells = new ArrayList<Cell>(tumor_cells);
             // For every tumor_cell
-            for (int j = 0; j < executor.getMaximumPoolSize(); j++) {
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            EntryBarrier.await();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        int threadId = (int) Thread.currentThread().getId() % executor.getMaximumPoolSize();
-                        float step = (float) tumor_cells.size() / (float) executor.getMaximumPoolSize();
-                        int[] free_space;
-                        for (int i = (int) (step * threadId); i < (int) (step * (threadId + 1)); i++) {
-                            if (tumor_cells.get(0) != tumor_cells.get(0))
-                                System.out.println("Error");
-                            // Check chance_spontaneous_death
-                            if (chance_spontaneous_death(tumor_cells.get(i))) {
-                                // Empty tumor_cell
-                                set_value_in_domain(tumor_cells.get(i).x, tumor_cells.get(i).y, 0);
-                            } else {
-                                // Check free_space
-                                free_space = look_free_space(tumor_cells.get(i));
-                                if (free_space != null) {
-                                    // Check proliferation_chance
-                                    if (chance_proliferation(tumor_cells.get(i))) {
-                                        // Check cell_is_STC
-                                        if (check_STC(tumor_cells.get(i))) {
-                                            // Check chance_STC_creation
-                                            if (chance_STC_creation(tumor_cells.get(i))) {
-                                                // Create STC_Daugther
-                                                create_STC_daughter(free_space);
-                                            } else {
-                                                // Create RTC_Daugther
-                                                create_RTC_daughter(tumor_cells.get(i), free_space);
-                                            }
-                                        } else {
-                                            // Adjust proliferation_potential
-                                            adjust_proliferation_potential(tumor_cells.get(i));
-                                            if (get_cell_proliferation_potential(tumor_cells.get(i)) > 0) {
-                                                // Create RTC_Daugther
-                                                create_RTC_daughter(tumor_cells.get(i), free_space);
-                                            } else {
-                                                // empty cell
-                                                set_value_in_domain(tumor_cells.get(i).x, tumor_cells.get(i).y, 0);
-                                                set_value_in_domain(free_space[0], free_space[1], 0);
-                                            }
-                                        }
-                                    } else {
-                                        // Check migration_chance
-                                        if (chance_migration(tumor_cells.get(i))) {
-                                            // Update cell_position
-                                            update_cell_position(tumor_cells.get(i), free_space);
-                                        } else {
-                                            // empty cell
-                                            set_value_in_domain(free_space[0], free_space[1], 0);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        try {
-                            ExitBarrier.await();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-            }
+            for (int j = 0; j < executor.getMaximumPoolSize(); j++)
+                executor.execute(simulation_worker);
             // main thread waits for all threads to finish
             try {
                 EntryBarrier.await();
@@ -1476,6 +1568,18 @@ public class UI {
             // Advance time
             time++;
 
+            if (checkpoint_steps != null && checkpoint_index < checkpoint_steps.length
+                    && time == checkpoint_steps[checkpoint_index]) {
+                checkpoint_times[checkpoint_index] = System.nanoTime() - checkpoint_start;
+                for (int i = 0; i < tumor_cells.size(); i++) {
+                    if (get_cell_type(tumor_cells.get(i)) == 1)
+                        checkpoint_RTC[checkpoint_index]++;
+                    else if (get_cell_type(tumor_cells.get(i)) == 2)
+                        checkpoint_STC[checkpoint_index]++;
+                }
+                checkpoint_index++;
+            }
+
             if (counting) {
                 STC_count[time - 1] = 0;
                 RTC_count[time - 1] = 0;
@@ -1489,6 +1593,53 @@ public class UI {
         }
     }
 
+    /**
+     * @brief domain_image is the indexed image of the domain, reused between
+     *        frames
+     * @brief domain_pixels is the pixel buffer of domain_image, one palette
+     *        index per cell
+     * @brief domain_image_potential is the proliferation potential the palette
+     *        was built for
+     */
+    private static BufferedImage domain_image;
+    private static byte[] domain_pixels;
+    private static int domain_image_potential;
+
+    /**
+     * @brief This function renders the domain into an indexed image
+     * @details Every cell is stored as one byte that indexes a palette (white
+     *          for empty cells, red scaled by the proliferation potential for
+     *          RTCs and yellow for STCs), so no Color is created per cell and
+     *          the saved PNG is palette-indexed
+     * @return The image, with the cell (i, j) at x = i, y = j
+     * @note The image and the palette are rebuilt only when the domain size or
+     *       the proliferation potential change
+     * @note The image is reused, so it is only valid until the next call
+     */
+    static BufferedImage render_domain() {
+        int potential = cell_proliferation_potential_max;
+        if (domain_image == null || domain_image.getWidth() != domain_size || domain_image_potential != potential) {
+            int[] palette = new int[potential + 2];
+            palette[0] = Color.WHITE.getRGB();
+            for (int v = 1; v <= potential; v++)
+                palette[v] = new Color(255 * v / potential, 0, 0).getRGB();
+            palette[potential + 1] = Color.YELLOW.getRGB();
+            IndexColorModel model = new IndexColorModel(8, palette.length, palette, 0, false, -1,
+                    DataBuffer.TYPE_BYTE);
+            domain_image = new BufferedImage(domain_size, domain_size, BufferedImage.TYPE_BYTE_INDEXED, model);
+            domain_pixels = ((DataBufferByte) domain_image.getRaster().getDataBuffer()).getData();
+            domain_image_potential = potential;
+        }
+        // domain and the image share the layout: cell (i, j) at i + j * domain_size
+        for (int k = 0; k < domain_size * domain_size; k++) {
+            int value = domain[k];
+            if (value < 0)
+                domain[k] = value = 0;
+            domain_pixels[k] = (byte) (value > potential ? potential + 1 : value);
+        }
+        return domain_image;
+    }
+
     /**
      * @brief This function prints the domain
      * @details The function prints the domain
@@ -1496,34 +1647,20 @@ public class UI {
      * @note The function prints the number of iterations
      */
     static void print_domain() {
-        // Print domain to grid (JPanel)
+        // Print domain to grid (JPanel), scaling the indexed image
         Graphics g = main_panel.getGraphics();
-        for (int i = 0; i < domain_size; i++) {
-            for (int j = 0; j < domain_size; j++) {
-                if (domain[i + j * domain_size] == 0) {
-                    g.setColor(Color.WHITE);
-                } else if (domain[i + j * domain_size] > cell_proliferation_potential_max) {
-                    g.setColor(Color.YELLOW);
-                } else {
-                    if (domain[i + j * domain_size] < 0)
-                        domain[i + j * domain_size] = 0;
-                    g.setColor(new Color(255 * domain[i + j * domain_size] / cell_proliferation_potential_max, 0, 0));
-                }
-                // paintin the pixel (size responsive to the window size)
-                int window_width = main_panel.getWidth();
-                int window_height = main_panel.getHeight();
-                int pixel_width = 2;// window_width/domain_size;
-                int pixel_height = 2;// window_height/domain_size;
-                if (window_height < 700) {
-                    pixel_width = 1;
-                    pixel_height = 1;
-                }
-                // print centered
-                int centerX = (window_width - domain_size * pixel_width) / 2;
-                int centerY = (window_height - domain_size * pixel_height) / 2;
-                g.fillRect(centerX + i * pixel_width, centerY + j * pixel_height, pixel_width, pixel_height);
-            }
+        int window_width = main_panel.getWidth();
+        int window_height = main_panel.getHeight();
+        int pixel_width = 2;// window_width/domain_size;
+        int pixel_height = 2;// window_height/domain_size;
+        if (window_height < 700) {
+            pixel_width = 1;
+            pixel_height = 1;
         }
+        // print centered
+        int centerX = (window_width - domain_size * pixel_width) / 2;
+        int centerY = (window_height - domain_size * pixel_height) / 2;
+        g.drawImage(render_domain(), centerX, centerY, domain_size * pixel_width, domain_size * pixel_height, null);
         // print number of iterations
         g.setColor(Color.WHITE);
         g.fillRect(0, 0, 100, 20);
@@ -1532,6 +1669,148 @@ public class UI {
         g.drawString("/" + last_step + " hours", 10, 20);
     }
 
+    /**
+     * @brief LIVE_* describe the live state file written by LiveStatePublisher:
+     *        a 64 byte header in native byte order (sequence at 8, generation
+     *        at 16, size at 20, proliferation potential at 24, generations at
+     *        28, finished flag at 40, capacity in cells at 44) followed by the
+     *        cells row by row
+     * @brief attach_channel and attach_buffer are the mapped live state file,
+     *        or null when the viewer is not attached
+     * @brief attach_timer polls the file while attached
+     * @brief attach_cells is the last frame read from the file
+     * @brief attach_sequence is the sequence number of the frame on screen
+     */
+    private static final int LIVE_MAGIC = 0x43414C56;
+    private static final int LIVE_HEADER = 64;
+    private static final int LIVE_RETRIES = 100;
+    private static final VarHandle LIVE_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static FileChannel attach_channel;
+    private static MappedByteBuffer attach_buffer;
+    private static Timer attach_timer;
+    private static byte[] attach_cells = new byte[0];
+    private static long attach_sequence;
+
+    /**
+     * @brief This function attaches the viewer to a headless simulation
+     * @details The live state file written by java Simulation with
+     *          -Dlive.file is mapped into memory and polled 30 times per
+     *          second. The simulation runs in its own JVM and never waits for
+     *          the viewer: every frame is read under the seqlock of the file
+     *          and read again if it was being written
+     * @param path The live state file
+     * @note The local simulation should not be started while attached
+     */
+    static void attach(String path) {
+        detach();
+        try {
+            attach_channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            attach_buffer = attach_channel.map(FileChannel.MapMode.READ_ONLY, 0, attach_channel.size());
+            attach_buffer.order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            e.printStackTrace();
+            detach();
+            return;
+        }
+        if (attach_buffer.capacity() < LIVE_HEADER || attach_buffer.getInt(0) != LIVE_MAGIC) {
+            System.out.println(path + " is not a live state file");
+            detach();
+            return;
+        }
+        System.out.println("Attached to " + path);
+        attach_sequence = -1;
+        attach_timer = new Timer(33, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh_attached();
+            }
+        });
+        attach_timer.start();
+    }
+
+    /**
+     * @brief This function detaches the viewer from the headless simulation
+     * @note The last frame stays on screen
+     */
+    static void detach() {
+        if (attach_timer != null)
+            attach_timer.stop();
+        attach_timer = null;
+        attach_buffer = null;
+        if (attach_channel != null) {
+            try {
+                attach_channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        attach_channel = null;
+    }
+
+    /**
+     * @brief This function shows the current frame of the attached simulation
+     * @details Reads the sequence, copies the header and the cells and reads
+     *          the sequence again; the copy is kept only if the sequence was
+     *          even and did not change. Nothing is done while the sequence is
+     *          the one on screen
+     * @note The file is mapped again when the simulation has made it grow
+     * @note The viewer detaches when the simulation finishes
+     */
+    static void refresh_attached() {
+        try {
+            for (int retry = 0; retry < LIVE_RETRIES; retry++) {
+                long sequence = (long) LIVE_LONGS.getAcquire(attach_buffer, 8);
+                if (sequence == attach_sequence)
+                    return;
+                if ((sequence & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                long capacity = attach_buffer.getInt(44);
+                if (LIVE_HEADER + capacity > attach_buffer.capacity()) {
+                    attach_buffer = attach_channel.map(FileChannel.MapMode.READ_ONLY, 0, attach_channel.size());
+                    attach_buffer.order(ByteOrder.nativeOrder());
+                    continue;
+                }
+                int generation = attach_buffer.getInt(16);
+                int size = attach_buffer.getInt(20);
+                int potential = attach_buffer.getInt(24);
+                int generations = attach_buffer.getInt(28);
+                boolean finished = attach_buffer.getInt(40) != 0;
+                if (size <= 0 || (long) size * size > capacity)
+                    continue;
+                if (attach_cells.length < size * size)
+                    attach_cells = new byte[size * size];
+                attach_buffer.get(LIVE_HEADER, attach_cells, 0, size * size);
+                VarHandle.loadLoadFence();
+                if ((long) LIVE_LONGS.getAcquire(attach_buffer, 8) != sequence)
+                    continue;
+
+                attach_sequence = sequence;
+                if (size != domain_size) {
+                    domain_size = size;
+                    domain = new int[size * size];
+                }
+                // the file stores cell (i, j) at i * size + j, the domain at i + j * size
+                for (int i = 0; i < size; i++)
+                    for (int j = 0; j < size; j++)
+                        domain[i + j * size] = attach_cells[i * size + j] & 0xFF;
+                cell_proliferation_potential_max = potential;
+                time = generation;
+                last_step = generations;
+                print_domain();
+                if (finished) {
+                    System.out.println("Attached simulation finished at time " + generation);
+                    detach();
+                }
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            detach();
+        }
+    }
+
     /**
      * @brief This function prints the plot
      * @details The function prints the plot
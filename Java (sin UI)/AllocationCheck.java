@@ -0,0 +1,136 @@
+
+/**
+ * @file AllocationCheck.java
+ * @author Yeray Doello Gonzalez
+ * @brief Comprobación de que una generación no reserva memoria
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Comprueba que el bucle de generaciones de {@link Simulation} no reserva
+ * memoria en régimen estacionario, para que las pausas del recolector no
+ * vuelvan a aparecer en ejecuciones largas. Parte de un tumor ya crecido
+ * ({@link WorkloadGenerator}), ejecuta unas generaciones de calentamiento para
+ * que el JIT compile el bucle y después mide, con
+ * ThreadMXBean.getThreadAllocatedBytes, lo que reservan todos los hilos de la
+ * simulación entre el final de una generación y el de la siguiente.
+ *
+ * Las generaciones en las que se amplía el dominio se descartan, porque crear la
+ * retícula nueva es una reserva inevitable. Al coste de la propia medición (el
+ * array que devuelve ThreadMXBean) se le resta el medido justo antes. Termina con
+ * código 1 si alguna generación ha reservado memoria.
+ *
+ * Uso: java AllocationCheck [escenario 1-21] [hilos] [tamano] [calentamiento] [generaciones medidas]
+ */
+public class AllocationCheck implements GenerationListener {
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final int warmup;
+    private final long[] bytes;
+    private final boolean[] extended;
+    private final long caller = Thread.currentThread().getId();
+    private long[] ids;
+    private long overhead;
+    private long previous;
+    private int previousSize;
+
+    /**
+     * Constructor de la clase AllocationCheck.
+     * @param warmup Las generaciones de calentamiento.
+     * @param measured Las generaciones medidas.
+     */
+    public AllocationCheck(int warmup, int measured) {
+        this.warmup = warmup;
+        this.bytes = new long[measured];
+        this.extended = new boolean[measured];
+    }
+
+    /**
+     * Suma la memoria reservada por todos los hilos de la simulación.
+     */
+    private long allocated() {
+        long total = 0;
+        for (long b : threads.getThreadAllocatedBytes(ids))
+            total += b;
+        return total;
+    }
+
+    @Override
+    public void generationCompleted(Simulation simulation, int generation) {
+        if (generation < warmup)
+            return;
+        if (generation == warmup) {
+            // Hilos de la simulación: el que llamó a runUntil (el que creó este objeto) y los sim-<id>-<t>
+            List<Long> found = new ArrayList<>();
+            found.add(caller);
+            String prefix = "sim-" + simulation.getId() + "-";
+            for (Thread t : Thread.getAllStackTraces().keySet())
+                if (t.getName().startsWith(prefix))
+                    found.add(t.getId());
+            ids = new long[found.size()];
+            for (int k = 0; k < ids.length; k++)
+                ids[k] = found.get(k);
+            long a = allocated();
+            long b = allocated();
+            overhead = b - a;
+            previous = allocated();
+            previousSize = simulation.getSize();
+            return;
+        }
+        long now = allocated();
+        int k = generation - warmup - 1;
+        bytes[k] = now - previous - overhead;
+        extended[k] = simulation.getSize() != previousSize;
+        previousSize = simulation.getSize();
+        previous = allocated();
+    }
+
+    /**
+     * Ejecuta la comprobación y muestra el resultado.
+     * @param args Argumentos de línea de comandos.
+     * @throws Exception Si no se puede leer el escenario o se interrumpe la simulación.
+     */
+    public static void main(String[] args) throws Exception {
+        int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+        int measured = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        Simulation simulation = new Simulation(settings, numThreads, size, 42);
+        WorkloadGenerator generator = new WorkloadGenerator(WorkloadGenerator.Pattern.DISC);
+        generator.setRadius(0.25);
+        generator.apply(simulation);
+        AllocationCheck check = new AllocationCheck(warmup, measured);
+        simulation.addListener(check);
+        simulation.runUntil(warmup + measured);
+
+        long max = 0, total = 0;
+        int counted = 0, skipped = 0, allocating = 0;
+        for (int k = 0; k < measured; k++) {
+            if (check.extended[k]) {
+                skipped++;
+                continue;
+            }
+            counted++;
+            total += check.bytes[k];
+            max = Math.max(max, check.bytes[k]);
+            if (check.bytes[k] > 0)
+                allocating++;
+        }
+        System.out.println(settings.name + ", " + numThreads + " hilos, tamano inicial " + size + ": " + counted
+                + " generaciones medidas (" + skipped + " descartadas por ampliacion del dominio)");
+        System.out.println("Bytes por generacion: maximo " + max + ", media "
+                + String.format("%.1f", counted > 0 ? (double) total / counted : 0.0) + ", generaciones con reservas "
+                + allocating);
+        if (allocating > 0) {
+            System.out.println("FALLO: el bucle de generaciones reserva memoria");
+            System.exit(1);
+        }
+        System.out.println("OK: 0 bytes por generacion");
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ * @file AnimatedGifWriter.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escritura incremental de GIF animados
+ */
+
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Escribe un GIF animado fotograma a fotograma, directamente al disco. Todos los
+ * fotogramas usan la misma tabla de colores global (la paleta de la retícula) y,
+ * salvo el primero y los que siguen a un cambio de tamaño, son fotogramas delta:
+ * solo se codifica el rectángulo que contiene las celdas que han cambiado, con
+ * las que no han cambiado en el color transparente, y el fotograma se dibuja
+ * encima del anterior. En memoria solo están el fotograma anterior y el primero.
+ *
+ * Cuando la retícula crece, los fotogramas siguientes tienen el nuevo tamaño y
+ * los anteriores quedan centrados en él, igual que en extend_domain. Al cerrar,
+ * si el tamaño ha cambiado, el archivo se reescribe en una sola pasada: la
+ * cabecera pasa a tener el tamaño final, el primer fotograma se vuelve a
+ * codificar con un margen blanco y los demás se copian sin decodificarlos,
+ * cambiando solo su posición.
+ */
+public class AnimatedGifWriter implements Closeable {
+    private static final int CLEAR = 256;
+    private static final int EOI = 257;
+    private static final int MAX_CODE = 4095;
+    private static final int TABLE_MASK = (1 << 14) - 1;
+    private static final int CONTROL_BYTES = 8;
+
+    private final String path;
+    private final byte[] palette = new byte[768];
+    private final int transparent;
+    private final int delay;
+    private final Lzw lzw = new Lzw();
+    private OutputStream out;
+    private long position;
+
+    private byte[] previous = new byte[0];
+    private byte[] first;
+    private int firstSize;
+    private int size;
+    private int[] epochSizes = new int[4];
+    private int epochs;
+
+    private long[] starts = new long[64];
+    private int[] lefts = new int[64];
+    private int[] tops = new int[64];
+    private int[] frameEpochs = new int[64];
+    private int frames;
+
+    /**
+     * Constructor de la clase AnimatedGifWriter.
+     * @param path La ruta del archivo.
+     * @param model La paleta, con 256 colores.
+     * @param transparent El índice que no aparece en las imágenes y se usa como
+     * transparente en los fotogramas delta, o -1 si no hay ninguno libre.
+     * @param delay La duración de cada fotograma, en centésimas de segundo.
+     * @throws IOException Si no se puede crear el archivo.
+     */
+    public AnimatedGifWriter(String path, IndexColorModel model, int transparent, int delay) throws IOException {
+        this.path = path;
+        this.transparent = transparent;
+        this.delay = delay;
+        for (int i = 0; i < 256; i++) {
+            palette[3 * i] = (byte) model.getRed(i);
+            palette[3 * i + 1] = (byte) model.getGreen(i);
+            palette[3 * i + 2] = (byte) model.getBlue(i);
+        }
+        this.out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+    }
+
+    /**
+     * Añade un fotograma.
+     * @param image Los índices de la paleta, fila a fila (size x size).
+     * @param size El lado de la imagen; no puede ser menor que el del fotograma anterior.
+     * @return Los bytes escritos.
+     * @throws IOException Si falla la escritura.
+     */
+    public long append(byte[] image, int size) throws IOException {
+        long start = position;
+        if (frames == 0) {
+            this.size = size;
+            firstSize = size;
+            first = Arrays.copyOf(image, size * size);
+            writeHeader(size);
+            addEpoch(size);
+            writeFrame(image, null, size, 0, 0, size, size);
+        } else if (size != this.size) {
+            if (size < this.size)
+                throw new IllegalArgumentException("El tamano de la animacion no puede disminuir: " + this.size + " -> " + size);
+            this.size = size;
+            addEpoch(size);
+            writeFrame(image, null, size, 0, 0, size, size);
+        } else {
+            int x0 = size, y0 = size, x1 = -1, y1 = -1;
+            for (int y = 0; y < size; y++) {
+                int row = y * size;
+                int lo = 0;
+                while (lo < size && image[row + lo] == previous[row + lo])
+                    lo++;
+                if (lo == size)
+                    continue;
+                int hi = size - 1;
+                while (image[row + hi] == previous[row + hi])
+                    hi--;
+                x0 = Math.min(x0, lo);
+                x1 = Math.max(x1, hi);
+                y0 = Math.min(y0, y);
+                y1 = y;
+            }
+            if (x1 < 0) {
+                // Nada ha cambiado: un píxel transparente mantiene el ritmo de la animación
+                x0 = y0 = x1 = y1 = 0;
+            }
+            writeFrame(image, previous, size, x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+        }
+        if (previous.length < size * size)
+            previous = new byte[size * size];
+        System.arraycopy(image, 0, previous, 0, size * size);
+        out.flush();
+        return position - start;
+    }
+
+    /**
+     * Devuelve el lado del último fotograma, o 0 si aún no hay ninguno.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Devuelve el número de fotogramas escritos.
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Termina el archivo y, si la imagen ha crecido, lo reescribe con el tamaño final.
+     * @throws IOException Si falla la escritura.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out == null)
+            return;
+        long end = position;
+        write(0x3B);
+        out.close();
+        out = null;
+        if (frames > 0 && size != firstSize)
+            pad(end);
+    }
+
+    private void addEpoch(int size) {
+        if (epochs == epochSizes.length)
+            epochSizes = Arrays.copyOf(epochSizes, 2 * epochs);
+        epochSizes[epochs++] = size;
+    }
+
+    private void writeHeader(int size) throws IOException {
+        write(new byte[] { 'G', 'I', 'F', '8', '9', 'a' }, 0, 6);
+        writeShort(size);
+        writeShort(size);
+        write(0xF7); // Tabla global de 256 colores
+        write(0);    // Fondo: índice 0 (blanco)
+        write(0);
+        write(palette, 0, palette.length);
+        // Extensión NETSCAPE2.0: repetir indefinidamente
+        write(0x21);
+        write(0xFF);
+        write(11);
+        write(new byte[] { 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0' }, 0, 11);
+        write(3);
+        write(1);
+        writeShort(0);
+        write(0);
+    }
+
+    private void writeFrameHeader(int left, int top, int width, int height) throws IOException {
+        write(0x21);
+        write(0xF9);
+        write(4);
+        write(1 << 2 | (transparent >= 0 ? 1 : 0)); // No borrar: el siguiente se dibuja encima
+        writeShort(delay);
+        write(Math.max(transparent, 0));
+        write(0);
+        write(0x2C);
+        writeShort(left);
+        writeShort(top);
+        writeShort(width);
+        writeShort(height);
+        write(0);
+    }
+
+    private void writeFrame(byte[] image, byte[] previous, int stride, int x0, int y0, int width, int height)
+            throws IOException {
+        if (frames == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * frames);
+            lefts = Arrays.copyOf(lefts, 2 * frames);
+            tops = Arrays.copyOf(tops, 2 * frames);
+            frameEpochs = Arrays.copyOf(frameEpochs, 2 * frames);
+        }
+        starts[frames] = position;
+        lefts[frames] = x0;
+        tops[frames] = y0;
+        frameEpochs[frames] = epochs - 1;
+        frames++;
+
+        writeFrameHeader(x0, y0, width, height);
+        boolean delta = previous != null && transparent >= 0;
+        lzw.begin();
+        for (int y = y0; y < y0 + height; y++) {
+            int row = y * stride;
+            for (int x = x0; x < x0 + width; x++) {
+                byte v = image[row + x];
+                lzw.add(delta && v == previous[row + x] ? transparent : v & 0xFF);
+            }
+        }
+        lzw.finish();
+    }
+
+    /**
+     * Reescribe el archivo con el tamaño final: el primer fotograma con margen
+     * blanco y los demás desplazados al centro.
+     * @param end La posición del final del último fotograma.
+     */
+    private void pad(long end) throws IOException {
+        int[] shift = new int[epochs];
+        for (int e = epochs - 2; e >= 0; e--)
+            shift[e] = shift[e + 1] + (epochSizes[e + 1] - epochSizes[e]) / 2;
+
+        Path target = Paths.get(path);
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel in = FileChannel.open(target, StandardOpenOption.READ)) {
+            out = new BufferedOutputStream(new FileOutputStream(tmp.toFile()), 1 << 16);
+            WritableByteChannel channel = Channels.newChannel(out);
+            writeHeader(size);
+
+            writeFrameHeader(0, 0, size, size);
+            int offset = shift[0];
+            lzw.begin();
+            for (int y = 0; y < size; y++) {
+                int fy = y - offset;
+                for (int x = 0; x < size; x++) {
+                    int fx = x - offset;
+                    boolean inside = fy >= 0 && fy < firstSize && fx >= 0 && fx < firstSize;
+                    lzw.add(inside ? first[fy * firstSize + fx] & 0xFF : 0);
+                }
+            }
+            lzw.finish();
+
+            for (int k = 1; k < frames; k++) {
+                long start = starts[k];
+                long stop = k + 1 < frames ? starts[k + 1] : end;
+                int s = shift[frameEpochs[k]];
+                copy(in, start, CONTROL_BYTES + 1, channel);
+                writeShort(lefts[k] + s);
+                writeShort(tops[k] + s);
+                copy(in, start + CONTROL_BYTES + 5, stop - start - CONTROL_BYTES - 5, channel);
+            }
+            write(0x3B);
+            out.close();
+        } finally {
+            out = null;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void copy(FileChannel in, long from, long count, WritableByteChannel to) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(from, count, to);
+            from += n;
+            count -= n;
+        }
+    }
+
+    private void write(int b) throws IOException {
+        out.write(b);
+        position++;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        position += len;
+    }
+
+    private void writeShort(int v) throws IOException {
+        write(v & 0xFF);
+        write(v >>> 8 & 0xFF);
+    }
+
+    /**
+     * Compresor LZW de GIF con códigos de 9 a 12 bits, en subbloques de 255 bytes.
+     */
+    private final class Lzw {
+        private final int[] table = new int[TABLE_MASK + 1];
+        private final byte[] block = new byte[255];
+        private int blockLength;
+        private int bits;
+        private int bitCount;
+        private int width;
+        private int hi;
+        private int overflow;
+        private int saved;
+
+        void begin() throws IOException {
+            write(8); // Tamaño mínimo de código
+            Arrays.fill(table, 0);
+            width = 9;
+            hi = EOI;
+            overflow = 1 << width;
+            saved = -1;
+            bits = 0;
+            bitCount = 0;
+            blockLength = 0;
+            code(CLEAR);
+        }
+
+        void add(int b) throws IOException {
+            if (saved < 0) {
+                saved = b;
+                return;
+            }
+            int key = saved << 8 | b;
+            int hash = (key >> 12 ^ key) & TABLE_MASK;
+            for (int entry = table[hash]; entry != 0; entry = table[hash]) {
+                if (entry >>> 12 == key) {
+                    saved = entry & 0xFFF;
+                    return;
+                }
+                hash = (hash + 1) & TABLE_MASK;
+            }
+            code(saved);
+            saved = b;
+            if (next())
+                table[hash] = key << 12 | hi;
+        }
+
+        void finish() throws IOException {
+            if (saved >= 0) {
+                code(saved);
+                next();
+            }
+            code(EOI);
+            if (bitCount > 0)
+                put(bits);
+            if (blockLength > 0)
+                flushBlock();
+            write(0);
+        }
+
+        /**
+         * Reserva el siguiente código. Si se acaban, vacía el diccionario y devuelve false.
+         */
+        private boolean next() throws IOException {
+            hi++;
+            if (hi == overflow) {
+                width++;
+                overflow <<= 1;
+            }
+            if (hi == MAX_CODE) {
+                code(CLEAR);
+                width = 9;
+                hi = EOI;
+                overflow = 1 << width;
+                Arrays.fill(table, 0);
+                return false;
+            }
+            return true;
+        }
+
+        private void code(int c) throws IOException {
+            bits |= c << bitCount;
+            bitCount += width;
+            while (bitCount >= 8) {
+                put(bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        private void put(int b) throws IOException {
+            block[blockLength++] = (byte) b;
+            if (blockLength == block.length)
+                flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            write(blockLength);
+            write(block, 0, blockLength);
+            blockLength = 0;
+        }
+    }
+}
@@ -0,0 +1,613 @@
+
+/**
+ * @file AutomatonBenchmark.java
+ * @author Yeray Doello Gonzalez
+ * @brief Banco de pruebas de las variantes del autómata con bifurcaciones, calentamiento e intervalos de confianza
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Mide las seis variantes CellularAutomaton2D_Frontera_acotada_tipo_* con el
+ * mismo método que JMH: cada combinación de parámetros se ejecuta en varias JVM
+ * nuevas (bifurcaciones), cada una con iteraciones de calentamiento que se
+ * descartan y iteraciones de medida de duración fija. El resultado es la media
+ * de todas las iteraciones medidas con su intervalo de confianza del 99.9%
+ * (t de Student), y se acompaña del perfil de memoria equivalente a -prof gc:
+ * bytes asignados por operación, tasa de asignación y recolecciones.
+ *
+ * Las variantes no se pueden compilar juntas (cada una define su clase task),
+ * así que cada variante se compila aparte en un directorio temporal y la JVM
+ * hija la carga por reflexión. nextState y look_free_space se invocan a través
+ * de lambdas generadas con LambdaMetafactory para que el JIT pueda integrarlas
+ * igual que una llamada directa.
+ *
+ * Pruebas:
+ *   generation       generaciones completas de task.run con los hilos indicados (ns por generación).
+ *                    Los hilos se crean una vez por JVM hija y esperan cada operación en
+ *                    una barrera: el tiempo va de la barrera de salida a la de llegada,
+ *                    sin el coste de crear y unir hilos
+ *   nextState        task.nextState sobre cada celda de la retícula (ns por celda)
+ *   look_free_space  task.look_free_space sobre cada celda de la retícula (ns por celda)
+ *   printGrid        task.printGrid de la retícula completa a PNG (ns por imagen)
+ * Todas parten de un tumor ya crecido de {@link WorkloadGenerator} (por defecto un
+ * disco central ocupado al 70%, el estado de una fase avanzada).
+ *
+ * Uso: java AutomatonBenchmark [opciones]
+ *   --benchmarks a,b        pruebas a ejecutar (por defecto todas)
+ *   --types byte,char,int   tipos de celda (por defecto todos)
+ *   --sync synchronized,lock  modos de sincronización (por defecto ambos)
+ *   --threads 1,2,4         hilos de la prueba generation (por defecto 1 y el número de núcleos)
+ *   --sizes 400             tamaños de la retícula (por defecto 400)
+ *   --presets 1,5           escenarios del menú (por defecto 1)
+ *   --forks N               JVM por combinación (por defecto 3)
+ *   --warmup N              iteraciones de calentamiento por JVM (por defecto 5)
+ *   --iterations N          iteraciones medidas por JVM (por defecto 10)
+ *   --iteration-ms N        duración de cada iteración (por defecto 500)
+ *   --generations-per-op N  generaciones por operación de generation (por defecto 1). Con
+ *                           varios hilos solo se admite 1 (ver {@link #checkGenerationsPerOp})
+ *   --workload P            patrón del tumor inicial: disc, ring, blob o multifocus
+ *   --output f.csv          escribe también los resultados en CSV
+ * La propiedad -Dkernel (specialized, generic, legacy) se pasa a las JVM hijas.
+ */
+public class AutomatonBenchmark {
+    public static final String[] BENCHMARKS = { "generation", "nextState", "look_free_space", "printGrid" };
+    public static final String CSV_HEADER = "prueba,tipo,sincronizacion,hilos,tamano,escenario,muestras,media_ns_op,"
+            + "error_999,desviacion,min,max,asignacion_mb_s,asignacion_b_op,gc_recolecciones,gc_ms";
+
+    /**
+     * Una combinación de parámetros.
+     */
+    static class Params {
+        final String benchmark;
+        final String cellType;
+        final String sync;
+        final int threads;
+        final int size;
+        final int preset;
+
+        Params(String benchmark, String cellType, String sync, int threads, int size, int preset) {
+            this.benchmark = benchmark;
+            this.cellType = cellType;
+            this.sync = sync;
+            this.threads = threads;
+            this.size = size;
+            this.preset = preset;
+        }
+
+        String variant() {
+            return "CellularAutomaton2D_Frontera_acotada_tipo_" + cellType + "_"
+                    + (sync.equals("lock") ? "bloqueo_lock" : "synchronized");
+        }
+    }
+
+    /**
+     * Resultado de una combinación, agregado sobre todas sus bifurcaciones.
+     */
+    static class Result {
+        final Params params;
+        // Una muestra por iteración medida
+        final RunningStatistics score = new RunningStatistics();
+        final RunningStatistics allocationPerOp = new RunningStatistics();
+        final RunningStatistics allocationRate = new RunningStatistics();
+        long gcCount;
+        long gcTime;
+
+        Result(Params params) {
+            this.params = params;
+        }
+
+        double getError() {
+            return score.getConfidenceHalfWidth(0.999);
+        }
+    }
+
+    /**
+     * Tiempo, operaciones y bytes asignados acumulados durante una iteración.
+     */
+    static final class Sample {
+        long nanos;
+        long ops;
+        long bytes;
+    }
+
+    /**
+     * Una operación medible. Prepara su estado fuera del tiempo medido y suma a
+     * la muestra solo el tiempo y los bytes asignados de la parte medida.
+     */
+    interface Operation {
+        void run(Sample sample) throws Exception;
+    }
+
+    interface CellOperation {
+        void apply(int i, int j);
+    }
+
+    interface FreeSpaceLookup {
+        int[] apply(int i, int j);
+    }
+
+    // Evita que el JIT elimine los resultados de look_free_space
+    static volatile int sink;
+
+    private int forks = 3;
+    private int warmupIterations = 5;
+    private int measurementIterations = 10;
+    private int iterationMillis = 500;
+    private int generationsPerOp = 1;
+    private String workload = "disc";
+    private final Map<String, Path> compiled = new HashMap<>();
+
+    public void setForks(int forks) {
+        this.forks = forks;
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    public void setMeasurementIterations(int measurementIterations) {
+        this.measurementIterations = measurementIterations;
+    }
+
+    public void setIterationMillis(int iterationMillis) {
+        this.iterationMillis = iterationMillis;
+    }
+
+    public void setGenerationsPerOp(int generationsPerOp) {
+        checkGenerationsPerOp(generationsPerOp, 1);
+        this.generationsPerOp = generationsPerOp;
+    }
+
+    /**
+     * Comprueba que task.run puede ejecutar generationsPerOp generaciones con
+     * threads hilos sin bloquearse ni fallar:
+     *   - con varios hilos y más de una generación, cada hilo comprueba el borde
+     *     por su cuenta y uno puede verlo mientras otro ya avanza a la generación
+     *     siguiente, y los dos se quedan esperando en barreras distintas;
+     *   - la condición de impresión de task.run calcula gen % (generations / 10 - 1),
+     *     que divide por cero con 10 a 19 generaciones.
+     * @param generationsPerOp Las generaciones por operación.
+     * @param threads El número de hilos.
+     * @throws IllegalArgumentException Si la combinación no se puede ejecutar.
+     */
+    public static void checkGenerationsPerOp(int generationsPerOp, int threads) {
+        if (generationsPerOp < 1)
+            throw new IllegalArgumentException("Las generaciones por operacion deben ser al menos 1");
+        if (generationsPerOp >= 10 && generationsPerOp < 20)
+            throw new IllegalArgumentException("task.run no admite de 10 a 19 generaciones (divide por generations / 10 - 1)");
+        if (generationsPerOp > 1 && threads > 1)
+            throw new IllegalArgumentException("Con " + threads + " hilos solo se admite una generacion por operacion");
+    }
+
+    public void setWorkload(String workload) {
+        this.workload = workload;
+    }
+
+    /**
+     * Compila una variante y las clases que usa en un directorio propio.
+     * @param variant El nombre de la variante.
+     * @return El directorio con las clases compiladas.
+     * @throws IOException Si no se puede crear el directorio.
+     */
+    Path compile(String variant) throws IOException {
+        Path dir = compiled.get(variant);
+        if (dir != null)
+            return dir;
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("No hay compilador de Java disponible (se necesita un JDK)");
+        dir = Files.createTempDirectory("bench-" + variant);
+        int status = compiler.run(null, null, null, "-encoding", "UTF-8", "-nowarn", "-sourcepath", ".", "-d",
+                dir.toString(), variant + ".java");
+        if (status != 0)
+            throw new IllegalStateException("No se ha podido compilar " + variant);
+        compiled.put(variant, dir);
+        return dir;
+    }
+
+    /**
+     * Borra los directorios de las variantes compiladas.
+     */
+    public void cleanup() {
+        for (Path dir : compiled.values()) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        compiled.clear();
+    }
+
+    /**
+     * Ejecuta todas las bifurcaciones de una combinación.
+     * @param params La combinación.
+     * @return El resultado agregado.
+     * @throws IOException Si no se puede compilar la variante o lanzar la JVM hija.
+     * @throws InterruptedException Si se interrumpe la espera de la JVM hija.
+     */
+    public Result run(Params params) throws IOException, InterruptedException {
+        Path classes = compile(params.variant());
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Result result = new Result(params);
+        for (int fork = 0; fork < forks; fork++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            if (System.getProperty("kernel") != null)
+                command.add("-Dkernel=" + System.getProperty("kernel"));
+            command.addAll(Arrays.asList("-cp", classes + File.pathSeparator + System.getProperty("java.class.path"),
+                    "AutomatonBenchmark", "--fork", params.benchmark, params.cellType, params.sync,
+                    Integer.toString(params.threads), Integer.toString(params.size), Integer.toString(params.preset),
+                    Integer.toString(warmupIterations), Integer.toString(measurementIterations),
+                    Integer.toString(iterationMillis), Integer.toString(generationsPerOp), workload));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts[0].equals("ITERACION")) {
+                        result.score.add(Double.parseDouble(parts[1]));
+                        result.allocationPerOp.add(Double.parseDouble(parts[2]));
+                        result.allocationRate.add(Double.parseDouble(parts[3]));
+                    } else if (parts[0].equals("GC")) {
+                        result.gcCount += Long.parseLong(parts[1]);
+                        result.gcTime += Long.parseLong(parts[2]);
+                    } else
+                        System.err.println("  [" + params.variant() + "/" + params.benchmark + "] " + line);
+                }
+            }
+            if (process.waitFor() != 0)
+                System.err.println("La JVM hija de " + params.variant() + "/" + params.benchmark + " ha terminado con error");
+        }
+        return result;
+    }
+
+    /**
+     * Ejecuta una combinación dentro de la JVM hija e imprime una línea por iteración medida.
+     */
+    private static void runFork(Params p, int warmup, int iterations, int iterationMillis, int generationsPerOp,
+            String workload) throws Throwable {
+        checkGenerationsPerOp(generationsPerOp, p.threads);
+        ScenarioSettings settings = ScenarioSettings.load(p.preset);
+        Class<?> task = Class.forName("task");
+        Class<?> main = Class.forName(p.variant());
+        Object template = new WorkloadGenerator(WorkloadGenerator.Pattern.valueOf(workload.toUpperCase()))
+                .grid(p.cellType, p.size, settings.cell_proliferation_potential_max);
+        for (Method m : task.getDeclaredMethods()) {
+            if (m.getName().equals("setSimulationParameters")) {
+                m.setAccessible(true);
+                m.invoke(null, p.size, generationsPerOp, template, template, settings.cell_proliferation_potential_max,
+                        settings.chance_spontaneous_death, settings.chance_proliferation, settings.chance_STC_creation,
+                        settings.chance_migration, settings.starter_cell_is_STC);
+            }
+        }
+        staticField(task, "SCENARIO").set(null, "benchmark");
+        staticField(task, "kernel").set(null, RuleKernels.forScenario(p.cellType, settings));
+        staticField(main, "numThreads").set(null, p.threads);
+        new File("output").mkdirs();
+
+        Operation operation = operation(p, task, template, generationsPerOp);
+        long gcCount = 0, gcTime = 0;
+        for (int iteration = 0; iteration < warmup + iterations; iteration++) {
+            if (iteration == warmup) {
+                gcCount = -gcCount();
+                gcTime = -gcTime();
+            }
+            Sample sample = new Sample();
+            long deadline = System.nanoTime() + iterationMillis * 1000000L;
+            while (System.nanoTime() < deadline || sample.ops == 0)
+                operation.run(sample);
+            if (iteration >= warmup) {
+                System.out.println("ITERACION " + (double) sample.nanos / sample.ops + " "
+                        + (double) sample.bytes / sample.ops + " " + sample.bytes * 1000.0 / sample.nanos);
+            }
+        }
+        System.out.println("GC " + (gcCount + gcCount()) + " " + (gcTime + gcTime()));
+    }
+
+    /**
+     * Construye la operación de una prueba.
+     */
+    private static Operation operation(Params p, Class<?> task, Object template, int generationsPerOp)
+            throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        Field currentGrid = staticField(task, "currentGrid");
+        Field nextGrid = staticField(task, "nextGrid");
+        Field size = staticField(task, "size");
+        Constructor<?> constructor = task.getDeclaredConstructor(int.class, int.class, int.class);
+        constructor.setAccessible(true);
+        // Restablece la retícula al estado de partida, fuera del tiempo medido
+        Runnable reset = () -> {
+            try {
+                Object grid = KernelBenchmark.copy(template, p.size);
+                currentGrid.set(null, grid);
+                nextGrid.set(null, grid);
+                size.setInt(null, p.size);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        int n = p.size;
+        switch (p.benchmark) {
+            case "generation": {
+                Field barrier = staticField(task, "barrier");
+                barrier.set(null, new CyclicBarrier(p.threads));
+                Runnable[] workers = new Runnable[p.threads];
+                AtomicLong allocated = new AtomicLong();
+                long[] interval = new long[2];
+                // El último hilo en llegar a cada barrera toma el instante, así el tiempo
+                // medido es solo el de la generación
+                CyclicBarrier start = new CyclicBarrier(p.threads + 1, () -> interval[0] = System.nanoTime());
+                CyclicBarrier end = new CyclicBarrier(p.threads + 1, () -> interval[1] = System.nanoTime());
+                for (int t = 0; t < p.threads; t++) {
+                    final int index = t;
+                    Thread thread = new Thread(() -> {
+                        while (true) {
+                            try {
+                                start.await();
+                                long before = threadBean.getCurrentThreadAllocatedBytes();
+                                try {
+                                    workers[index].run();
+                                } finally {
+                                    allocated.addAndGet(threadBean.getCurrentThreadAllocatedBytes() - before);
+                                    end.await();
+                                }
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                                return;
+                            }
+                        }
+                    });
+                    // Los hilos quedan esperando la siguiente operación al terminar la JVM hija
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                return sample -> {
+                    reset.run();
+                    for (int t = 0; t < p.threads; t++)
+                        workers[t] = (Runnable) constructor.newInstance(t, t * n / p.threads, (t + 1) * n / p.threads);
+                    allocated.set(0);
+                    start.await();
+                    end.await();
+                    sample.nanos += interval[1] - interval[0];
+                    sample.ops += generationsPerOp;
+                    sample.bytes += allocated.get();
+                };
+            }
+            case "nextState": {
+                MethodType type = MethodType.methodType(void.class, int.class, int.class);
+                MethodHandle target = lookup.findVirtual(task, "nextState", type);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                        MethodType.methodType(CellOperation.class, task), type, target, type);
+                CellOperation nextState = (CellOperation) site.getTarget().invoke(constructor.newInstance(0, 0, n));
+                return sample -> {
+                    reset.run();
+                    long allocated = threadBean.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    for (int i = n - 1; i >= 0; i--)
+                        for (int j = n - 1; j > 0; j--)
+                            nextState.apply(i, j);
+                    sample.nanos += System.nanoTime() - start;
+                    sample.bytes += threadBean.getCurrentThreadAllocatedBytes() - allocated;
+                    sample.ops += (long) n * (n - 1);
+                };
+            }
+            case "look_free_space": {
+                MethodType type = MethodType.methodType(int[].class, int.class, int.class);
+                MethodHandle target = lookup.findStatic(task, "look_free_space", type);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                        MethodType.methodType(FreeSpaceLookup.class), type, target, type);
+                FreeSpaceLookup lookFreeSpace = (FreeSpaceLookup) site.getTarget().invoke();
+                return sample -> {
+                    reset.run();
+                    int found = 0;
+                    long allocated = threadBean.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    for (int i = n - 1; i >= 0; i--)
+                        for (int j = n - 1; j > 0; j--)
+                            if (lookFreeSpace.apply(i, j) != null)
+                                found++;
+                    sample.nanos += System.nanoTime() - start;
+                    sample.bytes += threadBean.getCurrentThreadAllocatedBytes() - allocated;
+                    sample.ops += (long) n * (n - 1);
+                    sink = found;
+                };
+            }
+            case "printGrid": {
+                Method printGrid = null;
+                for (Method m : task.getDeclaredMethods())
+                    if (m.getName().equals("printGrid"))
+                        printGrid = m;
+                Method print = printGrid;
+                print.setAccessible(true);
+                return sample -> {
+                    reset.run();
+                    Object grid = currentGrid.get(null);
+                    long allocated = threadBean.getCurrentThreadAllocatedBytes();
+                    long start = System.nanoTime();
+                    print.invoke(null, grid, 0, p.threads);
+                    sample.nanos += System.nanoTime() - start;
+                    sample.bytes += threadBean.getCurrentThreadAllocatedBytes() - allocated;
+                    sample.ops++;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Prueba desconocida: " + p.benchmark);
+        }
+    }
+
+    private static Field staticField(Class<?> owner, String name) throws NoSuchFieldException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, gc.getCollectionTime());
+        return time;
+    }
+
+    /**
+     * Convierte un resultado en una línea CSV.
+     */
+    static String csv(Result r) {
+        Params p = r.params;
+        return p.benchmark + "," + p.cellType + "," + p.sync + "," + p.threads + "," + p.size + "," + p.preset + ","
+                + r.score.getCount() + "," + r.score.getMean() + "," + r.getError() + ","
+                + r.score.getStandardDeviation() + "," + r.score.getMin() + "," + r.score.getMax() + ","
+                + r.allocationRate.getMean() + "," + r.allocationPerOp.getMean() + "," + r.gcCount + "," + r.gcTime;
+    }
+
+    private static String[] list(String spec) {
+        return spec.split(",");
+    }
+
+    private static int[] intList(String spec) {
+        String[] parts = spec.split(",");
+        int[] values = new int[parts.length];
+        for (int k = 0; k < parts.length; k++)
+            values[k] = Integer.parseInt(parts[k]);
+        return values;
+    }
+
+    /**
+     * Lee las opciones, ejecuta todas las combinaciones y muestra una tabla con los resultados.
+     * @param args Argumentos de línea de comandos.
+     * @throws Throwable Si falla la compilación, una JVM hija o la escritura de resultados.
+     */
+    public static void main(String[] args) throws Throwable {
+        if (args.length > 0 && args[0].equals("--fork")) {
+            runFork(new Params(args[1], args[2], args[3], Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+                    Integer.parseInt(args[6])), Integer.parseInt(args[7]), Integer.parseInt(args[8]),
+                    Integer.parseInt(args[9]), Integer.parseInt(args[10]), args[11]);
+            return;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        String[] benchmarks = BENCHMARKS;
+        String[] types = { "byte", "char", "int" };
+        String[] syncs = { "synchronized", "lock" };
+        int[] threads = cores > 1 ? new int[] { 1, cores } : new int[] { 1 };
+        int[] sizes = { 400 };
+        int[] presets = { 1 };
+        int generationsPerOp = 1;
+        String output = null;
+        AutomatonBenchmark bench = new AutomatonBenchmark();
+        for (int k = 0; k < args.length; k++) {
+            String value = k + 1 < args.length ? args[k + 1] : "";
+            switch (args[k]) {
+                case "--benchmarks": benchmarks = list(value); k++; break;
+                case "--types": types = list(value); k++; break;
+                case "--sync": syncs = list(value); k++; break;
+                case "--threads": threads = intList(value); k++; break;
+                case "--sizes": sizes = intList(value); k++; break;
+                case "--presets": presets = intList(value); k++; break;
+                case "--forks": bench.setForks(Integer.parseInt(value)); k++; break;
+                case "--warmup": bench.setWarmupIterations(Integer.parseInt(value)); k++; break;
+                case "--iterations": bench.setMeasurementIterations(Integer.parseInt(value)); k++; break;
+                case "--iteration-ms": bench.setIterationMillis(Integer.parseInt(value)); k++; break;
+                case "--generations-per-op": generationsPerOp = Integer.parseInt(value); k++; break;
+                case "--workload": bench.setWorkload(value); k++; break;
+                case "--output": output = value; k++; break;
+                default:
+                    System.err.println("Opcion desconocida: " + args[k]);
+                    System.exit(1);
+            }
+        }
+
+        try {
+            bench.setGenerationsPerOp(generationsPerOp);
+            if (Arrays.asList(benchmarks).contains("generation"))
+                for (int t : threads)
+                    checkGenerationsPerOp(generationsPerOp, t);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        List<Params> combinations = new ArrayList<>();
+        for (String benchmark : benchmarks)
+            for (String type : types)
+                for (String sync : syncs)
+                    for (int size : sizes)
+                        for (int preset : presets) {
+                            // Solo generation usa varios hilos; el resto se mide con uno
+                            if (benchmark.equals("generation"))
+                                for (int t : threads)
+                                    combinations.add(new Params(benchmark, type, sync, t, size, preset));
+                            else
+                                combinations.add(new Params(benchmark, type, sync, 1, size, preset));
+                        }
+
+        PrintWriter csv = output != null ? new PrintWriter(new FileWriter(output)) : null;
+        if (csv != null) {
+            csv.println(CSV_HEADER);
+            csv.flush();
+        }
+        List<Result> results = new ArrayList<>();
+        for (int k = 0; k < combinations.size(); k++) {
+            Params p = combinations.get(k);
+            System.err.println("(" + (k + 1) + "/" + combinations.size() + ") " + p.variant() + " " + p.benchmark
+                    + " hilos=" + p.threads + " tamano=" + p.size + " escenario=" + p.preset);
+            Result r = bench.run(p);
+            results.add(r);
+            if (csv != null) {
+                csv.println(csv(r));
+                csv.flush();
+            }
+        }
+        if (csv != null)
+            csv.close();
+        bench.cleanup();
+
+        System.out.printf("%n%-16s %-5s %-13s %5s %6s %9s %4s %16s %14s %12s %12s %6s %8s%n", "Prueba", "Tipo",
+                "Sincro", "Hilos", "Tamano", "Escenario", "Cnt", "Media (ns/op)", "Error 99.9%", "Asig (B/op)",
+                "Asig (MB/s)", "GCs", "GC (ms)");
+        for (Result r : results) {
+            Params p = r.params;
+            System.out.printf("%-16s %-5s %-13s %5d %6d %9d %4d %16.3f %14.3f %12.1f %12.1f %6d %8d%n", p.benchmark,
+                    p.cellType, p.sync, p.threads, p.size, p.preset, r.score.getCount(), r.score.getMean(),
+                    r.getError(), r.allocationPerOp.getMean(), r.allocationRate.getMean(), r.gcCount, r.gcTime);
+        }
+    }
+}
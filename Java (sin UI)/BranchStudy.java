@@ -0,0 +1,112 @@
+/**
+ * @file BranchStudy.java
+ * @author Yeray Doello Gonzalez
+ * @brief Estudio de alternativas ramificando una misma simulación
+ */
+
+import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compara valores de un parámetro a partir de un mismo estado: ejecuta una
+ * simulación hasta la generación T (o la continúa desde un punto de control) y
+ * la ramifica con {@link Simulation#branch(ScenarioSettings)}, una rama por
+ * valor, que siguen en paralelo hasta el final del escenario. El prefijo común
+ * se calcula una sola vez y todas las ramas parten del mismo estado de los
+ * generadores aleatorios, así que las diferencias se deben al parámetro.
+ *
+ * Las ramas comparten las filas de la retícula con copia al escribir. Al
+ * terminar se muestra, por rama, la población y las filas propias, y la memoria
+ * de todas las filas distintas frente a la de copiar la retícula en cada rama.
+ *
+ * Uso: java BranchStudy escenario|punto_de_control generacion parametro valor [valor...]
+ *   -Dstudy.threads=H   hilos por simulación (por defecto 1)
+ *   -Dstudy.size=S      tamaño inicial de la retícula (por defecto 400)
+ *   -Dstudy.seed=S      semilla (por defecto 42)
+ */
+public class BranchStudy {
+
+    /**
+     * Memoria de una fila de la retícula, con la cabecera del array y alineada a 8 bytes.
+     */
+    private static long rowBytes(byte[] row) {
+        return (16 + row.length + 7) & ~7L;
+    }
+
+    /**
+     * Ejecuta el estudio.
+     * @param args Argumentos de línea de comandos.
+     * @throws Exception Si no se puede leer el escenario o falla alguna rama.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Uso: java BranchStudy escenario|punto_de_control generacion parametro valor [valor...]");
+            return;
+        }
+        int threads = Integer.getInteger("study.threads", 1);
+        int size = Integer.getInteger("study.size", 400);
+        long seed = Long.getLong("study.seed", 42);
+        int branchGeneration = Integer.parseInt(args[1]);
+        String parameter = args[2];
+
+        Simulation base;
+        if (new File(args[0]).isFile())
+            base = Simulation.restore(args[0]);
+        else
+            base = new Simulation(ScenarioSettings.load(Integer.parseInt(args[0])), threads, size, seed);
+        ScenarioSettings settings = base.getSettings();
+        System.out.println(settings);
+
+        long start = System.currentTimeMillis();
+        if (base.getGeneration() < branchGeneration)
+            base.runUntil(branchGeneration);
+        long prefix = System.currentTimeMillis() - start;
+        int[] counts = base.countCells();
+        System.out.println("Prefijo comun hasta la generacion " + base.getGeneration() + ": RTC=" + counts[0]
+                + " STC=" + counts[1] + " tamano=" + base.getSize() + " (" + prefix + " ms)");
+
+        Simulation[] branches = new Simulation[args.length - 3];
+        for (int b = 0; b < branches.length; b++)
+            branches[b] = base.branch(settings.withParameter(parameter, args[b + 3]));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / threads));
+        ExecutorCompletionService<Simulation> completion = new ExecutorCompletionService<>(pool);
+        start = System.currentTimeMillis();
+        for (Simulation branch : branches) {
+            completion.submit(() -> {
+                branch.runUntil(settings.generations);
+                return branch;
+            });
+        }
+        for (int b = 0; b < branches.length; b++)
+            completion.take().get();
+        pool.shutdown();
+        System.out.println("Ramas hasta la generacion " + settings.generations + ": "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        System.out.println(parameter + ";rtc;stc;tamano;filas propias;filas compartidas");
+        Set<byte[]> rows = Collections.newSetFromMap(new IdentityHashMap<>());
+        long copied = 0;
+        for (int b = 0; b < branches.length; b++) {
+            Simulation branch = branches[b];
+            counts = branch.countCells();
+            int shared = branch.getSharedRowCount();
+            System.out.println(args[b + 3] + ";" + counts[0] + ";" + counts[1] + ";" + branch.getSize() + ";"
+                    + (branch.getSize() - shared) + ";" + shared);
+            for (byte[] row : branch.getGrid()) {
+                rows.add(row);
+                copied += rowBytes(row);
+            }
+        }
+        long unique = 0;
+        for (byte[] row : rows)
+            unique += rowBytes(row);
+        System.out.println(String.format("Memoria de las filas: %.1f MB con copia al escribir, %.1f MB copiando la reticula en cada rama",
+                unique / 1048576.0, copied / 1048576.0));
+    }
+}
@@ -0,0 +1,104 @@
+
+/**
+ * @file ByteRuleKernel.java
+ * @author Yeray Doello Gonzalez
+ * @brief Kernel de reglas genérico para retículas de tipo byte
+ */
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Kernel precompilado equivalente al kernel GENERIC de {@link RuleKernels} para
+ * byte[][]. Se usa cuando no hay compilador disponible para generar el kernel
+ * especializado.
+ */
+public final class ByteRuleKernel implements RuleKernel {
+    private final int cell_proliferation_potential_max;
+    private final float chance_spontaneous_death;
+    private final int chance_proliferation;
+    private final int chance_STC_creation;
+    private final int chance_migration;
+
+    /**
+     * Constructor de la clase ByteRuleKernel.
+     * @param settings Los parámetros del escenario.
+     */
+    public ByteRuleKernel(ScenarioSettings settings) {
+        this.cell_proliferation_potential_max = settings.cell_proliferation_potential_max;
+        this.chance_spontaneous_death = settings.chance_spontaneous_death;
+        this.chance_proliferation = settings.chance_proliferation;
+        this.chance_STC_creation = settings.chance_STC_creation;
+        this.chance_migration = settings.chance_migration;
+    }
+
+    @Override
+    public String describe() {
+        return "kernel generico precompilado byte";
+    }
+
+    @Override
+    public void nextState(Object current, Object next, int i, int j, RandomGenerator rng) {
+        byte[][] currentGrid = (byte[][]) current;
+        if (currentGrid[i][j] <= 0)
+            return;
+        evolve(currentGrid, (byte[][]) next, i, j, rng);
+    }
+
+    private void evolve(byte[][] currentGrid, byte[][] nextGrid, int i, int j, RandomGenerator rng) {
+        int pmax = cell_proliferation_potential_max;
+        // Check chance_spontaneous_death
+        if (currentGrid[i][j] <= pmax && rng.nextInt(100) < chance_spontaneous_death) {
+            nextGrid[i][j] = 0;
+            return;
+        }
+        // Check free_space
+        int size = currentGrid.length;
+        int fi = 0;
+        int fj = 0;
+        int random_number = rng.nextInt(1000) % 4;
+        for (int k = 0; k < 4; k++) {
+            switch (random_number) {
+                case 0:
+                    if (i - 1 >= 0 && currentGrid[i - 1][j] == 0) { fi = i - 1; fj = j; }
+                    break;
+                case 1:
+                    if (i + 1 < size && currentGrid[i + 1][j] == 0) { fi = i + 1; fj = j; }
+                    break;
+                case 2:
+                    if (j - 1 >= 0 && currentGrid[i][j - 1] == 0) { fi = i; fj = j - 1; }
+                    break;
+                case 3:
+                    if (j + 1 < size && currentGrid[i][j + 1] == 0) { fi = i; fj = j + 1; }
+                    break;
+            }
+            if (fi != 0 || fj != 0)
+                break;
+            random_number = (random_number - 1) % 4;
+        }
+        if (fi == 0 && fj == 0)
+            return;
+        currentGrid[fi][fj] = -1;
+        // Check proliferation_chance
+        if (rng.nextInt(100) < chance_proliferation) {
+            if (currentGrid[i][j] > pmax) {
+                // Create STC_Daugther o RTC_Daugther
+                nextGrid[fi][fj] = (byte) (rng.nextInt(100) < chance_STC_creation ? pmax + 1 : pmax);
+            } else {
+                // Adjust proliferation_potential
+                nextGrid[i][j]--;
+                if (nextGrid[i][j] > 0) {
+                    nextGrid[fi][fj] = nextGrid[i][j];
+                } else {
+                    currentGrid[fi][fj] = 0;
+                    nextGrid[i][j] = 0;
+                }
+            }
+        } else if (rng.nextInt(100) < chance_migration) {
+            // Update cell_position
+            nextGrid[fi][fj] = currentGrid[i][j];
+            nextGrid[i][j] = 0;
+        } else {
+            currentGrid[fi][fj] = 0;
+        }
+    }
+}
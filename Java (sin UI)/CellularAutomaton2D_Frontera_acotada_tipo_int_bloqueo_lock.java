@@ -7,7 +7,6 @@
 
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ThreadLocalRandom;
-import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -15,10 +14,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.concurrent.locks.ReentrantLock;
 
-import javax.imageio.ImageIO;
-import java.awt.Color;
-import java.awt.Graphics2D;
-
 /**
  * Clase principal que implementa un autómata celular en dos dimensiones con frontera acotada.
  * Se utiliza para simular la proliferación y comportamiento de células en un entorno
@@ -29,6 +24,8 @@ public class CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock {
     static int[][] currentGrid;
     static int[][] nextGrid;
     static int size;
+    // Estado inicial cargado de un archivo (-Dinitial.state), o null
+    static InitialStateLoader initialState;
     static int numThreads = 1;
     static int generations;
 
@@ -167,13 +164,27 @@ public class CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock {
         task.setSimulationParameters(size, generations, currentGrid, nextGrid, cell_proliferation_potential_max,
                 chance_spontaneous_death, chance_proliferation, chance_STC_creation, chance_migration,
                 starter_cell_is_STC);
+        // Generar el kernel de reglas con los parámetros del escenario como constantes
+        ScenarioSettings settings = new ScenarioSettings(task.SCENARIO, generations, cell_proliferation_potential_max,
+                chance_spontaneous_death, chance_proliferation, chance_migration, chance_STC_creation,
+                starter_cell_is_STC);
+        task.kernel = RuleKernels.forScenario("int", settings);
+        // Estado inicial desde un archivo, decodificado una sola vez para las dos ejecuciones
+        initialState = InitialStateLoader.fromProperty();
+        if (initialState != null)
+            System.out.println("Estado inicial: " + initialState);
         currentGrid = initializeGrid(currentGrid);
+        if (task.printing)
+            task.snapshots = new SnapshotPipeline(FrameSink.fromProperty(settings),
+                    SnapshotPipeline.Policy.fromProperty(), cell_proliferation_potential_max);
 
         // Ejecución secuencial con un solo hilo
         Thread singleThread = new Thread(new task(0, 0, size));
         long secuentialStartTime = System.currentTimeMillis();
         singleThread.start();
         singleThread.join();
+        if (task.snapshots != null)
+            task.snapshots.flush();
         long secuentialEndTime = System.currentTimeMillis();
         long singleThreadTime = secuentialEndTime - secuentialStartTime;
 
@@ -188,6 +199,8 @@ public class CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock {
             Thread[] threads = new Thread[numThreads];
             CyclicBarrier barrier = new CyclicBarrier(numThreads);
             task.barrier = barrier;
+            if (ProfiledLock.ENABLED)
+                task.profiler = new ProfiledLock(task.lck, numThreads);
             for (int i = 0; i < numThreads; i++) {
                 int startRow = i * size / numThreads;
                 int endRow = (i + 1) * size / numThreads;
@@ -200,6 +213,8 @@ public class CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock {
             for (int i = 0; i < numThreads; i++) {
                 threads[i].join();
             }
+            if (task.snapshots != null)
+                task.snapshots.flush();
             parallelEndTime = System.currentTimeMillis();
 
             System.out.println("Tiempo de ejecucion con " + numThreads + " hilos: "
@@ -210,21 +225,34 @@ public class CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock {
                     / (parallelEndTime - parallelStartTime);
 
             System.out.println("Speedup: " + speedup + "\n");
+            if (task.profiler != null)
+                task.profiler.finish();
+            if (task.snapshots != null) {
+                task.snapshots.close();
+                System.out.println(task.snapshots.describe());
+            }
 
     }
 
     /**
-     * Inicializa la retícula del autómata celular.
+     * Inicializa la retícula del autómata celular: una célula en el centro o, con
+     * -Dinitial.state, el estado de un archivo ({@link InitialStateLoader}), en
+     * una retícula de 400 o más si no cabe.
      * @param grid La retícula a inicializar.
      * @return La retícula inicializada con las células de inicio.
      */
     static int[][] initializeGrid(int[][] grid) {
         task.size = 400;
-        grid = new int[size][size];
-        if (task.starter_cell_is_STC) {
-            grid[size / 2][size / 2] = task.cell_proliferation_potential_max + 1;
+        if (initialState != null) {
+            grid = initialState.intGrid(task.size, task.cell_proliferation_potential_max, task.starter_cell_is_STC);
+            size = task.size = grid.length;
         } else {
-            grid[size / 2][size / 2] = task.cell_proliferation_potential_max;
+            grid = new int[size][size];
+            if (task.starter_cell_is_STC) {
+                grid[size / 2][size / 2] = task.cell_proliferation_potential_max + 1;
+            } else {
+                grid[size / 2][size / 2] = task.cell_proliferation_potential_max;
+            }
         }
         task.currentGrid = grid;
         task.nextGrid = grid;
@@ -245,8 +273,13 @@ class task implements Runnable {
     public static int[][] currentGrid;
     public static int[][] nextGrid;
     public static CyclicBarrier barrier;
+    // Medición de la contención del cerrojo de frontera (-Dlock.profile=true)
+    static ProfiledLock profiler;
+    // Escritura de las imágenes en segundo plano (si se imprime)
+    static SnapshotPipeline snapshots;
     static ReentrantLock lck = new ReentrantLock();
     public static boolean printing = false;
+    static RuleKernel kernel;
 
     static int cell_proliferation_potential_max;
     static float chance_spontaneous_death;
@@ -297,6 +330,20 @@ class task implements Runnable {
         task.starter_cell_is_STC = starter_cell_is_STC;
     }
 
+    /**
+     * Evalúa el siguiente estado de la célula (i, j) con el kernel generado para el
+     * escenario o, si no se ha podido generar, con nextState.
+     * 
+     * @param i La fila de la célula en la cuadrícula.
+     * @param j La columna de la célula en la cuadrícula.
+     */
+    private void step(int i, int j) {
+        if (kernel != null)
+            kernel.nextState(currentGrid, nextGrid, i, j, ThreadLocalRandom.current());
+        else
+            nextState(i, j);
+    }
+
     /**
      * Evalúa el siguiente estado de la célula ubicada en las coordenadas (i, j) de la cuadrícula. 
      * Aplica las reglas de muerte espontánea, proliferación, creación de células STC, y migración.
@@ -314,8 +361,10 @@ class task implements Runnable {
             nextGrid[i][j] = 0;
         } else {
             // Check free_space
-            int[] free_space = look_free_space(i, j);
-            if (free_space != null) {
+            long free_space = find_free_space(i, j);
+            if (free_space != -1) {
+                int fi = (int) (free_space >>> 32);
+                int fj = (int) free_space;
                 // Check proliferation_chance
                 if (chance_proliferation(i, j)) {
                     // Check cell_is_STC
@@ -323,10 +372,10 @@ class task implements Runnable {
                         // Check chance_STC_creation
                         if (chance_STC_creation(i, j)) {
                             // Create STC_Daugther
-                            nextGrid[free_space[0]][free_space[1]] = cell_proliferation_potential_max + 1;
+                            nextGrid[fi][fj] = cell_proliferation_potential_max + 1;
                         } else {
                             // Create RTC_Daugther
-                            nextGrid[free_space[0]][free_space[1]] = cell_proliferation_potential_max;
+                            nextGrid[fi][fj] = cell_proliferation_potential_max;
                         }
                     } else {
                         // Adjust proliferation_potential
@@ -334,10 +383,10 @@ class task implements Runnable {
                             nextGrid[i][j]--;
                         if (nextGrid[i][j] > 0) {
                             // Create RTC_Daugther
-                            nextGrid[free_space[0]][free_space[1]] = nextGrid[i][j];
+                            nextGrid[fi][fj] = nextGrid[i][j];
                         } else {
                             // empty cell
-                            currentGrid[free_space[0]][free_space[1]] = 0;
+                            currentGrid[fi][fj] = 0;
                             nextGrid[i][j] = 0;
                         }
                     }
@@ -345,11 +394,11 @@ class task implements Runnable {
                     // Check migration_chance
                     if (chance_migration(i, j)) {
                         // Update cell_position
-                        nextGrid[free_space[0]][free_space[1]] = currentGrid[i][j];
+                        nextGrid[fi][fj] = currentGrid[i][j];
                         nextGrid[i][j] = 0;
                     } else {
                         // empty cell
-                        currentGrid[free_space[0]][free_space[1]] = 0;
+                        currentGrid[fi][fj] = 0;
                     }
                 }
             }
@@ -424,49 +473,65 @@ class task implements Runnable {
 
 
     /**
-     * Busca un espacio libre alrededor de la célula en las coordenadas (i, j).
+     * Busca un espacio libre alrededor de la célula en las coordenadas (i, j) y lo
+     * marca como ocupado. Devuelve las coordenadas empaquetadas en un long para no
+     * crear un array por célula.
      * 
      * @param i La fila de la célula en la cuadrícula.
      * @param j La columna de la célula en la cuadrícula.
-     * @return Un array con las coordenadas del espacio libre o null si no hay espacio disponible.
+     * @return La fila del espacio libre en los 32 bits altos y la columna en los bajos,
+     *         o -1 si no hay espacio disponible.
      */
-    public static int[] look_free_space(int i, int j) {
-        int[] free_space = new int[2];
+    public static long find_free_space(int i, int j) {
+        int fi = 0;
+        int fj = 0;
         int random_number = ThreadLocalRandom.current().nextInt(0, 1000) % 4;
         for (int k = 0; k < 4; k++) {
             switch (random_number) {
                 case 0:
                     if (i - 1 >= 0 && currentGrid[i - 1][j] == 0) {
-                        free_space[0] = i - 1;
-                        free_space[1] = j;
+                        fi = i - 1;
+                        fj = j;
                     }
                     break;
                 case 1:
                     if (i + 1 < size && currentGrid[i + 1][j] == 0) {
-                        free_space[0] = i + 1;
-                        free_space[1] = j;
+                        fi = i + 1;
+                        fj = j;
                     }
                     break;
                 case 2:
                     if (j - 1 >= 0 && currentGrid[i][j - 1] == 0) {
-                        free_space[0] = i;
-                        free_space[1] = j - 1;
+                        fi = i;
+                        fj = j - 1;
                     }
                     break;
                 case 3:
                     if (j + 1 < size && currentGrid[i][j + 1] == 0) {
-                        free_space[0] = i;
-                        free_space[1] = j + 1;
+                        fi = i;
+                        fj = j + 1;
                     }
                     break;
             }
-            if (free_space[0] != 0 || free_space[1] != 0) {
-                currentGrid[free_space[0]][free_space[1]] = -1;
-                return free_space;
+            if (fi != 0 || fj != 0) {
+                currentGrid[fi][fj] = -1;
+                return (long) fi << 32 | fj;
             }
             random_number = (random_number - 1) % 4;
         }
-        return null;
+        return -1;
+    }
+
+    /**
+     * Busca un espacio libre alrededor de la célula en las coordenadas (i, j).
+     * 
+     * @param i La fila de la célula en la cuadrícula.
+     * @param j La columna de la célula en la cuadrícula.
+     * @return Un array con las coordenadas del espacio libre o null si no hay espacio disponible.
+     */
+    public static int[] look_free_space(int i, int j) {
+        long free_space = find_free_space(i, j);
+        return free_space == -1 ? null : new int[] { (int) (free_space >>> 32), (int) free_space };
     }
 
     /**
@@ -477,25 +542,14 @@ class task implements Runnable {
      * @param numThreads El número de hilos usados en la simulación.
      */
     public static void printGrid(int[][] grid, int iteration, int numThreads) {
-        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = img.createGraphics();
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                // Determinar el color de la célula en base a su tipo y estado.
-                if (grid[i][j] == 0) {
-                    g.setColor(Color.WHITE);
-                } else if (grid[i][j] > cell_proliferation_potential_max) {
-                    g.setColor(Color.YELLOW);
-                } else {
-                    g.setColor(new Color(255 * grid[i][j] / cell_proliferation_potential_max, 0, 0));
-                }
-                // Dibujar el pixel correspondiente en la imagen.
-                g.fillRect(i, j, 1, 1);
-            }
-        }
+        byte[] cells = new byte[size * size];
+        // Cada celda es el índice de su color en la paleta de la imagen.
+        IndexedGridImage.copy(grid, cells, cell_proliferation_potential_max);
+        String path = "output/" + SCENARIO + "_" + numThreads + "_" + iteration + ".png";
         try {
             // Guardar la imagen en el directorio de salida con el nombre adecuado.
-            ImageIO.write(img, "png", new File("output/" + SCENARIO + "_" + numThreads + "_" + iteration + ".png"));
+            new ParallelPngWriter(IndexedGridImage.colorModel(cell_proliferation_potential_max)).write(path, size, size,
+                    ParallelPngWriter.columnsOf(cells, size));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -510,27 +564,41 @@ class task implements Runnable {
         for (int gen = 0; gen < generations; gen++) {
             for (int i = endRow - 1; i >= startRow; i--) {
                 for (int j = size - 1; j > 0; j--) {
-                    if ((i == startRow || i == endRow - 1) && (i != 0 && i != size - 1))
-                        try {
-                            lck.lock();
-                            nextState(i, j);
-                        } finally {
-                            lck.unlock();
-                        }
-                    else
-                        nextState(i, j);
+                    if ((i == startRow || i == endRow - 1) && (i != 0 && i != size - 1)) {
+                        if (profiler != null) {
+                            profiler.lock(th_indx);
+                            try {
+                                step(i, j);
+                            } finally {
+                                profiler.unlock(th_indx);
+                            }
+                        } else
+                            try {
+                                lck.lock();
+                                step(i, j);
+                            } finally {
+                                lck.unlock();
+                            }
+                    } else
+                        step(i, j);
                 }
             }
+            long waitStart = profiler != null ? System.nanoTime() : 0;
             if (barrier != null)
                 try {
                     barrier.await();
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
+            if (profiler != null)
+                profiler.barrier(th_indx, System.nanoTime() - waitStart);
             if (th_indx == 0) {
                 currentGrid = nextGrid;
-                if ((gen % (generations / 10 - 1) == 0 || gen == generations - 1) && printing)
-                    printGrid(nextGrid, gen, CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock.numThreads);
+                if ((gen % (generations / 10 - 1) == 0 || gen == generations - 1) && printing) {
+                    // main crea snapshots siempre que printing está activo
+                    int threads = CellularAutomaton2D_Frontera_acotada_tipo_int_bloqueo_lock.numThreads;
+                    snapshots.submit(nextGrid, gen, "output/" + SCENARIO + "_" + threads + "_" + gen + ".png");
+                }
             }
             // Verifica si la simulación alcanza el borde de la cuadrícula.
             if (check_reach_border(currentGrid)) {
@@ -0,0 +1,278 @@
+
+/**
+ * @file EnsembleRunner.java
+ * @author Yeray Doello Gonzalez
+ * @brief Conjunto Monte Carlo de réplicas de un escenario con estadísticas por generación
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ejecuta N réplicas con semilla de un mismo escenario y agrega en línea, para
+ * cada generación muestreada, el número de RTC, de STC, la población total y el
+ * radio ocupado (la mayor distancia de una célula al centro de la retícula).
+ *
+ * Cada réplica se resume al terminar cada generación y se descarta al acabar:
+ * solo se guardan la media y la varianza de Welford ({@link RunningStatistics}) y
+ * los cuantiles P² ({@link P2Quantile}) de cada métrica, así que la memoria
+ * depende del número de generaciones y no del número de réplicas.
+ *
+ * Uso: java EnsembleRunner [opciones]
+ *   --scenario N        escenario del menú (por defecto 1)
+ *   --replicates R      número de réplicas (por defecto 100)
+ *   --generations G     sustituye el número de generaciones del escenario
+ *   --every K           muestrea una de cada K generaciones (por defecto 1)
+ *   --threads T         hilos por réplica (por defecto 1)
+ *   --size S            tamaño inicial de la retícula (por defecto 400)
+ *   --seed S            semilla de la primera réplica (por defecto aleatoria)
+ *   --output f.csv      fichero de resultados (por defecto salida estándar)
+ */
+public class EnsembleRunner {
+    public static final String[] METRICS = { "rtc", "stc", "poblacion", "radio" };
+    public static final double[] QUANTILES = { 0.05, 0.5, 0.95 };
+
+    /**
+     * Estadísticas de una métrica en una generación.
+     */
+    static class Aggregate {
+        final RunningStatistics statistics = new RunningStatistics();
+        final P2Quantile[] quantiles = new P2Quantile[QUANTILES.length];
+
+        Aggregate() {
+            for (int k = 0; k < QUANTILES.length; k++)
+                quantiles[k] = new P2Quantile(QUANTILES[k]);
+        }
+
+        void add(double x) {
+            statistics.add(x);
+            for (P2Quantile quantile : quantiles)
+                quantile.add(x);
+        }
+    }
+
+    private final ScenarioSettings settings;
+    private final int every;
+    // aggregates[muestra][métrica]; la muestra k corresponde a la generación (k + 1) * every
+    private final Aggregate[][] aggregates;
+    private int threadsPerRun = 1;
+    private int size = 400;
+    private int completed;
+
+    /**
+     * Constructor de la clase EnsembleRunner.
+     * @param settings Los parámetros del escenario.
+     * @param every Se muestrea una de cada every generaciones.
+     */
+    public EnsembleRunner(ScenarioSettings settings, int every) {
+        this.settings = settings;
+        this.every = Math.max(1, every);
+        this.aggregates = new Aggregate[settings.generations / this.every][METRICS.length];
+        for (Aggregate[] sample : aggregates)
+            for (int m = 0; m < METRICS.length; m++)
+                sample[m] = new Aggregate();
+    }
+
+    public void setThreadsPerRun(int threadsPerRun) {
+        this.threadsPerRun = threadsPerRun;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public ScenarioSettings getSettings() {
+        return settings;
+    }
+
+    public int getThreadsPerRun() {
+        return threadsPerRun;
+    }
+
+    public synchronized int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Mide el estado de una simulación.
+     * @param simulation La simulación, detenida o al final de una generación.
+     * @return Un array {RTC, STC, población, radio}.
+     */
+    public static double[] measure(Simulation simulation) {
+        byte[][] grid = simulation.getGrid();
+        int n = simulation.getSize();
+        int pmax = simulation.getSettings().cell_proliferation_potential_max;
+        int center = n / 2;
+        int rtc = 0, stc = 0;
+        long maxDistance = 0;
+        for (int i = 0; i < n; i++) {
+            byte[] row = grid[i];
+            long di = i - center;
+            for (int j = 0; j < n; j++) {
+                if (row[j] <= 0)
+                    continue;
+                if (row[j] > pmax)
+                    stc++;
+                else
+                    rtc++;
+                long dj = j - center;
+                maxDistance = Math.max(maxDistance, di * di + dj * dj);
+            }
+        }
+        return new double[] { rtc, stc, rtc + stc, Math.sqrt(maxDistance) };
+    }
+
+    /**
+     * Crea una réplica que, al terminar cada generación muestreada, añade sus
+     * métricas a las estadísticas del conjunto.
+     * @param seed La semilla de la réplica.
+     * @return La simulación, lista para ejecutarse.
+     */
+    public Simulation createReplicate(long seed) {
+        Simulation simulation = new Simulation(settings, threadsPerRun, size, seed);
+        simulation.addListener((s, generation) -> {
+            if (generation % every == 0 && generation / every <= aggregates.length)
+                record(generation / every - 1, measure(s));
+        });
+        return simulation;
+    }
+
+    /**
+     * Añade las métricas de una réplica a una muestra.
+     */
+    private void record(int sample, double[] values) {
+        Aggregate[] aggregate = aggregates[sample];
+        synchronized (aggregate) {
+            for (int m = 0; m < values.length; m++)
+                aggregate[m].add(values[m]);
+        }
+    }
+
+    /**
+     * Ejecuta réplicas a la vez, una por núcleo (o por cada threadsPerRun núcleos).
+     * Solo hay parallelRuns réplicas creadas a la vez: la siguiente se crea cuando
+     * termina una, y la que termina se descarta en cuanto sus métricas están en
+     * las estadísticas, así que la memoria no crece con el número de réplicas.
+     * @param replicates El número de réplicas.
+     * @param seed La semilla de la primera réplica; las demás usan las siguientes.
+     * @throws InterruptedException Si se interrumpe la espera de las réplicas.
+     */
+    public void execute(int replicates, long seed) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelRuns = Math.max(1, cores / threadsPerRun);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelRuns);
+        ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+        int launched = 0;
+        while (launched < Math.min(parallelRuns, replicates))
+            submit(completion, seed + launched++);
+        for (int r = 0; r < replicates; r++) {
+            try {
+                completion.take().get();
+                synchronized (this) {
+                    completed++;
+                }
+                System.err.println("Replica " + (r + 1) + "/" + replicates + " terminada");
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+            if (launched < replicates)
+                submit(completion, seed + launched++);
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Crea la réplica dentro de la tarea y la ejecuta; no devuelve la simulación
+     * para que nada la retenga al terminar.
+     */
+    private void submit(ExecutorCompletionService<Void> completion, long seed) {
+        completion.submit(() -> {
+            createReplicate(seed).run();
+            return null;
+        });
+    }
+
+    /**
+     * Escribe una línea CSV por generación muestreada con la media, la desviación,
+     * el mínimo, los cuantiles y el máximo de cada métrica.
+     * @param out Destino de los resultados.
+     */
+    public void writeCsv(PrintWriter out) {
+        StringBuilder header = new StringBuilder("generacion,replicas");
+        for (String metric : METRICS) {
+            header.append(',').append(metric).append("_media,").append(metric).append("_desv,").append(metric)
+                    .append("_min");
+            for (double p : QUANTILES)
+                header.append(',').append(metric).append("_p").append(Math.round(p * 100));
+            header.append(',').append(metric).append("_max");
+        }
+        out.println(header);
+        for (int k = 0; k < aggregates.length; k++) {
+            StringBuilder line = new StringBuilder();
+            line.append((k + 1) * every).append(',').append(aggregates[k][0].statistics.getCount());
+            for (Aggregate aggregate : aggregates[k]) {
+                RunningStatistics s = aggregate.statistics;
+                line.append(',').append(s.getMean()).append(',').append(s.getStandardDeviation()).append(',')
+                        .append(s.getMin());
+                for (P2Quantile quantile : aggregate.quantiles)
+                    line.append(',').append(quantile.getQuantile());
+                line.append(',').append(s.getMax());
+            }
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    /**
+     * Lee las opciones, ejecuta el conjunto y escribe las estadísticas.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el escenario o escribir los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de las réplicas.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int scenario = 1;
+        int replicates = 100;
+        int generations = 0;
+        int every = 1;
+        int threads = 1;
+        int size = 400;
+        long seed = System.nanoTime();
+        String output = null;
+        for (int k = 0; k < args.length; k++) {
+            String value = k + 1 < args.length ? args[k + 1] : "";
+            switch (args[k]) {
+                case "--scenario": scenario = Integer.parseInt(value); k++; break;
+                case "--replicates": replicates = Integer.parseInt(value); k++; break;
+                case "--generations": generations = Integer.parseInt(value); k++; break;
+                case "--every": every = Integer.parseInt(value); k++; break;
+                case "--threads": threads = Integer.parseInt(value); k++; break;
+                case "--size": size = Integer.parseInt(value); k++; break;
+                case "--seed": seed = Long.parseLong(value); k++; break;
+                case "--output": output = value; k++; break;
+                default:
+                    System.err.println("Opcion desconocida: " + args[k]);
+                    System.exit(1);
+            }
+        }
+
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        if (generations > 0)
+            settings = settings.withGenerations(generations);
+        System.err.println(settings);
+        EnsembleRunner ensemble = new EnsembleRunner(settings, every);
+        ensemble.setThreadsPerRun(threads);
+        ensemble.setSize(size);
+        long start = System.currentTimeMillis();
+        ensemble.execute(replicates, seed);
+        PrintWriter out = output != null ? new PrintWriter(new FileWriter(output)) : new PrintWriter(System.out);
+        ensemble.writeCsv(out);
+        if (output != null)
+            out.close();
+        System.err.println("Tiempo total del conjunto: " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
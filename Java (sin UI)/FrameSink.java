@@ -0,0 +1,79 @@
+
+/**
+ * @file FrameSink.java
+ * @author Yeray Doello Gonzalez
+ * @brief Interfaz de los destinos de las instantáneas de la simulación
+ */
+
+import java.io.IOException;
+
+/**
+ * Destino de las instantáneas de {@link SnapshotPipeline}: codifica y guarda
+ * cada {@link SnapshotPipeline.Frame}. Se llama siempre desde el hilo escritor
+ * del pipeline, de uno en uno, así que una implementación puede reutilizar sus
+ * buffers entre llamadas sin sincronización.
+ */
+public interface FrameSink {
+    /**
+     * Escribe una instantánea. El frame solo es válido durante la llamada.
+     * @param frame La instantánea.
+     * @return Los bytes escritos, o -1 si no se conocen.
+     * @throws IOException Si falla la escritura.
+     */
+    long write(SnapshotPipeline.Frame frame) throws IOException;
+
+    /**
+     * Devuelve el nombre del formato, para los eventos y los informes.
+     */
+    default String getFormat() {
+        return "desconocido";
+    }
+
+    /**
+     * Termina la salida (por ejemplo cierra un fichero con varias instantáneas).
+     * Se llama una vez, después de la última instantánea.
+     * @throws IOException Si falla la escritura.
+     */
+    default void close() throws IOException {
+    }
+
+    /**
+     * Devuelve el prefijo de la ejecución de una instantánea: su ruta sin
+     * "_generacion.png", común a todas las instantáneas de la ejecución.
+     * @param framePath La ruta de la instantánea.
+     */
+    static String runPrefix(String framePath) {
+        String base = framePath.endsWith(".png") ? framePath.substring(0, framePath.length() - 4) : framePath;
+        int sep = base.lastIndexOf('_');
+        if (sep > 0 && sep > base.lastIndexOf('/'))
+            base = base.substring(0, sep);
+        return base;
+    }
+
+    /**
+     * Crea el destino indicado con -Dsnapshot.format: png (por defecto, un PNG
+     * por instantánea) o trajectory (un {@link TrajectoryArchive} por ejecución,
+     * con -Dsnapshot.keyInterval frames entre fotogramas clave), gif (un GIF
+     * animado por ejecución, con -Dsnapshot.frameDelay milisegundos por
+     * fotograma) o tiles (una {@link TilePyramidFrameSink pirámide de teselas}
+     * por instantánea).
+     * @param settings Los parámetros del escenario.
+     */
+    static FrameSink fromProperty(ScenarioSettings settings) {
+        String format = System.getProperty("snapshot.format", "png").toLowerCase();
+        switch (format) {
+            case "png":
+                return new PngFrameSink(settings.cell_proliferation_potential_max);
+            case "trajectory":
+                return new TrajectoryFrameSink(settings,
+                        Integer.getInteger("snapshot.keyInterval", TrajectoryArchive.DEFAULT_KEY_INTERVAL));
+            case "gif":
+                return new GifFrameSink(settings.cell_proliferation_potential_max,
+                        Integer.getInteger("snapshot.frameDelay", GifFrameSink.DEFAULT_FRAME_DELAY));
+            case "tiles":
+                return new TilePyramidFrameSink(settings.cell_proliferation_potential_max);
+            default:
+                throw new IllegalArgumentException("Formato de instantaneas desconocido: " + format);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+
+/**
+ * @file GenerationBarrier.java
+ * @author Yeray Doello Gonzalez
+ * @brief Barrera de fin de generación que no reserva memoria
+ */
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Barrera cíclica con acción de fin de generación, equivalente a CyclicBarrier
+ * para el uso que hace {@link Simulation}, pero sin reservar memoria: la de la
+ * JDK crea un objeto Generation cada vez que se abre y un nodo de la cola de la
+ * condición por cada hilo que espera.
+ *
+ * Cada hilo tiene su índice. El último en llegar ejecuta la acción, avanza la
+ * fase y despierta al resto. Los demás esperan un poco activamente (solo si hay
+ * más de un núcleo) y después se aparcan con LockSupport.park. Si la acción
+ * lanza una excepción o se interrumpe a un hilo, la barrera queda rota y los
+ * demás reciben BrokenBarrierException, como con CyclicBarrier.
+ */
+final class GenerationBarrier {
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+    private final int parties;
+    private final Runnable action;
+    private final AtomicInteger arrived = new AtomicInteger();
+    private final AtomicReferenceArray<Thread> waiters;
+    private volatile int phase;
+    private volatile boolean broken;
+
+    /**
+     * Constructor de la clase GenerationBarrier.
+     * @param parties El número de hilos.
+     * @param action La acción que ejecuta el último hilo en llegar.
+     */
+    GenerationBarrier(int parties, Runnable action) {
+        this.parties = parties;
+        this.action = action;
+        this.waiters = new AtomicReferenceArray<>(parties);
+    }
+
+    /**
+     * Espera a que lleguen todos los hilos.
+     * @param th_indx El índice del hilo que llega.
+     * @throws InterruptedException Si se interrumpe el hilo mientras espera.
+     * @throws BrokenBarrierException Si la barrera se ha roto.
+     */
+    void await(int th_indx) throws InterruptedException, BrokenBarrierException {
+        int p = phase;
+        if (broken)
+            throw new BrokenBarrierException();
+        if (arrived.incrementAndGet() == parties) {
+            arrived.set(0);
+            try {
+                action.run();
+            } catch (RuntimeException | Error e) {
+                breakBarrier();
+                throw e;
+            }
+            phase = p + 1;
+            wakeAll();
+            return;
+        }
+        // Registrarse antes de volver a leer la fase, para que el último hilo no se lo salte
+        waiters.set(th_indx, Thread.currentThread());
+        for (int spins = SPINS; phase == p; ) {
+            if (broken)
+                throw new BrokenBarrierException();
+            if (spins > 0) {
+                spins--;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    breakBarrier();
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    private void breakBarrier() {
+        broken = true;
+        wakeAll();
+    }
+
+    private void wakeAll() {
+        for (int t = 0; t < parties; t++) {
+            Thread waiter = waiters.get(t);
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Deja la barrera lista para otra ejecución con hilos nuevos.
+     */
+    void reset() {
+        arrived.set(0);
+        broken = false;
+        for (int t = 0; t < parties; t++)
+            waiters.set(t, null);
+    }
+}
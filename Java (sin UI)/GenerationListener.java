@@ -0,0 +1,20 @@
+
+/**
+ * @file GenerationListener.java
+ * @author Yeray Doello Gonzalez
+ * @brief Interfaz para observar el final de cada generación de una simulación
+ */
+
+/**
+ * Observador de una {@link Simulation}. Se invoca desde la acción de la barrera,
+ * con todos los hilos detenidos, por lo que puede leer la retícula sin
+ * sincronización adicional. Lo que haga se suma al tiempo de la generación.
+ */
+public interface GenerationListener {
+    /**
+     * Se llama al terminar cada generación, después de ampliar el dominio si ha sido necesario.
+     * @param simulation La simulación observada.
+     * @param generation El número de generaciones completadas.
+     */
+    void generationCompleted(Simulation simulation, int generation);
+}
@@ -0,0 +1,82 @@
+/**
+ * @file GifFrameSink.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escritura de instantáneas en un GIF animado
+ */
+
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+
+/**
+ * Añade las instantáneas a un GIF animado ({@link AnimatedGifWriter}) a medida
+ * que avanza la simulación, en lugar de escribir un PNG por generación. Como en
+ * {@link TrajectoryFrameSink}, todas las instantáneas de un mismo prefijo van al
+ * archivo prefijo.gif y una generación que retrocede empieza otro archivo.
+ */
+public class GifFrameSink implements FrameSink {
+    public static final String EXTENSION = ".gif";
+    public static final int DEFAULT_FRAME_DELAY = 100;
+
+    private final IndexColorModel model;
+    private final int pmax;
+    private final int delay;
+    private AnimatedGifWriter writer;
+    private String path;
+    private int lastGeneration;
+    private byte[] image = new byte[0];
+
+    /**
+     * Constructor de la clase GifFrameSink.
+     * @param pmax El potencial de proliferación máximo del escenario.
+     * @param frameDelay La duración de cada fotograma, en milisegundos.
+     */
+    public GifFrameSink(int pmax, int frameDelay) {
+        this.model = IndexedGridImage.colorModel(pmax);
+        this.pmax = pmax;
+        this.delay = Math.max(1, (frameDelay + 5) / 10);
+    }
+
+    @Override
+    public long write(SnapshotPipeline.Frame frame) throws IOException {
+        int size = frame.getSize();
+        if (size > 0xFFFF)
+            throw new IOException("Reticula demasiado grande para un GIF: " + size);
+        String target = FrameSink.runPrefix(frame.getPath()) + EXTENSION;
+        if (writer != null && (!target.equals(path) || frame.getGeneration() <= lastGeneration
+                || size < writer.getSize())) {
+            writer.close();
+            writer = null;
+        }
+        if (writer == null) {
+            // Índice 255 libre como transparente salvo que la paleta llegue hasta él
+            writer = new AnimatedGifWriter(target, model, pmax + 1 < 255 ? 255 : -1, delay);
+            path = target;
+        }
+        lastGeneration = frame.getGeneration();
+
+        // Misma orientación que printGrid, con los valores fuera de rango llevados a su color
+        if (image.length < size * size)
+            image = new byte[size * size];
+        ParallelPngWriter.columnsOf(frame.getCells(), size).read(0, size, image);
+        for (int p = 0; p < size * size; p++) {
+            if (image[p] < 0)
+                image[p] = 0;
+            else if (image[p] > pmax + 1)
+                image[p] = (byte) (pmax + 1);
+        }
+        return writer.append(image, size);
+    }
+
+    @Override
+    public String getFormat() {
+        return "gif";
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+
+/**
+ * @file HorizonRecorder.java
+ * @author Yeray Doello Gonzalez
+ * @brief Tiempos y poblaciones de varios horizontes en una única ejecución
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Registra, en una sola ejecución, el tiempo de reloj acumulado y el número de
+ * células RTC y STC al completar cada una de las generaciones indicadas. Una
+ * ejecución hasta el último horizonte da la curva completa, en lugar de repetir
+ * la simulación desde cero para cada número de generaciones.
+ *
+ * El recuento de células se hace fuera del tiempo medido: el tiempo de cada
+ * horizonte descuenta lo empleado en registrar los anteriores.
+ *
+ * Uso: java HorizonRecorder [escenario 1-21] [repeticiones] [hilos] [generaciones separadas por comas]
+ * Sin lista de generaciones se usan 11 horizontes entre el 50% y el 150% de las
+ * generaciones del escenario.
+ */
+public class HorizonRecorder implements GenerationListener {
+    public static final String CSV_HEADER = "escenario,repeticion,generacion,tiempo_ms,rtc,stc,tamano";
+
+    private final int[] horizons;
+    private final long[] times;
+    private final int[] rtc;
+    private final int[] stc;
+    private final int[] sizes;
+    private int next;
+    private long overhead;
+
+    /**
+     * Constructor de la clase HorizonRecorder.
+     * @param horizons Las generaciones en las que se registra el estado.
+     */
+    public HorizonRecorder(int... horizons) {
+        this.horizons = horizons.clone();
+        Arrays.sort(this.horizons);
+        this.times = new long[horizons.length];
+        this.rtc = new int[horizons.length];
+        this.stc = new int[horizons.length];
+        this.sizes = new int[horizons.length];
+    }
+
+    /**
+     * Crea los horizontes por defecto de un escenario: del 50% al 150% de sus
+     * generaciones en pasos del 10%.
+     * @param generations Las generaciones del escenario.
+     * @return Los horizontes.
+     */
+    public static int[] defaultHorizons(int generations) {
+        int[] horizons = new int[11];
+        for (int k = 0; k < horizons.length; k++)
+            horizons[k] = Math.max(1, generations * (5 + k) / 10);
+        return horizons;
+    }
+
+    @Override
+    public void generationCompleted(Simulation simulation, int generation) {
+        if (next >= horizons.length || generation != horizons[next])
+            return;
+        long start = simulation.getElapsedNanos();
+        int[] counts = simulation.countCells();
+        // Varios horizontes iguales comparten el mismo registro.
+        while (next < horizons.length && horizons[next] == generation) {
+            times[next] = start - overhead;
+            rtc[next] = counts[0];
+            stc[next] = counts[1];
+            sizes[next] = simulation.getSize();
+            next++;
+        }
+        overhead += simulation.getElapsedNanos() - start;
+    }
+
+    /**
+     * Ejecuta una simulación hasta el último horizonte registrando cada uno.
+     * @param simulation Una simulación recién creada.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public void record(Simulation simulation) throws InterruptedException {
+        next = 0;
+        overhead = 0;
+        simulation.addListener(this);
+        simulation.runUntil(getLastHorizon());
+    }
+
+    /**
+     * Devuelve el número de horizontes alcanzados en la última ejecución.
+     */
+    public int getRecorded() {
+        return next;
+    }
+
+    public int[] getHorizons() {
+        return horizons.clone();
+    }
+
+    public int getLastHorizon() {
+        return horizons[horizons.length - 1];
+    }
+
+    /**
+     * Devuelve el tiempo acumulado hasta el horizonte k.
+     * @param k El índice del horizonte.
+     * @return El tiempo en nanosegundos.
+     */
+    public long getTime(int k) {
+        return times[k];
+    }
+
+    public int getRTC(int k) {
+        return rtc[k];
+    }
+
+    public int getSTC(int k) {
+        return stc[k];
+    }
+
+    public int getSize(int k) {
+        return sizes[k];
+    }
+
+    /**
+     * Escribe una línea CSV por horizonte alcanzado.
+     * @param out Destino de los resultados.
+     * @param scenario El nombre del escenario.
+     * @param repetition El número de repetición.
+     */
+    public void writeCsv(PrintWriter out, String scenario, int repetition) {
+        for (int k = 0; k < next; k++)
+            out.println(scenario + "," + repetition + "," + horizons[k] + "," + times[k] / 1000000.0 + "," + rtc[k] + ","
+                    + stc[k] + "," + sizes[k]);
+    }
+
+    /**
+     * Ejecuta varias repeticiones de un escenario registrando todos los horizontes
+     * en cada una y muestra la media del tiempo acumulado de cada horizonte.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el escenario o escribir los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        int[] horizons;
+        if (args.length > 3) {
+            String[] parts = args[3].split(",");
+            horizons = new int[parts.length];
+            for (int k = 0; k < parts.length; k++)
+                horizons[k] = Integer.parseInt(parts[k]);
+        } else
+            horizons = defaultHorizons(settings.generations);
+
+        System.err.println(settings);
+        long[] sum = new long[horizons.length];
+        new File("output").mkdirs();
+        try (PrintWriter out = new PrintWriter(new FileWriter("output/" + settings.name + "_horizontes.csv"))) {
+            out.println(CSV_HEADER);
+            for (int r = 0; r < repetitions; r++) {
+                HorizonRecorder recorder = new HorizonRecorder(horizons);
+                Simulation simulation = new Simulation(settings.withGenerations(recorder.getLastHorizon()), threads, 400,
+                        System.nanoTime());
+                recorder.record(simulation);
+                recorder.writeCsv(out, settings.name, r);
+                out.flush();
+                for (int k = 0; k < recorder.getRecorded(); k++)
+                    sum[k] += recorder.getTime(k);
+                System.err.println("Repeticion " + r + ": " + recorder.getTime(recorder.getRecorded() - 1) / 1000000
+                        + " ms hasta la generacion " + recorder.getLastHorizon());
+            }
+        }
+        int[] sorted = horizons.clone();
+        Arrays.sort(sorted);
+        System.out.println("generacion,tiempo_medio_ms");
+        for (int k = 0; k < sorted.length; k++)
+            System.out.println(sorted[k] + "," + sum[k] / repetitions / 1000000.0);
+    }
+}
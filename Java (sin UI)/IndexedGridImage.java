@@ -0,0 +1,115 @@
+
+/**
+ * @file IndexedGridImage.java
+ * @author Yeray Doello Gonzalez
+ * @brief Imágenes de la retícula con paleta indexada
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Construye la imagen de la retícula sin pintarla celda a celda. Cada celda es
+ * un byte (0 vacía, 1..pmax RTC, pmax + 1 STC) que se usa directamente como
+ * índice de un IndexColorModel con los colores de {@link Simulation#palette},
+ * así que la imagen no es más que el array de celdas envuelto en un
+ * DataBufferByte: generarla cuesta lo que copiar la retícula a ese array (una
+ * copia por fila con una retícula de tipo byte) y el PNG se guarda con paleta,
+ * un byte por píxel en lugar de tres.
+ *
+ * La paleta tiene las 256 entradas: los bytes negativos (la marca -1 de una
+ * celda reservada) se ven como vacíos y los mayores que pmax + 1 como STC, que
+ * es lo que hacía printGrid al elegir los colores uno a uno.
+ */
+public final class IndexedGridImage {
+    private IndexedGridImage() {
+    }
+
+    /**
+     * Crea la paleta de las imágenes.
+     * @param pmax El potencial de proliferación máximo (como mucho 254).
+     * @return Un IndexColorModel de 8 bits con 256 colores.
+     */
+    public static IndexColorModel colorModel(int pmax) {
+        if (pmax > 254)
+            throw new IllegalArgumentException("pmax + 1 debe caber en un byte: " + pmax);
+        int[] palette = Simulation.palette(pmax);
+        int[] lut = new int[256];
+        for (int v = 0; v < 256; v++) {
+            int b = (byte) v;
+            lut[v] = b <= 0 ? palette[0] : palette[Math.min(b, pmax + 1)];
+        }
+        return new IndexColorModel(8, 256, lut, 0, false, -1, DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * Envuelve un array de celdas en una imagen, sin copiarlo. La celda (i, j)
+     * está en cells[i * size + j] y se dibuja en x = i, y = j, la misma
+     * orientación que printGrid: el modelo de muestras avanza size bytes por
+     * columna y uno por fila de la imagen.
+     * @param cells Las celdas, fila a fila; la imagen ve sus cambios.
+     * @param size El lado de la retícula.
+     * @param model La paleta de {@link #colorModel(int)}.
+     * @return La imagen, de tipo TYPE_BYTE_INDEXED.
+     */
+    public static BufferedImage wrap(byte[] cells, int size, IndexColorModel model) {
+        DataBufferByte buffer = new DataBufferByte(cells, size * size);
+        ComponentSampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_BYTE, size, size, size, 1,
+                new int[] { 0 });
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    /**
+     * Copia una retícula de tipo byte, fila a fila. Los valores ya son índices
+     * de la paleta, así que basta con System.arraycopy.
+     * @param grid La retícula.
+     * @param cells El destino, con al menos size * size bytes.
+     */
+    public static void copy(byte[][] grid, byte[] cells) {
+        int size = grid.length;
+        for (int i = 0; i < size; i++)
+            System.arraycopy(grid[i], 0, cells, i * size, size);
+    }
+
+    /**
+     * Copia una retícula de tipo char, fila a fila, limitando los valores a pmax + 1.
+     * @param grid La retícula.
+     * @param cells El destino, con al menos size * size bytes.
+     * @param pmax El potencial de proliferación máximo.
+     */
+    public static void copy(char[][] grid, byte[] cells, int pmax) {
+        int size = grid.length;
+        for (int i = 0; i < size; i++) {
+            char[] row = grid[i];
+            int base = i * size;
+            for (int j = 0; j < size; j++) {
+                int v = row[j];
+                cells[base + j] = (byte) (v > pmax ? pmax + 1 : v);
+            }
+        }
+    }
+
+    /**
+     * Copia una retícula de tipo int, fila a fila, limitando los valores a 0..pmax + 1.
+     * @param grid La retícula.
+     * @param cells El destino, con al menos size * size bytes.
+     * @param pmax El potencial de proliferación máximo.
+     */
+    public static void copy(int[][] grid, byte[] cells, int pmax) {
+        int size = grid.length;
+        for (int i = 0; i < size; i++) {
+            int[] row = grid[i];
+            int base = i * size;
+            for (int j = 0; j < size; j++) {
+                int v = row[j];
+                cells[base + j] = (byte) (v <= 0 ? 0 : v > pmax ? pmax + 1 : v);
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * @file InitialStateLoader.java
+ * @author Yeray Doello Gonzalez
+ * @brief Carga del estado inicial desde imágenes, CSV o archivos de trayectoria
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Carga el estado inicial de una simulación desde un archivo, en lugar de una
+ * única célula en el centro de la retícula:
+ *
+ *   imagen.png              una máscara o una instantánea (x = fila, y = columna, como printGrid)
+ *   celulas.csv             una célula por línea: fila;columna[;valor]
+ *   ruta.trajectory[@gen]   un frame de un {@link TrajectoryArchive} (por defecto el último)
+ *
+ * En la imagen, los colores de la paleta de la retícula se leen como su celda
+ * (blanco vacía, amarillo STC, rojo RTC con el potencial según la intensidad) y
+ * cualquier otro color oscuro es una RTC con el potencial máximo, así que sirven
+ * tanto las instantáneas como máscaras en blanco y negro. En el CSV el separador
+ * puede ser coma, punto y coma, espacio o tabulador; se ignoran las líneas vacías
+ * y las que empiezan por una letra o # (cabeceras y comentarios). Sin valor, la
+ * célula es del tipo de la inicial del escenario; con valor, 1..Pmax es una RTC y
+ * uno mayor una STC. Los frames conservan sus STC aunque el Pmax del archivo sea
+ * otro, y los potenciales mayores que el del escenario se recortan.
+ *
+ * El archivo se decodifica una sola vez al abrirlo, y las retículas se rellenan
+ * después del tipo que se pida (byte, char, int u otro destino a través de
+ * {@link WorkloadGenerator.CellSink}). El CSV se proyecta en memoria y se analiza
+ * por trozos en paralelo; la imagen y el frame se copian a la retícula por filas
+ * en paralelo. El estado queda centrado en una retícula del tamaño pedido o, si
+ * no cabe, del suyo.
+ *
+ * Uso: java InitialStateLoader archivo [tamano] [Pmax]
+ */
+public class InitialStateLoader {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 1 << 26;
+    private static final int MAX_LINE = 4096;
+
+    private final String source;
+    private final Source decoded;
+
+    /**
+     * Estado decodificado: un rectángulo de rows x cols celdas.
+     */
+    private abstract static class Source {
+        int rows;
+        int cols;
+
+        /**
+         * Llama al destino para cada celda ocupada, desplazada (di, dj).
+         */
+        abstract void fill(int pmax, boolean starterIsStc, int di, int dj, WorkloadGenerator.CellSink sink);
+    }
+
+    private InitialStateLoader(String source, Source decoded) {
+        this.source = source;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Abre y decodifica un estado inicial.
+     * @param source La ruta del archivo (para un archivo de trayectoria, opcionalmente con @generacion).
+     * @return El cargador.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public static InitialStateLoader open(String source) throws IOException {
+        String lower = source.toLowerCase();
+        int at = source.lastIndexOf('@');
+        if (lower.endsWith(TrajectoryFrameSink.EXTENSION)
+                || at > 0 && lower.substring(0, at).endsWith(TrajectoryFrameSink.EXTENSION))
+            return new InitialStateLoader(source, frame(source));
+        if (lower.endsWith(".csv") || lower.endsWith(".txt"))
+            return new InitialStateLoader(source, csv(source));
+        return new InitialStateLoader(source, image(source));
+    }
+
+    /**
+     * Abre el estado indicado con -Dinitial.state, si lo hay.
+     * @return El cargador, o null si no se ha indicado ningún archivo.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public static InitialStateLoader fromProperty() throws IOException {
+        String source = System.getProperty("initial.state");
+        return source == null || source.isEmpty() ? null : open(source);
+    }
+
+    public int getRows() {
+        return decoded.rows;
+    }
+
+    public int getCols() {
+        return decoded.cols;
+    }
+
+    /**
+     * Devuelve el tamaño de la retícula que contiene el estado.
+     * @param size El tamaño mínimo.
+     */
+    public int sizeFor(int size) {
+        return Math.max(size, Math.max(decoded.rows, decoded.cols));
+    }
+
+    /**
+     * Escribe el estado, centrado, en un destino cualquiera. Solo se llama al
+     * destino para las celdas ocupadas, y puede llamarse desde varios hilos a la
+     * vez para filas distintas.
+     * @param size El tamaño de la retícula (al menos {@link #sizeFor}(0)).
+     * @param pmax El potencial de proliferación máximo.
+     * @param starterIsStc Si las células sin tipo son STC.
+     * @param sink El destino.
+     */
+    public void fill(int size, int pmax, boolean starterIsStc, WorkloadGenerator.CellSink sink) {
+        decoded.fill(pmax, starterIsStc, (size - decoded.rows) / 2, (size - decoded.cols) / 2, sink);
+    }
+
+    /**
+     * Crea una retícula de tipo byte con el estado.
+     * @param size El tamaño mínimo de la retícula.
+     * @param pmax El potencial de proliferación máximo (pmax + 1 debe caber en un byte).
+     * @param starterIsStc Si las células sin tipo son STC.
+     * @return La retícula.
+     */
+    public byte[][] byteGrid(int size, int pmax, boolean starterIsStc) {
+        byte[][] grid = new byte[sizeFor(size)][sizeFor(size)];
+        fill(grid.length, pmax, starterIsStc, (i, j, value) -> grid[i][j] = (byte) value);
+        return grid;
+    }
+
+    /**
+     * Crea una retícula de tipo char con el estado.
+     * @param size El tamaño mínimo de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @param starterIsStc Si las células sin tipo son STC.
+     * @return La retícula.
+     */
+    public char[][] charGrid(int size, int pmax, boolean starterIsStc) {
+        char[][] grid = new char[sizeFor(size)][sizeFor(size)];
+        fill(grid.length, pmax, starterIsStc, (i, j, value) -> grid[i][j] = (char) value);
+        return grid;
+    }
+
+    /**
+     * Crea una retícula de tipo int con el estado.
+     * @param size El tamaño mínimo de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @param starterIsStc Si las células sin tipo son STC.
+     * @return La retícula.
+     */
+    public int[][] intGrid(int size, int pmax, boolean starterIsStc) {
+        int[][] grid = new int[sizeFor(size)][sizeFor(size)];
+        fill(grid.length, pmax, starterIsStc, (i, j, value) -> grid[i][j] = value);
+        return grid;
+    }
+
+    /**
+     * Crea una retícula del tipo de celda indicado.
+     * @param cellType "byte", "char" o "int".
+     * @param size El tamaño mínimo de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @param starterIsStc Si las células sin tipo son STC.
+     * @return La retícula (byte[][], char[][] o int[][]).
+     */
+    public Object grid(String cellType, int size, int pmax, boolean starterIsStc) {
+        switch (cellType) {
+            case "byte":
+                return byteGrid(size, pmax, starterIsStc);
+            case "char":
+                return charGrid(size, pmax, starterIsStc);
+            case "int":
+                return intGrid(size, pmax, starterIsStc);
+            default:
+                throw new IllegalArgumentException("Tipo de celda desconocido: " + cellType);
+        }
+    }
+
+    /**
+     * Sustituye el estado de una simulación por el cargado, en una retícula de al
+     * menos su tamaño actual.
+     * @param simulation Una simulación detenida.
+     */
+    public void apply(Simulation simulation) {
+        ScenarioSettings settings = simulation.getSettings();
+        simulation.setInitialState(byteGrid(simulation.getSize(), settings.cell_proliferation_potential_max,
+                settings.starter_cell_is_STC));
+    }
+
+    @Override
+    public String toString() {
+        return source + " (" + decoded.rows + "x" + decoded.cols + ")";
+    }
+
+    // ---- Imagen ----
+
+    private static Source image(String path) throws IOException {
+        BufferedImage image = ImageIO.read(new File(path));
+        if (image == null)
+            throw new IOException("Formato de estado inicial no reconocido: " + path);
+        Source decoded = new Source() {
+            @Override
+            void fill(int pmax, boolean starterIsStc, int di, int dj, WorkloadGenerator.CellSink sink) {
+                IntStream.range(0, rows).parallel().forEach(x -> {
+                    int[] column = new int[cols];
+                    image.getRGB(x, 0, 1, cols, column, 0, 1);
+                    for (int y = 0; y < cols; y++) {
+                        int value = colorToCell(column[y], pmax);
+                        if (value != 0)
+                            sink.set(x + di, y + dj, value);
+                    }
+                });
+            }
+        };
+        decoded.rows = image.getWidth();
+        decoded.cols = image.getHeight();
+        return decoded;
+    }
+
+    /**
+     * Devuelve la celda de un color: la inversa de la paleta de printGrid, y RTC
+     * con el potencial máximo para cualquier otro color oscuro.
+     */
+    static int colorToCell(int argb, int pmax) {
+        if (argb >>> 24 < 128)
+            return 0;
+        int r = argb >> 16 & 0xFF, g = argb >> 8 & 0xFF, b = argb & 0xFF;
+        if (r >= 128 && g >= 128 && b < 128)
+            return pmax + 1;
+        if (g == 0 && b == 0 && r > 0)
+            return Math.min(pmax, (r * pmax + 254) / 255);
+        return 299 * r + 587 * g + 114 * b < 128000 ? pmax : 0;
+    }
+
+    // ---- Archivo de trayectoria ----
+
+    private static Source frame(String source) throws IOException {
+        int at = source.lastIndexOf('@');
+        boolean hasGeneration = at > 0 && !source.toLowerCase().endsWith(TrajectoryFrameSink.EXTENSION);
+        String path = hasGeneration ? source.substring(0, at) : source;
+        try (TrajectoryArchive.Reader reader = new TrajectoryArchive.Reader(path)) {
+            if (reader.getFrameCount() == 0)
+                throw new IOException("El archivo no tiene frames: " + path);
+            int frame = reader.getFrameCount() - 1;
+            if (hasGeneration) {
+                frame = reader.indexOf(Integer.parseInt(source.substring(at + 1)));
+                if (frame < 0)
+                    throw new IOException("La generacion " + source.substring(at + 1) + " no esta en " + path);
+            }
+            int sourceStc = reader.getSettings().cell_proliferation_potential_max + 1;
+            int size = reader.getSize(frame);
+            byte[] cells = reader.read(frame);
+            Source decoded = new Source() {
+                @Override
+                void fill(int pmax, boolean starterIsStc, int di, int dj, WorkloadGenerator.CellSink sink) {
+                    IntStream.range(0, size).parallel().forEach(i -> {
+                        for (int j = 0, p = i * size; j < size; j++, p++) {
+                            int v = cells[p] & 0xFF;
+                            if (v == 0 || v > sourceStc)
+                                continue;
+                            sink.set(i + di, j + dj, v == sourceStc ? pmax + 1 : Math.min(v, pmax));
+                        }
+                    });
+                }
+            };
+            decoded.rows = size;
+            decoded.cols = size;
+            return decoded;
+        }
+    }
+
+    // ---- CSV ----
+
+    /**
+     * Células de un trozo del CSV: (fila, columna, valor) seguidos, con valor -1 si no se indica.
+     */
+    private static final class Chunk {
+        int[] cells = new int[3 * 1024];
+        int count;
+        int maxRow = -1;
+        int maxCol = -1;
+
+        void add(int i, int j, int value) {
+            if (3 * count + 3 > cells.length)
+                cells = Arrays.copyOf(cells, 2 * cells.length);
+            cells[3 * count] = i;
+            cells[3 * count + 1] = j;
+            cells[3 * count + 2] = value;
+            count++;
+            maxRow = Math.max(maxRow, i);
+            maxCol = Math.max(maxCol, j);
+        }
+    }
+
+    private static Source csv(String path) throws IOException {
+        Chunk[] chunks;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long chunkSize = Math.max(MIN_CHUNK,
+                    Math.min(MAX_CHUNK, length / (4L * ForkJoinPool.getCommonPoolParallelism())));
+            int count = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+            try {
+                chunks = IntStream.range(0, count).parallel().mapToObj(k -> {
+                    try {
+                        return parseChunk(channel, path, length, k * chunkSize, Math.min(length, (k + 1) * chunkSize));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).toArray(Chunk[]::new);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        Source decoded = new Source() {
+            @Override
+            void fill(int pmax, boolean starterIsStc, int di, int dj, WorkloadGenerator.CellSink sink) {
+                // En orden: si una celda se repite, vale la última línea
+                int unspecified = starterIsStc ? pmax + 1 : pmax;
+                for (Chunk chunk : chunks) {
+                    int[] cells = chunk.cells;
+                    for (int c = 0; c < 3 * chunk.count; c += 3) {
+                        int v = cells[c + 2];
+                        sink.set(cells[c] + di, cells[c + 1] + dj, v < 0 ? unspecified : Math.min(v, pmax + 1));
+                    }
+                }
+            }
+        };
+        for (Chunk chunk : chunks) {
+            decoded.rows = Math.max(decoded.rows, chunk.maxRow + 1);
+            decoded.cols = Math.max(decoded.cols, chunk.maxCol + 1);
+        }
+        return decoded;
+    }
+
+    /**
+     * Analiza las líneas que empiezan en [start, end). Para saber si la primera
+     * empieza justo en start se proyecta también el byte anterior, y se proyectan
+     * MAX_LINE bytes más para terminar la última.
+     */
+    private static Chunk parseChunk(FileChannel channel, String path, long length, long start, long end)
+            throws IOException {
+        long from = Math.max(0, start - 1);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                Math.min(length, end + MAX_LINE) - from);
+        int limit = map.limit();
+        int stop = (int) (end - from);
+        int p = (int) (start - from);
+        if (start > 0) {
+            p = 0;
+            while (p < limit && map.get(p) != '\n')
+                p++;
+            p++;
+        }
+        Chunk chunk = new Chunk();
+        int[] fields = new int[3];
+        while (p < stop) {
+            int lineStart = p;
+            int n = 0;
+            boolean skip = false;
+            while (p < limit && map.get(p) != '\n') {
+                byte c = map.get(p);
+                if (c >= '0' && c <= '9') {
+                    if (n == fields.length)
+                        throw new IllegalArgumentException(error(path, from + lineStart, "demasiados campos"));
+                    long value = 0;
+                    while (p < limit && (c = map.get(p)) >= '0' && c <= '9') {
+                        value = value * 10 + (c - '0');
+                        if (value > Integer.MAX_VALUE)
+                            throw new IllegalArgumentException(error(path, from + lineStart, "numero fuera de rango"));
+                        p++;
+                    }
+                    fields[n++] = (int) value;
+                } else if (c == ',' || c == ';' || c == ' ' || c == '\t' || c == '\r') {
+                    p++;
+                } else if (n == 0 && (Character.isLetter(c) || c == '#' || c == '"')) {
+                    skip = true;
+                    while (p < limit && map.get(p) != '\n')
+                        p++;
+                } else {
+                    throw new IllegalArgumentException(error(path, from + lineStart, "caracter no valido '" + (char) c + "'"));
+                }
+            }
+            if (p == limit && limit < length - from)
+                throw new IllegalArgumentException(error(path, from + lineStart, "linea de mas de " + MAX_LINE + " bytes"));
+            p++;
+            if (skip || n == 0)
+                continue;
+            if (n == 1)
+                throw new IllegalArgumentException(error(path, from + lineStart, "falta la columna"));
+            chunk.add(fields[0], fields[1], n == 3 ? fields[2] : -1);
+        }
+        return chunk;
+    }
+
+    private static String error(String path, long offset, String message) {
+        return path + " (byte " + offset + "): " + message;
+    }
+
+    /**
+     * Carga un estado, muestra cuánto ha tardado y cuántas células tiene, y guarda una imagen.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Uso: java InitialStateLoader archivo [tamano] [Pmax]");
+            return;
+        }
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        int pmax = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long start = System.currentTimeMillis();
+        InitialStateLoader loader = open(args[0]);
+        long decoded = System.currentTimeMillis() - start;
+        ScenarioSettings settings = new ScenarioSettings("initial_state", 0, pmax, 0, 0, 0, 0, true);
+        Simulation simulation = new Simulation(settings, 1, loader.sizeFor(size), 42);
+        start = System.currentTimeMillis();
+        loader.apply(simulation);
+        long filled = System.currentTimeMillis() - start;
+        int[] counts = simulation.countCells();
+        System.out.println(loader + ": RTC=" + counts[0] + " STC=" + counts[1] + " en " + simulation.getSize() + "x"
+                + simulation.getSize() + " (decodificado en " + decoded + " ms, reticula en " + filled + " ms)");
+        if (simulation.getSize() <= 4096) {
+            new File("output").mkdirs();
+            simulation.printGrid("output/" + settings.name + "_" + simulation.getSize() + ".png");
+        }
+    }
+}
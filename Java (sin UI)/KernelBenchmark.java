@@ -0,0 +1,122 @@
+
+/**
+ * @file KernelBenchmark.java
+ * @author Yeray Doello Gonzalez
+ * @brief Comparación del kernel de reglas especializado frente al genérico
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Array;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mide el tiempo por célula de los kernels GENERIC y SPECIALIZED de cada tipo
+ * de celda sobre una retícula con una densidad de células de fase avanzada.
+ * Cada combinación se ejecuta en una JVM nueva para que el perfil del JIT de
+ * una no contamine a las demás.
+ *
+ * Uso: java KernelBenchmark [escenario 1-21] [tamano] [barridos por medida]
+ */
+public class KernelBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--fork")) {
+            runFork(args[1], RuleKernels.Mode.valueOf(args[2]), Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+            return;
+        }
+        int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int sweeps = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        System.out.println(ScenarioSettings.load(scenario));
+        System.out.println("Tamano de la reticula: " + size + ", barridos por medida: " + sweeps + "\n");
+        for (String cellType : new String[] { "byte", "char", "int" }) {
+            double generic = fork(cellType, RuleKernels.Mode.GENERIC, scenario, size, sweeps);
+            double specialized = fork(cellType, RuleKernels.Mode.SPECIALIZED, scenario, size, sweeps);
+            System.out.printf("%-5s generico: %7.3f ns/celda   especializado: %7.3f ns/celda   mejora: %.2fx%n",
+                    cellType, generic, specialized, generic / specialized);
+        }
+    }
+
+    /**
+     * Lanza una JVM hija que mide un kernel y devuelve su media en ns por célula.
+     */
+    private static double fork(String cellType, RuleKernels.Mode mode, int scenario, int size, int sweeps)
+            throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "KernelBenchmark",
+                "--fork", cellType, mode.name(), Integer.toString(scenario), Integer.toString(size),
+                Integer.toString(sweeps)).redirectErrorStream(true).start();
+        double result = Double.NaN;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT "))
+                    result = Double.parseDouble(line.substring(7));
+                else
+                    System.out.println("  [" + cellType + "/" + mode + "] " + line);
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+
+    /**
+     * Mide un kernel dentro de la JVM hija.
+     */
+    private static void runFork(String cellType, RuleKernels.Mode mode, int scenario, int size, int sweeps)
+            throws IOException {
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        RuleKernel kernel = RuleKernels.create(cellType, settings, mode);
+        Object template = denseGrid(cellType, size, settings);
+        double best = Double.MAX_VALUE;
+        double sum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            Object grid = copy(template, size);
+            long start = System.nanoTime();
+            for (int s = 0; s < sweeps; s++)
+                sweep(kernel, grid, size);
+            double nsPerCell = (double) (System.nanoTime() - start) / ((double) sweeps * size * (size - 1));
+            if (round >= WARMUP_ROUNDS) {
+                sum += nsPerCell;
+                best = Math.min(best, nsPerCell);
+            }
+        }
+        System.out.printf("media %.3f ns/celda, mejor %.3f ns/celda%n", sum / MEASURED_ROUNDS, best);
+        System.out.println("RESULT " + sum / MEASURED_ROUNDS);
+    }
+
+    /**
+     * Recorre la retícula en el mismo orden que task.run con un solo hilo.
+     */
+    private static void sweep(RuleKernel kernel, Object grid, int size) {
+        for (int i = size - 1; i >= 0; i--)
+            for (int j = size - 1; j > 0; j--)
+                kernel.nextState(grid, grid, i, j, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Crea una retícula con un disco central ocupado al 70% por células RTC y STC.
+     */
+    static Object denseGrid(String cellType, int size, ScenarioSettings settings) {
+        return new WorkloadGenerator(WorkloadGenerator.Pattern.DISC).grid(cellType, size,
+                settings.cell_proliferation_potential_max);
+    }
+
+    static Object copy(Object grid, int size) {
+        Object copy = Array.newInstance(grid.getClass().getComponentType(), size);
+        for (int i = 0; i < size; i++) {
+            Object row = Array.get(grid, i);
+            Object rowCopy = Array.newInstance(row.getClass().getComponentType(), size);
+            System.arraycopy(row, 0, rowCopy, 0, size);
+            Array.set(copy, i, rowCopy);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * @file LiveStatePublisher.java
+ * @author Yeray Doello Gonzalez
+ * @brief Publicación de la retícula en curso en un archivo proyectado en memoria
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Publica las generaciones completadas de una {@link Simulation} en un archivo
+ * proyectado en memoria, para que otro proceso (la interfaz en modo attach) las
+ * muestre mientras la simulación sigue en otra JVM. No hay copias por sockets ni
+ * esperas entre los dos lados: el escritor nunca espera al lector y el lector
+ * reintenta si lee a la vez que se escribe (seqlock).
+ *
+ * El archivo tiene una cabecera de HEADER bytes, en el orden de bytes nativo,
+ * seguida de las celdas fila a fila (la celda (i, j) en i * tamaño + j):
+ *
+ *   0  int   MAGIC
+ *   4  int   VERSION
+ *   8  long  secuencia: impar mientras se escribe
+ *   16 int   generación
+ *   20 int   tamaño de la retícula
+ *   24 int   Pmax
+ *   28 int   generaciones del escenario
+ *   32 long  instante de la publicación (ms desde 1970)
+ *   40 int   1 si la simulación ha terminado
+ *   44 int   celdas que caben en el archivo
+ *
+ * Para publicar, la secuencia pasa a impar, se escriben la cabecera y las celdas
+ * y pasa al siguiente par. El lector lee la secuencia, copia y la vuelve a leer;
+ * si era impar o ha cambiado, repite. El archivo solo crece, de modo que las
+ * proyecciones que ya tengan los lectores siguen siendo válidas.
+ *
+ * La copia se hace en la acción de la barrera, con los hilos detenidos, así que
+ * cuenta en el tiempo de la generación. Para que no pese con retículas grandes
+ * se publica como mucho una generación cada -Dlive.interval milisegundos (40 por
+ * defecto), además de la última.
+ */
+public class LiveStatePublisher implements GenerationListener, Closeable {
+    public static final int MAGIC = 0x43414C56; // "CALV"
+    public static final int VERSION = 1;
+    public static final int HEADER = 64;
+    public static final int DEFAULT_INTERVAL = 40;
+
+    static final int SEQUENCE = 8;
+    static final int GENERATION = 16;
+    static final int SIZE = 20;
+    static final int PMAX = 24;
+    static final int GENERATIONS = 28;
+    static final int TIMESTAMP = 32;
+    static final int FINISHED = 40;
+    static final int CAPACITY = 44;
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final long intervalNanos;
+    private MappedByteBuffer map;
+    private long capacity;
+    private long sequence;
+    private long lastNanos;
+    private long published;
+    private Simulation last;
+
+    /**
+     * Constructor de la clase LiveStatePublisher. Si el archivo ya existe se
+     * reutiliza, sin encogerlo, para no invalidar a los lectores conectados.
+     * @param path La ruta del archivo.
+     * @param intervalMillis El tiempo mínimo entre dos publicaciones, en milisegundos.
+     * @throws IOException Si no se puede crear el archivo.
+     */
+    public LiveStatePublisher(String path, int intervalMillis) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        remap(Math.max(0, channel.size() - HEADER));
+        if (map.getInt(0) == MAGIC)
+            sequence = (long) LONGS.getVolatile(map, SEQUENCE) + 1 & ~1L;
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+    }
+
+    /**
+     * Crea el publicador indicado con -Dlive.file, si lo hay.
+     * @return El publicador, o null si no se ha indicado ningún archivo.
+     * @throws IOException Si no se puede crear el archivo.
+     */
+    public static LiveStatePublisher fromProperty() throws IOException {
+        String path = System.getProperty("live.file");
+        if (path == null || path.isEmpty())
+            return null;
+        return new LiveStatePublisher(path, Integer.getInteger("live.interval", DEFAULT_INTERVAL));
+    }
+
+    private void remap(long cells) throws IOException {
+        capacity = Math.max(cells, capacity);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity);
+        map.order(ByteOrder.nativeOrder());
+        map.putInt(CAPACITY, (int) Math.min(Integer.MAX_VALUE, capacity));
+    }
+
+    @Override
+    public void generationCompleted(Simulation simulation, int generation) {
+        last = simulation;
+        long now = System.nanoTime();
+        if (now - lastNanos < intervalNanos && generation < simulation.getSettings().generations)
+            return;
+        lastNanos = now;
+        try {
+            publish(simulation, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Publica el estado actual. Solo debe llamarse con la simulación detenida o
+     * desde el final de una generación.
+     * @param simulation La simulación.
+     * @param finished Si la simulación ha terminado.
+     * @throws IOException Si no se puede ampliar el archivo.
+     */
+    public void publish(Simulation simulation, boolean finished) throws IOException {
+        last = simulation;
+        byte[][] grid = simulation.getGrid();
+        int size = grid.length;
+        if ((long) size * size > capacity)
+            remap((long) size * size + (long) size * size / 2);
+
+        // La secuencia impar debe ser visible antes que cualquier escritura del frame
+        LONGS.setVolatile(map, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence();
+        map.putInt(GENERATION, simulation.getGeneration());
+        map.putInt(SIZE, size);
+        map.putInt(PMAX, simulation.getSettings().cell_proliferation_potential_max);
+        map.putInt(GENERATIONS, simulation.getSettings().generations);
+        map.putLong(TIMESTAMP, System.currentTimeMillis());
+        map.putInt(FINISHED, finished ? 1 : 0);
+        for (int i = 0; i < size; i++)
+            map.put(HEADER + i * size, grid[i], 0, size);
+        LONGS.setRelease(map, SEQUENCE, ++sequence);
+
+        published++;
+    }
+
+    /**
+     * Devuelve el número de generaciones publicadas.
+     */
+    public long getPublishedCount() {
+        return published;
+    }
+
+    /**
+     * Vuelve a publicar la última generación, marcada como terminada, y cierra
+     * el archivo. El archivo se conserva para que el visor pueda seguir
+     * mostrándola.
+     * @throws IOException Si falla la escritura.
+     */
+    @Override
+    public void close() throws IOException {
+        if (last != null)
+            publish(last, true);
+        map.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,119 @@
+
+/**
+ * @file P2Quantile.java
+ * @author Yeray Doello Gonzalez
+ * @brief Estimación en línea de un cuantil con el algoritmo P²
+ */
+
+import java.util.Arrays;
+
+/**
+ * Estima un cuantil con el algoritmo P² de Jain y Chlamtac: mantiene cinco
+ * marcadores cuyas alturas se ajustan con interpolación parabólica a medida que
+ * llegan valores, de modo que la memoria es constante sea cual sea el número de
+ * valores. Con menos de cinco valores el cuantil es exacto.
+ */
+public class P2Quantile {
+    private final double p;
+    private final double[] q = new double[5];
+    private final int[] n = new int[5];
+    private final double[] desired = new double[5];
+    private final double[] increment = new double[5];
+    private long count;
+
+    /**
+     * Constructor de la clase P2Quantile.
+     * @param p El cuantil a estimar, entre 0 y 1.
+     */
+    public P2Quantile(double p) {
+        if (p < 0 || p > 1)
+            throw new IllegalArgumentException("El cuantil debe estar entre 0 y 1: " + p);
+        this.p = p;
+    }
+
+    /**
+     * Añade un valor.
+     * @param x El valor.
+     */
+    public void add(double x) {
+        if (count < 5) {
+            q[(int) count++] = x;
+            if (count == 5) {
+                Arrays.sort(q);
+                for (int i = 0; i < 5; i++)
+                    n[i] = i;
+                desired[0] = 0;
+                desired[1] = 2 * p;
+                desired[2] = 4 * p;
+                desired[3] = 2 + 2 * p;
+                desired[4] = 4;
+                increment[0] = 0;
+                increment[1] = p / 2;
+                increment[2] = p;
+                increment[3] = (1 + p) / 2;
+                increment[4] = 1;
+            }
+            return;
+        }
+        count++;
+        // Celda k tal que q[k] <= x < q[k + 1]
+        int k;
+        if (x < q[0]) {
+            q[0] = x;
+            k = 0;
+        } else if (x >= q[4]) {
+            q[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= q[k + 1])
+                k++;
+        }
+        for (int i = k + 1; i < 5; i++)
+            n[i]++;
+        for (int i = 0; i < 5; i++)
+            desired[i] += increment[i];
+        // Ajusta los marcadores centrales que se han separado de su posición deseada
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                int s = d > 0 ? 1 : -1;
+                double candidate = parabolic(i, s);
+                if (q[i - 1] < candidate && candidate < q[i + 1])
+                    q[i] = candidate;
+                else
+                    q[i] = q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+                n[i] += s;
+            }
+        }
+    }
+
+    private double parabolic(int i, int s) {
+        return q[i] + (double) s / (n[i + 1] - n[i - 1])
+                * ((n[i] - n[i - 1] + s) * (q[i + 1] - q[i]) / (n[i + 1] - n[i])
+                        + (n[i + 1] - n[i] - s) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    /**
+     * Devuelve la estimación actual del cuantil.
+     * @return El cuantil, o NaN si no se ha añadido ningún valor.
+     */
+    public double getQuantile() {
+        if (count == 0)
+            return Double.NaN;
+        if (count < 5) {
+            double[] values = Arrays.copyOf(q, (int) count);
+            Arrays.sort(values);
+            return values[(int) Math.round(p * (count - 1))];
+        }
+        return q[2];
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
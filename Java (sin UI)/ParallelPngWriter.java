@@ -0,0 +1,359 @@
+
+/**
+ * @file ParallelPngWriter.java
+ * @author Yeray Doello Gonzalez
+ * @brief Codificación PNG en paralelo de imágenes con paleta
+ */
+
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Escritor de PNG con paleta (tipo de color 3, 8 bits por píxel) que filtra y
+ * comprime la imagen por franjas de filas en paralelo. Con un dominio que
+ * extend_domain ha ampliado a miles de celdas por lado, ImageIO comprime en un
+ * solo hilo y tarda más que una generación.
+ *
+ * Cada franja se comprime con su propio Deflater sin cabecera; todas menos la
+ * última terminan con SYNC_FLUSH, que cierra el bloque en un límite de byte sin
+ * marcarlo como final, así que las franjas concatenadas forman un único flujo
+ * deflate. El Adler-32 del flujo zlib se obtiene combinando los de las franjas.
+ * Cada franja se escribe, en orden, como un chunk IDAT en cuanto está lista, y
+ * solo hay unas pocas en memoria a la vez: la imagen nunca se construye entera,
+ * de modo que también sirve para imágenes que no caben en un BufferedImage.
+ *
+ * Los filtros de fila se eligen por fila con la heurística habitual (la menor
+ * suma de los valores absolutos), como hace libpng.
+ */
+public final class ParallelPngWriter {
+    /**
+     * Origen de las filas de la imagen. Se llama desde varios hilos a la vez,
+     * con franjas distintas, así que no debe modificar estado compartido.
+     */
+    public interface RowSource {
+        /**
+         * Copia filas de la imagen, un byte (índice de la paleta) por píxel.
+         * @param y La primera fila.
+         * @param count El número de filas.
+         * @param dst El destino: la fila y + r empieza en r * width.
+         */
+        void read(int y, int count, byte[] dst);
+    }
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int STRIP_BYTES = 1 << 18;
+    private static final int ADLER_BASE = 65521;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "png-encoder-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final byte[] palette;
+    private final int level;
+
+    /**
+     * Constructor de la clase ParallelPngWriter, con el nivel de compresión por defecto.
+     * @param model La paleta de la imagen.
+     */
+    public ParallelPngWriter(IndexColorModel model) {
+        this(model, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructor de la clase ParallelPngWriter.
+     * @param model La paleta de la imagen.
+     * @param level El nivel de compresión de Deflater (0-9, o -1 por defecto).
+     */
+    public ParallelPngWriter(IndexColorModel model, int level) {
+        int n = model.getMapSize();
+        palette = new byte[3 * n];
+        for (int k = 0; k < n; k++) {
+            palette[3 * k] = (byte) model.getRed(k);
+            palette[3 * k + 1] = (byte) model.getGreen(k);
+            palette[3 * k + 2] = (byte) model.getBlue(k);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Filas de una retícula guardada fila a fila en un array (la celda (i, j) en
+     * cells[i * size + j]), con la orientación de printGrid: la fila i de la
+     * retícula es la columna x = i de la imagen.
+     * @param cells Las celdas.
+     * @param size El lado de la retícula.
+     * @return El origen de las filas.
+     */
+    public static RowSource columnsOf(byte[] cells, int size) {
+        return (y, count, dst) -> {
+            for (int x = 0; x < size; x++) {
+                int base = x * size + y;
+                for (int r = 0; r < count; r++)
+                    dst[r * size + x] = cells[base + r];
+            }
+        };
+    }
+
+    /**
+     * Filas de una retícula de tipo byte, con la orientación de printGrid.
+     * @param grid La retícula; no se copia, así que no debe cambiar durante la escritura.
+     * @return El origen de las filas.
+     */
+    public static RowSource columnsOf(byte[][] grid) {
+        int size = grid.length;
+        return (y, count, dst) -> {
+            for (int x = 0; x < size; x++) {
+                byte[] row = grid[x];
+                for (int r = 0; r < count; r++)
+                    dst[r * size + x] = row[y + r];
+            }
+        };
+    }
+
+    /**
+     * Escribe la imagen en un fichero.
+     * @param path La ruta del fichero.
+     * @param width El ancho de la imagen.
+     * @param height El alto de la imagen.
+     * @param rows El origen de las filas.
+     * @return Los bytes escritos.
+     * @throws IOException Si falla la escritura.
+     */
+    public long write(String path, int width, int height, RowSource rows) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16)) {
+            return write(out, width, height, rows);
+        }
+    }
+
+    /**
+     * Escribe la imagen en un flujo, que no se cierra.
+     * @param out El flujo de salida.
+     * @param width El ancho de la imagen.
+     * @param height El alto de la imagen.
+     * @param rows El origen de las filas.
+     * @return Los bytes escritos.
+     * @throws IOException Si falla la escritura.
+     */
+    public long write(OutputStream out, int width, int height, RowSource rows) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bits por píxel
+        header[9] = 3; // tipo de color: paleta
+        writeChunk(data, "IHDR", header, 0, header.length);
+        writeChunk(data, "PLTE", palette, 0, palette.length);
+
+        // Cabecera zlib: deflate con ventana de 32 KiB
+        byte[] zlib = { 0x78, (byte) 0x9C };
+        writeChunk(data, "IDAT", zlib, 0, zlib.length);
+
+        int stripRows = Math.max(1, STRIP_BYTES / (width + 1));
+        int strips = (height + stripRows - 1) / stripRows;
+        ArrayDeque<Future<Strip>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        long adler = 1;
+        try {
+            while (next < strips || !inFlight.isEmpty()) {
+                while (next < strips && inFlight.size() < 2 * THREADS) {
+                    int y = next * stripRows;
+                    int count = Math.min(stripRows, height - y);
+                    boolean last = ++next == strips;
+                    inFlight.addLast(POOL.submit(() -> encode(rows, width, y, count, last)));
+                }
+                Strip strip = inFlight.pollFirst().get();
+                writeChunk(data, "IDAT", strip.compressed, 0, strip.length);
+                adler = combineAdler(adler, strip.adler, strip.raw);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Strip> f : inFlight)
+                f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Escritura del PNG interrumpida");
+        } catch (ExecutionException e) {
+            for (Future<Strip> f : inFlight)
+                f.cancel(true);
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(data, "IDAT", trailer, 0, trailer.length);
+        writeChunk(data, "IEND", trailer, 0, 0);
+        data.flush();
+        return data.size();
+    }
+
+    /**
+     * Una franja comprimida.
+     */
+    private static final class Strip {
+        byte[] compressed;
+        int length;
+        long adler;
+        long raw;
+    }
+
+    /**
+     * Filtra y comprime una franja de filas.
+     */
+    private Strip encode(RowSource rows, int width, int y, int count, boolean last) {
+        // La fila anterior a la franja hace falta para los filtros Up, Average y Paeth
+        byte[] pixels = new byte[(count + 1) * width];
+        if (y > 0)
+            rows.read(y - 1, 1, pixels);
+        byte[] tail = new byte[count * width];
+        rows.read(y, count, tail);
+        System.arraycopy(tail, 0, pixels, width, tail.length);
+
+        int stride = width + 1;
+        byte[] filtered = new byte[count * stride];
+        byte[] candidate = new byte[width];
+        for (int r = 0; r < count; r++)
+            filterRow(pixels, (r + 1) * width, r * width, width, filtered, r * stride, candidate);
+
+        Strip strip = new Strip();
+        Adler32 checksum = new Adler32();
+        checksum.update(filtered, 0, filtered.length);
+        strip.adler = checksum.getValue();
+        strip.raw = filtered.length;
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(filtered);
+            if (last)
+                deflater.finish();
+            byte[] out = new byte[filtered.length / 2 + 64];
+            int length = 0;
+            while (true) {
+                if (length == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                int space = out.length - length;
+                length += deflater.deflate(out, length, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // SYNC_FLUSH ha terminado cuando no llena el espacio disponible
+                if (last ? deflater.finished() : out.length - length > 0)
+                    break;
+            }
+            strip.compressed = out;
+            strip.length = length;
+        } finally {
+            deflater.end();
+        }
+        return strip;
+    }
+
+    /**
+     * Filtra una fila con el filtro cuya salida tiene la menor suma de valores absolutos.
+     * @param pixels Las filas sin filtrar.
+     * @param cur El inicio de la fila.
+     * @param prev El inicio de la fila anterior (toda a cero si es la primera de la imagen).
+     * @param width El ancho.
+     * @param out El destino: el tipo de filtro y la fila filtrada.
+     * @param pos El inicio de la fila en el destino.
+     * @param candidate Un buffer de trabajo de width bytes.
+     */
+    private static void filterRow(byte[] pixels, int cur, int prev, int width, byte[] out, int pos,
+            byte[] candidate) {
+        long best = Long.MAX_VALUE;
+        for (int type = 0; type <= 4; type++) {
+            long sum = 0;
+            for (int x = 0; x < width; x++) {
+                int a = x > 0 ? pixels[cur + x - 1] & 0xFF : 0;
+                int b = pixels[prev + x] & 0xFF;
+                int c = x > 0 ? pixels[prev + x - 1] & 0xFF : 0;
+                int v = pixels[cur + x] & 0xFF;
+                switch (type) {
+                    case 1: v -= a; break;
+                    case 2: v -= b; break;
+                    case 3: v -= (a + b) >> 1; break;
+                    case 4: v -= paeth(a, b, c); break;
+                    default: break;
+                }
+                candidate[x] = (byte) v;
+                sum += Math.abs((int) (byte) v);
+            }
+            if (sum < best) {
+                best = sum;
+                out[pos] = (byte) type;
+                System.arraycopy(candidate, 0, out, pos + 1, width);
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc)
+            return a;
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Adler-32 de la concatenación de dos bloques, a partir de los de cada uno
+     * (adler32_combine de zlib).
+     * @param adler1 El Adler-32 del primer bloque.
+     * @param adler2 El Adler-32 del segundo bloque.
+     * @param len2 La longitud del segundo bloque.
+     */
+    static long combineAdler(long adler1, long adler2, long len2) {
+        long rem = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum2 >= 2L * ADLER_BASE)
+            sum2 -= 2L * ADLER_BASE;
+        if (sum2 >= ADLER_BASE)
+            sum2 -= ADLER_BASE;
+        return sum1 | sum2 << 16;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int off, int len)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        crc.update(name);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(name);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
@@ -0,0 +1,282 @@
+
+/**
+ * @file PhaseTimers.java
+ * @author Yeray Doello Gonzalez
+ * @brief Tiempos por fase de cada hilo y de cada generación de una simulación
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serie temporal de los tiempos de cada generación de una {@link Simulation},
+ * separados por fase:
+ *
+ *   por hilo        computo   recorrido de las filas interiores de su franja
+ *                   frontera  recorrido de las filas frontera, incluida la espera
+ *                             por el cerrojo y el tiempo dentro de él
+ *                   barrera   espera en barrier.await (incluye la acción de fin de
+ *                             generación que ejecuta uno de los hilos, pero no el
+ *                             tiempo en pausa)
+ *   por generación  impresion printGrid
+ *                   borde     check_reach_border
+ *                   ampliacion extend_domain
+ *
+ * Con esto se distingue si una generación lenta se debe a contención en las
+ * filas frontera, a desequilibrio entre hilos (computo máximo frente a medio) o
+ * a E/S. Cada hilo toma dos marcas de tiempo por generación más dos por fila
+ * frontera, así que el coste es despreciable frente al recorrido de la retícula.
+ *
+ * Uso: java PhaseTimers [escenario 1-21] [hilos] [generaciones] [salida.csv|salida.json]
+ */
+public class PhaseTimers {
+    public static final String[] WORKER_PHASES = { "computo", "frontera", "barrera" };
+    public static final String[] GENERATION_PHASES = { "impresion", "borde", "ampliacion" };
+
+    // Posiciones de los datos de la generación al final de cada fila
+    private static final int SIZE = 0;
+    private static final int END = 1;
+    private static final int PHASES = 2;
+
+    private final int numThreads;
+    // Una fila por generación: numThreads * 3 tiempos de hilo, tamaño, marca de fin y tiempos de la generación
+    private final List<long[]> rows = new ArrayList<>();
+    private long start;
+
+    /**
+     * Constructor de la clase PhaseTimers.
+     * @param numThreads El número de hilos de la simulación.
+     */
+    public PhaseTimers(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Prepara la fila de una generación. La llama la simulación antes de que los
+     * hilos empiecen la generación (al arrancar o en la acción de la barrera), por
+     * lo que los hilos pueden escribir en ella sin sincronización.
+     */
+    void prepare(int generation, int size) {
+        if (rows.isEmpty())
+            start = System.nanoTime();
+        while (rows.size() <= generation)
+            rows.add(null);
+        long[] row = new long[numThreads * WORKER_PHASES.length + PHASES + GENERATION_PHASES.length];
+        row[numThreads * WORKER_PHASES.length + SIZE] = size;
+        rows.set(generation, row);
+    }
+
+    /**
+     * Registra los tiempos de un hilo en una generación.
+     */
+    void worker(int generation, int th_indx, long compute, long boundary, long barrier) {
+        long[] row = rows.get(generation);
+        row[th_indx * 3] = compute;
+        row[th_indx * 3 + 1] = boundary;
+        row[th_indx * 3 + 2] = barrier;
+    }
+
+    /**
+     * Registra los tiempos de la acción de fin de generación.
+     */
+    void generation(int generation, long print, long border, long extend) {
+        long[] row = rows.get(generation);
+        int base = numThreads * WORKER_PHASES.length;
+        row[base + END] = System.nanoTime();
+        row[base + PHASES] = print;
+        row[base + PHASES + 1] = border;
+        row[base + PHASES + 2] = extend;
+    }
+
+    /**
+     * Devuelve el número de generaciones completadas registradas.
+     */
+    public int getGenerations() {
+        int n = 0;
+        for (long[] row : rows)
+            if (row != null && row[numThreads * WORKER_PHASES.length + END] != 0)
+                n++;
+        return n;
+    }
+
+    /**
+     * Duración de reloj de una generación: desde el final de la anterior (o el
+     * primer registro) hasta el final de esta.
+     */
+    private long wall(int generation) {
+        int base = numThreads * WORKER_PHASES.length;
+        long end = rows.get(generation)[base + END];
+        long previous = start;
+        for (int g = generation - 1; g >= 0; g--) {
+            long[] row = rows.get(g);
+            if (row != null && row[base + END] != 0) {
+                previous = row[base + END];
+                break;
+            }
+        }
+        return end - previous;
+    }
+
+    private boolean completed(long[] row) {
+        return row != null && row[numThreads * WORKER_PHASES.length + END] != 0;
+    }
+
+    /**
+     * Escribe una línea CSV por generación con los tiempos de cada hilo, los de la
+     * generación, el cómputo máximo y medio y las celdas actualizadas por segundo.
+     * Los tiempos están en microsegundos.
+     * @param out Destino de los resultados.
+     */
+    public void writeCsv(PrintWriter out) {
+        StringBuilder header = new StringBuilder("generacion,tamano,celdas,tiempo_us,celdas_por_segundo");
+        for (String phase : GENERATION_PHASES)
+            header.append(',').append(phase).append("_us");
+        header.append(",computo_max_us,computo_medio_us,frontera_total_us,barrera_total_us");
+        for (int t = 0; t < numThreads; t++)
+            for (String phase : WORKER_PHASES)
+                header.append(',').append(phase).append("_h").append(t).append("_us");
+        out.println(header);
+        int base = numThreads * WORKER_PHASES.length;
+        for (int g = 0; g < rows.size(); g++) {
+            long[] row = rows.get(g);
+            if (!completed(row))
+                continue;
+            long size = row[base + SIZE];
+            long cells = size * (size - 1);
+            long wall = wall(g);
+            long computeMax = 0, computeSum = 0, boundarySum = 0, barrierSum = 0;
+            for (int t = 0; t < numThreads; t++) {
+                computeMax = Math.max(computeMax, row[t * 3]);
+                computeSum += row[t * 3];
+                boundarySum += row[t * 3 + 1];
+                barrierSum += row[t * 3 + 2];
+            }
+            StringBuilder line = new StringBuilder();
+            line.append(g).append(',').append(size).append(',').append(cells).append(',').append(wall / 1000.0)
+                    .append(',').append(wall > 0 ? cells * 1e9 / wall : 0);
+            for (int p = 0; p < GENERATION_PHASES.length; p++)
+                line.append(',').append(row[base + PHASES + p] / 1000.0);
+            line.append(',').append(computeMax / 1000.0).append(',').append(computeSum / 1000.0 / numThreads)
+                    .append(',').append(boundarySum / 1000.0).append(',').append(barrierSum / 1000.0);
+            for (int k = 0; k < base; k++)
+                line.append(',').append(row[k] / 1000.0);
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    /**
+     * Escribe la misma serie en JSON: un objeto por generación con los tiempos de
+     * la generación y una lista con los de cada hilo (en microsegundos).
+     * @param out Destino de los resultados.
+     */
+    public void writeJson(PrintWriter out) {
+        int base = numThreads * WORKER_PHASES.length;
+        out.println("{\"hilos\": " + numThreads + ", \"generaciones\": [");
+        boolean first = true;
+        for (int g = 0; g < rows.size(); g++) {
+            long[] row = rows.get(g);
+            if (!completed(row))
+                continue;
+            long size = row[base + SIZE];
+            long cells = size * (size - 1);
+            long wall = wall(g);
+            StringBuilder line = new StringBuilder(first ? "  {" : ",\n  {");
+            first = false;
+            line.append("\"generacion\": ").append(g).append(", \"tamano\": ").append(size).append(", \"celdas\": ")
+                    .append(cells).append(", \"tiempo_us\": ").append(wall / 1000.0).append(", \"celdas_por_segundo\": ")
+                    .append(wall > 0 ? cells * 1e9 / wall : 0);
+            for (int p = 0; p < GENERATION_PHASES.length; p++)
+                line.append(", \"").append(GENERATION_PHASES[p]).append("_us\": ").append(row[base + PHASES + p] / 1000.0);
+            line.append(", \"hilos\": [");
+            for (int t = 0; t < numThreads; t++) {
+                line.append(t > 0 ? ", {" : "{");
+                for (int p = 0; p < WORKER_PHASES.length; p++)
+                    line.append(p > 0 ? ", \"" : "\"").append(WORKER_PHASES[p]).append("_us\": ")
+                            .append(row[t * 3 + p] / 1000.0);
+                line.append('}');
+            }
+            line.append("]}");
+            out.print(line);
+        }
+        out.println("\n]}");
+        out.flush();
+    }
+
+    /**
+     * Resume toda la serie: el tiempo total de cada fase, el desequilibrio medio
+     * entre hilos y las celdas actualizadas por segundo.
+     * @return El resumen en varias líneas.
+     */
+    public String summary() {
+        int base = numThreads * WORKER_PHASES.length;
+        long[] workerTotals = new long[WORKER_PHASES.length];
+        long[] generationTotals = new long[GENERATION_PHASES.length];
+        long cells = 0, wall = 0, computeMax = 0, computeSum = 0;
+        int generations = 0;
+        for (int g = 0; g < rows.size(); g++) {
+            long[] row = rows.get(g);
+            if (!completed(row))
+                continue;
+            generations++;
+            long size = row[base + SIZE];
+            cells += size * (size - 1);
+            wall += wall(g);
+            long max = 0;
+            for (int t = 0; t < numThreads; t++) {
+                for (int p = 0; p < WORKER_PHASES.length; p++)
+                    workerTotals[p] += row[t * 3 + p];
+                max = Math.max(max, row[t * 3]);
+                computeSum += row[t * 3];
+            }
+            computeMax += max;
+            for (int p = 0; p < GENERATION_PHASES.length; p++)
+                generationTotals[p] += row[base + PHASES + p];
+        }
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("%d generaciones en %.1f ms, %.3e celdas por segundo%n", generations, wall / 1e6,
+                wall > 0 ? cells * 1e9 / wall : 0.0));
+        for (int p = 0; p < WORKER_PHASES.length; p++)
+            s.append(String.format("  %-10s %10.1f ms (suma de %d hilos)%n", WORKER_PHASES[p], workerTotals[p] / 1e6,
+                    numThreads));
+        for (int p = 0; p < GENERATION_PHASES.length; p++)
+            s.append(String.format("  %-10s %10.1f ms%n", GENERATION_PHASES[p], generationTotals[p] / 1e6));
+        if (computeSum > 0)
+            s.append(String.format("  desequilibrio (computo maximo / medio): %.3f%n",
+                    computeMax / ((double) computeSum / numThreads)));
+        return s.toString();
+    }
+
+    /**
+     * Ejecuta una simulación con los tiempos por fase activados y muestra el resumen.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el escenario o escribir los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        if (args.length > 2)
+            settings = settings.withGenerations(Integer.parseInt(args[2]));
+        String output = args.length > 3 ? args[3] : null;
+
+        Simulation simulation = new Simulation(settings, threads, 400, System.nanoTime());
+        PhaseTimers timers = new PhaseTimers(threads);
+        simulation.setPhaseTimers(timers);
+        simulation.run();
+        System.out.println(settings);
+        System.out.print(timers.summary());
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(output))) {
+                if (output.endsWith(".json"))
+                    timers.writeJson(out);
+                else
+                    timers.writeCsv(out);
+            }
+        }
+    }
+}
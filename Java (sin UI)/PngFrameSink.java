@@ -0,0 +1,38 @@
+
+/**
+ * @file PngFrameSink.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escritura de instantáneas en PNG
+ */
+
+import java.io.IOException;
+
+/**
+ * Guarda cada instantánea en el fichero PNG indicado por su ruta, con los mismos
+ * colores y la misma orientación que printGrid: la fila i de la retícula es la
+ * columna x = i de la imagen. El PNG se codifica con paleta y en paralelo
+ * ({@link ParallelPngWriter}) leyendo directamente las celdas del frame, sin
+ * construir la imagen.
+ */
+public class PngFrameSink implements FrameSink {
+    private final ParallelPngWriter writer;
+
+    /**
+     * Constructor de la clase PngFrameSink.
+     * @param pmax El potencial de proliferación máximo del escenario.
+     */
+    public PngFrameSink(int pmax) {
+        this.writer = new ParallelPngWriter(IndexedGridImage.colorModel(pmax));
+    }
+
+    @Override
+    public long write(SnapshotPipeline.Frame frame) throws IOException {
+        int size = frame.getSize();
+        return writer.write(frame.getPath(), size, size, ParallelPngWriter.columnsOf(frame.getCells(), size));
+    }
+
+    @Override
+    public String getFormat() {
+        return "png";
+    }
+}
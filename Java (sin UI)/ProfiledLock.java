@@ -0,0 +1,259 @@
+
+/**
+ * @file ProfiledLock.java
+ * @author Yeray Doello Gonzalez
+ * @brief Medición de la contención del cerrojo de las filas frontera
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Envoltorio del cerrojo de las filas frontera de las variantes originales que
+ * registra, por hilo, el número de adquisiciones, cuántas han tenido que
+ * esperar a otro hilo, histogramas del tiempo de espera y del tiempo con el
+ * cerrojo tomado, y la espera en la barrera de fin de generación. Con eso se ve
+ * si lo que impide escalar con un escenario y un número de hilos es el cerrojo
+ * o la barrera (desequilibrio entre franjas).
+ *
+ * Sirve para las dos familias de variantes:
+ *
+ *   bloqueo_lock   lock(th) / unlock(th) en lugar de lck.lock() / lck.unlock().
+ *                  Primero se intenta tryLock, así que una adquisición cuenta como
+ *                  disputada solo si otro hilo tenía el cerrojo.
+ *   synchronized   beforeEnter(th) antes del bloque synchronized, entered(th, ...)
+ *                  como primera instrucción dentro y exiting(th) como última. Un
+ *                  monitor no tiene tryLock, así que la disputa se detecta viendo si
+ *                  otro hilo estaba dentro al intentar entrar.
+ *
+ * Se activa con -Dlock.profile=true; sin la propiedad, las variantes no crean el
+ * envoltorio y el camino de las filas frontera es el original. Los histogramas
+ * usan intervalos de potencias de dos en nanosegundos. El informe se imprime al
+ * terminar la ejecución paralela y, con -Dlock.profile.output=fichero.csv, se
+ * escribe también en CSV.
+ */
+public class ProfiledLock {
+    public static final boolean ENABLED = Boolean.getBoolean("lock.profile");
+    private static final int BUCKETS = 64;
+
+    /**
+     * Datos de un hilo. Solo los escribe su hilo.
+     */
+    private static final class Stats {
+        long acquisitions;
+        long contended;
+        long waitNanos;
+        long holdNanos;
+        long barrierNanos;
+        long barrierWaits;
+        long acquiredAt;
+        final long[] waitHistogram = new long[BUCKETS];
+        final long[] holdHistogram = new long[BUCKETS];
+        final long[] barrierHistogram = new long[BUCKETS];
+    }
+
+    private final ReentrantLock lock;
+    private final Stats[] stats;
+    // Hilo que está dentro del monitor, o -1 (solo en modo synchronized)
+    private volatile int owner = -1;
+    private final long start = System.nanoTime();
+
+    /**
+     * Envoltorio de un ReentrantLock.
+     * @param lock El cerrojo de las filas frontera.
+     * @param numThreads El número de hilos.
+     */
+    public ProfiledLock(ReentrantLock lock, int numThreads) {
+        this.lock = lock;
+        this.stats = new Stats[numThreads];
+        for (int t = 0; t < numThreads; t++)
+            stats[t] = new Stats();
+    }
+
+    /**
+     * Envoltorio de un monitor (bloque synchronized).
+     * @param numThreads El número de hilos.
+     */
+    public ProfiledLock(int numThreads) {
+        this(null, numThreads);
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Toma el cerrojo registrando si ha habido que esperar y cuánto.
+     * @param th_indx Índice del hilo.
+     */
+    public void lock(int th_indx) {
+        Stats s = stats[th_indx];
+        long wait = 0;
+        if (!lock.tryLock()) {
+            long t0 = System.nanoTime();
+            lock.lock();
+            wait = System.nanoTime() - t0;
+            s.contended++;
+        }
+        s.acquisitions++;
+        s.waitNanos += wait;
+        s.waitHistogram[bucket(wait)]++;
+        s.acquiredAt = System.nanoTime();
+    }
+
+    /**
+     * Suelta el cerrojo registrando el tiempo que se ha tenido.
+     * @param th_indx Índice del hilo.
+     */
+    public void unlock(int th_indx) {
+        Stats s = stats[th_indx];
+        long hold = System.nanoTime() - s.acquiredAt;
+        lock.unlock();
+        s.holdNanos += hold;
+        s.holdHistogram[bucket(hold)]++;
+    }
+
+    /**
+     * Se llama justo antes de un bloque synchronized.
+     * @param th_indx Índice del hilo.
+     * @return 0 si el monitor estaba libre o, si otro hilo estaba dentro, la marca
+     *         de tiempo desde la que se espera. Se pasa a {@link #entered(int, long)}.
+     */
+    public long beforeEnter(int th_indx) {
+        return owner != -1 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Primera instrucción dentro del bloque synchronized.
+     * @param th_indx Índice del hilo.
+     * @param since El valor devuelto por {@link #beforeEnter(int)}.
+     */
+    public void entered(int th_indx, long since) {
+        Stats s = stats[th_indx];
+        long now = System.nanoTime();
+        long wait = since != 0 ? now - since : 0;
+        owner = th_indx;
+        if (since != 0)
+            s.contended++;
+        s.acquisitions++;
+        s.waitNanos += wait;
+        s.waitHistogram[bucket(wait)]++;
+        s.acquiredAt = now;
+    }
+
+    /**
+     * Última instrucción dentro del bloque synchronized.
+     * @param th_indx Índice del hilo.
+     */
+    public void exiting(int th_indx) {
+        Stats s = stats[th_indx];
+        long hold = System.nanoTime() - s.acquiredAt;
+        owner = -1;
+        s.holdNanos += hold;
+        s.holdHistogram[bucket(hold)]++;
+    }
+
+    /**
+     * Registra la espera de un hilo en la barrera de fin de generación.
+     * @param th_indx Índice del hilo.
+     * @param nanos El tiempo de espera.
+     */
+    public void barrier(int th_indx, long nanos) {
+        Stats s = stats[th_indx];
+        s.barrierNanos += nanos;
+        s.barrierWaits++;
+        s.barrierHistogram[bucket(nanos)]++;
+    }
+
+    /**
+     * Cota superior aproximada del percentil p de un histograma, en nanosegundos.
+     */
+    private static long percentile(long[] histogram, double p) {
+        long total = 0;
+        for (long c : histogram)
+            total += c;
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram[b];
+            if (seen >= rank)
+                return b == 0 ? 0 : 1L << Math.min(62, b);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Imprime una tabla por hilo y la conclusión: qué supone más tiempo, la espera
+     * por el cerrojo o la espera en la barrera.
+     * @param out Destino del informe.
+     */
+    public void report(PrintStream out) {
+        long elapsed = System.nanoTime() - start;
+        long totalWait = 0, totalHold = 0, totalBarrier = 0, totalAcquisitions = 0, totalContended = 0;
+        out.println("Contencion del cerrojo de frontera (" + (lock != null ? "ReentrantLock" : "synchronized") + ", "
+                + stats.length + " hilos, " + String.format("%.1f", elapsed / 1e6) + " ms)");
+        out.println(String.format("%5s %12s %10s %11s %11s %11s %11s %12s", "hilo", "adquisiciones", "disputadas",
+                "espera_ms", "espera_p99", "tenido_ms", "tenido_p99", "barrera_ms"));
+        for (int t = 0; t < stats.length; t++) {
+            Stats s = stats[t];
+            out.println(String.format("%5d %12d %9.2f%% %11.2f %9dns %11.2f %9dns %12.2f", t, s.acquisitions,
+                    s.acquisitions > 0 ? 100.0 * s.contended / s.acquisitions : 0.0, s.waitNanos / 1e6,
+                    percentile(s.waitHistogram, 0.99), s.holdNanos / 1e6, percentile(s.holdHistogram, 0.99),
+                    s.barrierNanos / 1e6));
+            totalWait += s.waitNanos;
+            totalHold += s.holdNanos;
+            totalBarrier += s.barrierNanos;
+            totalAcquisitions += s.acquisitions;
+            totalContended += s.contended;
+        }
+        double threadTime = (double) elapsed * stats.length;
+        out.println(String.format("Espera por el cerrojo: %.2f%% del tiempo de los hilos (%d de %d adquisiciones disputadas)",
+                100 * totalWait / threadTime, totalContended, totalAcquisitions));
+        out.println(String.format("Tiempo con el cerrojo tomado: %.2f%%", 100 * totalHold / threadTime));
+        out.println(String.format("Espera en la barrera: %.2f%% del tiempo de los hilos", 100 * totalBarrier / threadTime));
+        if (stats.length > 1)
+            out.println(totalWait > totalBarrier
+                    ? "=> El cerrojo de las filas frontera limita el escalado"
+                    : "=> La barrera (desequilibrio entre franjas) limita el escalado");
+    }
+
+    /**
+     * Escribe los histogramas en CSV: una fila por hilo, tipo de medida e intervalo no vacío.
+     * @param path El fichero de salida.
+     * @throws IOException Si no se puede escribir el fichero.
+     */
+    public void writeCsv(String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("hilo,medida,desde_ns,hasta_ns,cuenta");
+            String[] names = { "espera", "tenido", "barrera" };
+            for (int t = 0; t < stats.length; t++) {
+                long[][] histograms = { stats[t].waitHistogram, stats[t].holdHistogram, stats[t].barrierHistogram };
+                for (int h = 0; h < histograms.length; h++)
+                    for (int b = 0; b < BUCKETS; b++)
+                        if (histograms[h][b] != 0)
+                            out.println(t + "," + names[h] + "," + (b == 0 ? 0 : 1L << (b - 1)) + ","
+                                    + (b == 0 ? 0 : (1L << Math.min(62, b)) - 1) + "," + histograms[h][b]);
+            }
+        }
+    }
+
+    /**
+     * Imprime el informe y, si se ha indicado -Dlock.profile.output, escribe el CSV.
+     */
+    public void finish() {
+        report(System.out);
+        String output = System.getProperty("lock.profile.output");
+        if (output != null) {
+            try {
+                writeCsv(output);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+
+/**
+ * @file ReplicateLaneAutomaton.java
+ * @author Yeray Doello Gonzalez
+ * @brief Autómata celular que avanza varias réplicas independientes en un único recorrido de la retícula
+ */
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ejecuta hasta {@link #MAX_LANES} réplicas independientes del mismo escenario
+ * empaquetadas en los carriles de 8 bits de una palabra long por celda. Cada
+ * carril sigue exactamente las reglas de task.nextState del autómata de tipo
+ * byte y tiene su propio generador aleatorio, de modo que un solo recorrido
+ * de memoria avanza todas las réplicas a la vez.
+ *
+ * En cada carril el valor 0 es una celda vacía, los valores 1..Pmax son
+ * células RTC, Pmax + 1 es una célula STC y 0xFF es la marca de espacio
+ * reservado (el -1 de las variantes de tipo byte).
+ *
+ * El dominio es común a todas las réplicas: se amplía en cuanto una de ellas
+ * alcanza el borde, por lo que el resto ve el borde algo antes de lo que lo
+ * haría ejecutándose sola.
+ *
+ * Con varios hilos, las filas frontera de una franja las escriben dos hilos a
+ * la vez (el dueño desde la fila contigua, sin cerrojo, y el vecino desde su
+ * fila frontera, con él). En las variantes de tipo byte cada celda es su propio
+ * byte, pero aquí escribir un carril es leer y reescribir la palabra entera, y
+ * dos escrituras simultáneas deshacerían la de otra réplica. Por eso, con más de
+ * un hilo, cada carril se escribe con compareAndSet sobre la palabra.
+ */
+public class ReplicateLaneAutomaton {
+    public static final int MAX_LANES = 8;
+    private static final long RESERVED = 0xFF;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final ScenarioSettings settings;
+    private final int lanes;
+    private final int numThreads;
+    private final int pmax;
+    private final float chance_spontaneous_death;
+    private final int chance_proliferation;
+    private final int chance_migration;
+    private final int chance_STC_creation;
+
+    private long[][] grid;
+    private int size;
+    private int generation;
+    private final SplittableRandom[][] rng;
+    private final CyclicBarrier barrier;
+    private final ReentrantLock lck = new ReentrantLock();
+
+    /**
+     * Constructor de la clase ReplicateLaneAutomaton.
+     * @param settings Parámetros del escenario.
+     * @param lanes Número de réplicas (1 a 8).
+     * @param numThreads Número de hilos que recorren la retícula.
+     * @param size Tamaño inicial de la retícula.
+     * @param seed Semilla a partir de la que se derivan los generadores de cada carril.
+     */
+    public ReplicateLaneAutomaton(ScenarioSettings settings, int lanes, int numThreads, int size, long seed) {
+        if (lanes < 1 || lanes > MAX_LANES)
+            throw new IllegalArgumentException("El numero de carriles debe estar entre 1 y " + MAX_LANES);
+        if (settings.cell_proliferation_potential_max + 1 >= RESERVED)
+            throw new IllegalArgumentException("Pmax no cabe en un carril de 8 bits");
+        this.settings = settings;
+        this.lanes = lanes;
+        this.numThreads = numThreads;
+        this.size = size;
+        this.pmax = settings.cell_proliferation_potential_max;
+        this.chance_spontaneous_death = settings.chance_spontaneous_death;
+        this.chance_proliferation = settings.chance_proliferation;
+        this.chance_migration = settings.chance_migration;
+        this.chance_STC_creation = settings.chance_STC_creation;
+
+        // Un flujo aleatorio independiente por hilo y carril.
+        SplittableRandom root = new SplittableRandom(seed);
+        rng = new SplittableRandom[numThreads][lanes];
+        for (int t = 0; t < numThreads; t++)
+            for (int l = 0; l < lanes; l++)
+                rng[t][l] = root.split();
+
+        barrier = new CyclicBarrier(numThreads, this::endOfGeneration);
+        initializeGrid();
+    }
+
+    /**
+     * Coloca la célula inicial en el centro de la retícula en todos los carriles.
+     */
+    private void initializeGrid() {
+        grid = new long[size][size];
+        long starter = settings.starter_cell_is_STC ? pmax + 1 : pmax;
+        long word = 0;
+        for (int l = 0; l < lanes; l++)
+            word |= starter << (8 * l);
+        grid[size / 2][size / 2] = word;
+        generation = 0;
+    }
+
+    /**
+     * Devuelve el valor de un carril de una palabra.
+     */
+    private static int lane(long word, int l) {
+        return (int) ((word >>> (8 * l)) & 0xFF);
+    }
+
+    /**
+     * Escribe el valor de un carril de la celda (i, j).
+     */
+    private void set(int i, int j, int l, long value) {
+        long mask = 0xFFL << (8 * l);
+        long bits = value << (8 * l);
+        long[] row = grid[i];
+        if (numThreads == 1) {
+            row[j] = (row[j] & ~mask) | bits;
+            return;
+        }
+        // Reintenta si otro hilo ha cambiado otro carril de la palabra entre la lectura y la escritura
+        long word;
+        do {
+            word = (long) WORDS.getVolatile(row, j);
+        } while (!WORDS.compareAndSet(row, j, word, (word & ~mask) | bits));
+    }
+
+    /**
+     * Evalúa el siguiente estado de la célula (i, j) en el carril l. Es la misma
+     * secuencia de reglas y de números aleatorios que task.nextState.
+     *
+     * @param i La fila de la célula en la cuadrícula.
+     * @param j La columna de la célula en la cuadrícula.
+     * @param l El carril (réplica) a evaluar.
+     * @param r El generador aleatorio del carril.
+     */
+    private void nextState(int i, int j, int l, SplittableRandom r) {
+        int cell = lane(grid[i][j], l);
+        if (cell == 0 || cell == RESERVED) {
+            return;
+        }
+        // Check chance_spontaneous_death
+        if (cell <= pmax && r.nextInt(100) < chance_spontaneous_death) {
+            set(i, j, l, 0);
+            return;
+        }
+        // Check free_space (misma búsqueda que look_free_space)
+        int fi = -1;
+        int fj = -1;
+        for (int d = r.nextInt(1000) % 4; d >= 0; d--) {
+            int ni = i, nj = j;
+            switch (d) {
+                case 0: ni = i - 1; break;
+                case 1: ni = i + 1; break;
+                case 2: nj = j - 1; break;
+                default: nj = j + 1; break;
+            }
+            if (ni >= 0 && ni < size && nj >= 0 && nj < size && (ni != 0 || nj != 0)
+                    && lane(grid[ni][nj], l) == 0) {
+                fi = ni;
+                fj = nj;
+                break;
+            }
+        }
+        if (fi < 0) {
+            return;
+        }
+        set(fi, fj, l, RESERVED);
+        if (r.nextInt(100) < chance_proliferation) {
+            if (cell > pmax) {
+                // Create STC_Daugther o RTC_Daugther
+                set(fi, fj, l, r.nextInt(100) < chance_STC_creation ? pmax + 1 : pmax);
+            } else {
+                // Adjust proliferation_potential: si llega a 0 la célula muere
+                // y el espacio reservado se libera.
+                cell--;
+                set(i, j, l, cell);
+                set(fi, fj, l, cell);
+            }
+        } else if (r.nextInt(100) < chance_migration) {
+            // Update cell_position
+            set(fi, fj, l, cell);
+            set(i, j, l, 0);
+        } else {
+            set(fi, fj, l, 0);
+        }
+    }
+
+    /**
+     * Avanza todos los carriles de la celda (i, j).
+     */
+    private void nextWord(int i, int j, SplittableRandom[] r) {
+        if (grid[i][j] == 0)
+            return;
+        for (int l = 0; l < lanes; l++)
+            nextState(i, j, l, r[l]);
+    }
+
+    /**
+     * Acción de la barrera: comprueba el borde, amplía el dominio si es necesario
+     * y avanza el contador de generaciones. La ejecuta un único hilo.
+     */
+    private void endOfGeneration() {
+        if (check_reach_border())
+            extend_domain();
+        generation++;
+    }
+
+    /**
+     * Verifica si alguna réplica tiene una célula en el borde de la cuadrícula.
+     * @return true si se debe ampliar el dominio.
+     */
+    private boolean check_reach_border() {
+        for (int i = 0; i < size; i++)
+            if (grid[0][i] != 0 || grid[size - 1][i] != 0 || grid[i][0] != 0 || grid[i][size - 1] != 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Amplía el dominio en la misma proporción que task.extend_domain.
+     */
+    private void extend_domain() {
+        long[][] newGrid = new long[size + size / 2][size + size / 2];
+        for (int i = 0; i < size; i++)
+            System.arraycopy(grid[i], 0, newGrid[i + size / 4], size / 4, size);
+        size = size + size / 2;
+        grid = newGrid;
+    }
+
+    /**
+     * Bucle de un hilo: recorre su franja de filas en cada generación y bloquea
+     * las filas frontera igual que las variantes bloqueo_lock.
+     */
+    private void worker(int th_indx) {
+        SplittableRandom[] r = rng[th_indx];
+        for (int gen = 0; gen < settings.generations; gen++) {
+            int startRow = th_indx * size / numThreads;
+            int endRow = (th_indx + 1) * size / numThreads;
+            for (int i = endRow - 1; i >= startRow; i--) {
+                boolean boundary = (i == startRow || i == endRow - 1) && (i != 0 && i != size - 1);
+                for (int j = size - 1; j > 0; j--) {
+                    if (boundary && numThreads > 1) {
+                        lck.lock();
+                        try {
+                            nextWord(i, j, r);
+                        } finally {
+                            lck.unlock();
+                        }
+                    } else
+                        nextWord(i, j, r);
+                }
+            }
+            try {
+                barrier.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ejecuta todas las generaciones del escenario.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public void run() throws InterruptedException {
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int th_indx = t;
+            threads[t] = new Thread(() -> worker(th_indx));
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+    }
+
+    /**
+     * Cuenta las células de un carril.
+     * @param l El carril.
+     * @return Un array {RTC, STC} con el número de células de cada tipo.
+     */
+    public int[] count(int l) {
+        int[] counts = new int[2];
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < size; j++) {
+                int cell = lane(grid[i][j], l);
+                if (cell > pmax && cell != RESERVED)
+                    counts[1]++;
+                else if (cell > 0 && cell != RESERVED)
+                    counts[0]++;
+            }
+        return counts;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Ejecuta K réplicas de un escenario en carriles.
+     * Uso: java ReplicateLaneAutomaton [escenario 1-21] [carriles 1-8] [hilos] [semilla]
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el escenario.
+     * @throws InterruptedException Si se interrumpe la ejecución de los hilos.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int lanes = args.length > 1 ? Integer.parseInt(args[1]) : MAX_LANES;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        System.out.println(settings);
+        ReplicateLaneAutomaton automaton = new ReplicateLaneAutomaton(settings, lanes, threads, 400, seed);
+
+        long start = System.currentTimeMillis();
+        automaton.run();
+        long time = System.currentTimeMillis() - start;
+
+        System.out.println("Tiempo de ejecucion de " + lanes + " replicas en carriles con " + threads + " hilos: "
+                + time + " ms (" + (double) time / lanes + " ms por replica)");
+        System.out.println("Tamano final de la reticula: " + automaton.getSize());
+        for (int l = 0; l < lanes; l++) {
+            int[] counts = automaton.count(l);
+            System.out.println("Replica " + l + ": RTC=" + counts[0] + " STC=" + counts[1]);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+
+/**
+ * @file RuleKernel.java
+ * @author Yeray Doello Gonzalez
+ * @brief Interfaz de los kernels que aplican las reglas del autómata a una célula
+ */
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Kernel que evalúa el siguiente estado de una célula. Las implementaciones se
+ * generan en tiempo de ejecución por {@link RuleKernels} para un tipo de celda
+ * (byte, char o int) y un conjunto de parámetros de escenario concretos.
+ */
+public interface RuleKernel {
+    /**
+     * Evalúa el siguiente estado de la célula (i, j) aplicando las reglas de muerte
+     * espontánea, proliferación, creación de células STC y migración.
+     *
+     * @param currentGrid La cuadrícula actual (byte[][], char[][] o int[][] según el kernel).
+     * @param nextGrid La cuadrícula en la que se escribe el siguiente estado.
+     * @param i La fila de la célula en la cuadrícula.
+     * @param j La columna de la célula en la cuadrícula.
+     * @param rng El generador aleatorio del hilo que evalúa la célula.
+     */
+    void nextState(Object currentGrid, Object nextGrid, int i, int j, RandomGenerator rng);
+
+    /**
+     * Devuelve una descripción del kernel para el registro de la ejecución.
+     * @return La descripción del kernel.
+     */
+    String describe();
+}
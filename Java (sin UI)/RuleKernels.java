@@ -0,0 +1,271 @@
+
+/**
+ * @file RuleKernels.java
+ * @author Yeray Doello Gonzalez
+ * @brief Generación en tiempo de ejecución de kernels de reglas especializados por escenario
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Genera el código fuente de un {@link RuleKernel} para un tipo de celda y un
+ * escenario, lo compila en memoria y lo define como clase oculta (hidden class).
+ *
+ * En modo SPECIALIZED todos los parámetros del escenario se escriben como
+ * literales, por lo que javac y el JIT los tratan como constantes: las
+ * comparaciones con probabilidad 0 o 100 desaparecen junto con su número
+ * aleatorio. En modo GENERIC el mismo código lee los parámetros de campos no
+ * finales, igual que task.nextState, y sirve de referencia en las medidas.
+ *
+ * Los kernels se guardan en caché por tipo, modo y parámetros, de modo que
+ * todas las simulaciones de un mismo escenario comparten el código compilado.
+ */
+public final class RuleKernels {
+    public enum Mode {
+        GENERIC, SPECIALIZED
+    }
+
+    private static final ConcurrentHashMap<String, RuleKernel> cache = new ConcurrentHashMap<>();
+
+    private RuleKernels() {
+    }
+
+    /**
+     * Devuelve el kernel indicado por la propiedad del sistema "kernel"
+     * (specialized, generic o legacy) y lo anota en el registro de la ejecución.
+     * Si el kernel no se puede generar (por ejemplo, al ejecutar sobre un JRE sin
+     * compilador) se devuelve null y se usa task.nextState.
+     *
+     * @param cellType El tipo de celda de la cuadrícula: "byte", "char" o "int".
+     * @param settings Los parámetros del escenario.
+     * @return El kernel, o null si se debe usar task.nextState.
+     */
+    public static RuleKernel forScenario(String cellType, ScenarioSettings settings) {
+        String property = System.getProperty("kernel", "specialized");
+        RuleKernel kernel = null;
+        if (!property.equals("legacy")) {
+            Mode mode = property.equals("generic") ? Mode.GENERIC : Mode.SPECIALIZED;
+            try {
+                long start = System.currentTimeMillis();
+                kernel = create(cellType, settings, mode);
+                System.out.println("Kernel de reglas: " + kernel.describe() + " (generado en "
+                        + (System.currentTimeMillis() - start) + " ms)");
+            } catch (RuntimeException e) {
+                System.out.println("No se ha podido generar el kernel de reglas: " + e.getMessage());
+            }
+        }
+        if (kernel == null)
+            System.out.println("Kernel de reglas: task.nextState");
+        return kernel;
+    }
+
+    /**
+     * Devuelve el kernel de un tipo de celda y un escenario, generándolo si no está en caché.
+     *
+     * @param cellType El tipo de celda de la cuadrícula: "byte", "char" o "int".
+     * @param settings Los parámetros del escenario.
+     * @param mode GENERIC para leer los parámetros de campos, SPECIALIZED para fijarlos como constantes.
+     * @return El kernel.
+     * @throws IllegalStateException Si no hay compilador disponible o la clase no se puede definir.
+     */
+    public static RuleKernel create(String cellType, ScenarioSettings settings, Mode mode) {
+        if (!cellType.equals("byte") && !cellType.equals("char") && !cellType.equals("int"))
+            throw new IllegalArgumentException("Tipo de celda no soportado: " + cellType);
+        String key = cellType + "/" + mode + "/" + settings.cell_proliferation_potential_max + "/"
+                + settings.chance_spontaneous_death + "/" + settings.chance_proliferation + "/"
+                + settings.chance_migration + "/" + settings.chance_STC_creation;
+        return cache.computeIfAbsent(key, k -> define(cellType, settings, mode));
+    }
+
+    /**
+     * Compila y define la clase oculta del kernel y crea una instancia.
+     */
+    private static RuleKernel define(String cellType, ScenarioSettings settings, Mode mode) {
+        String className = (mode == Mode.SPECIALIZED ? "SpecializedRuleKernel_" : "GenericRuleKernel_") + cellType;
+        byte[] bytes = compile(className, source(className, cellType, settings, mode));
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (RuleKernel) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se puede definir " + className, e);
+        }
+    }
+
+    /**
+     * Condición de una probabilidad en porcentaje. En modo SPECIALIZED las
+     * probabilidades 0 y 100 se resuelven sin consumir un número aleatorio.
+     */
+    private static String chance(Mode mode, String field, float value) {
+        if (mode == Mode.GENERIC)
+            return "(rng.nextInt(100) < " + field + ")";
+        if (value <= 0)
+            return "false";
+        if (value > 99)
+            return "true";
+        return "(rng.nextInt(100) < " + value + "f)";
+    }
+
+    /**
+     * Genera el código fuente del kernel. Las reglas y su orden son los de
+     * task.nextState y task.look_free_space, sin reservar memoria por célula.
+     *
+     * @param className Nombre de la clase generada.
+     * @param cellType El tipo de celda de la cuadrícula.
+     * @param settings Los parámetros del escenario.
+     * @param mode El modo del kernel.
+     * @return El código fuente.
+     */
+    static String source(String className, String cellType, ScenarioSettings settings, Mode mode) {
+        boolean specialized = mode == Mode.SPECIALIZED;
+        String pmax = specialized ? Integer.toString(settings.cell_proliferation_potential_max)
+                : "cell_proliferation_potential_max";
+        String fields = specialized ? ""
+                : "    private int cell_proliferation_potential_max = " + settings.cell_proliferation_potential_max + ";\n"
+                        + "    private float chance_spontaneous_death = " + settings.chance_spontaneous_death + "f;\n"
+                        + "    private int chance_proliferation = " + settings.chance_proliferation + ";\n"
+                        + "    private int chance_STC_creation = " + settings.chance_STC_creation + ";\n"
+                        + "    private int chance_migration = " + settings.chance_migration + ";\n";
+        String description = (specialized ? "clase oculta especializada " : "clase oculta generica ") + cellType
+                + " (Pmax=" + settings.cell_proliferation_potential_max + ", muerte="
+                + settings.chance_spontaneous_death + "%, proliferacion=" + settings.chance_proliferation
+                + "%, migracion=" + settings.chance_migration + "%, STC=" + settings.chance_STC_creation + "%)";
+
+        return """
+                public final class #CLASS# implements RuleKernel {
+                #FIELDS#
+                    public String describe() {
+                        return "#DESCRIPTION#";
+                    }
+
+                    // La comprobación de celda vacía queda en un método pequeño para que el
+                    // JIT la pueda insertar en el bucle de barrido.
+                    public void nextState(Object current, Object next, int i, int j, java.util.random.RandomGenerator rng) {
+                        #T#[][] currentGrid = (#T#[][]) current;
+                        if (currentGrid[i][j] <= 0)
+                            return;
+                        evolve(currentGrid, (#T#[][]) next, i, j, rng);
+                    }
+
+                    private void evolve(#T#[][] currentGrid, #T#[][] nextGrid, int i, int j, java.util.random.RandomGenerator rng) {
+                        // Check chance_spontaneous_death
+                        if (currentGrid[i][j] != 0 && currentGrid[i][j] <= #PMAX# && #DEATH#) {
+                            nextGrid[i][j] = 0;
+                            return;
+                        }
+                        // Check free_space
+                        int size = currentGrid.length;
+                        int fi = 0;
+                        int fj = 0;
+                        int random_number = rng.nextInt(1000) % 4;
+                        for (int k = 0; k < 4; k++) {
+                            switch (random_number) {
+                                case 0:
+                                    if (i - 1 >= 0 && currentGrid[i - 1][j] == 0) { fi = i - 1; fj = j; }
+                                    break;
+                                case 1:
+                                    if (i + 1 < size && currentGrid[i + 1][j] == 0) { fi = i + 1; fj = j; }
+                                    break;
+                                case 2:
+                                    if (j - 1 >= 0 && currentGrid[i][j - 1] == 0) { fi = i; fj = j - 1; }
+                                    break;
+                                case 3:
+                                    if (j + 1 < size && currentGrid[i][j + 1] == 0) { fi = i; fj = j + 1; }
+                                    break;
+                            }
+                            if (fi != 0 || fj != 0)
+                                break;
+                            random_number = (random_number - 1) % 4;
+                        }
+                        if (fi == 0 && fj == 0)
+                            return;
+                        currentGrid[fi][fj] = (#T#) (-1);
+                        // Check proliferation_chance
+                        if (#PROLIFERATION#) {
+                            if (currentGrid[i][j] > #PMAX#) {
+                                // Create STC_Daugther o RTC_Daugther
+                                nextGrid[fi][fj] = (#T#) (#STC# ? #PMAX# + 1 : #PMAX#);
+                            } else {
+                                // Adjust proliferation_potential
+                                if (currentGrid[i][j] < #PMAX# + 1)
+                                    nextGrid[i][j]--;
+                                if (nextGrid[i][j] > 0) {
+                                    nextGrid[fi][fj] = nextGrid[i][j];
+                                } else {
+                                    currentGrid[fi][fj] = 0;
+                                    nextGrid[i][j] = 0;
+                                }
+                            }
+                        } else if (#MIGRATION#) {
+                            // Update cell_position
+                            nextGrid[fi][fj] = currentGrid[i][j];
+                            nextGrid[i][j] = 0;
+                        } else {
+                            currentGrid[fi][fj] = 0;
+                        }
+                    }
+                }
+                """
+                .replace("#CLASS#", className)
+                .replace("#FIELDS#", fields)
+                .replace("#DESCRIPTION#", description)
+                .replace("#T#", cellType)
+                .replace("#PMAX#", pmax)
+                .replace("#DEATH#", chance(mode, "chance_spontaneous_death", settings.chance_spontaneous_death))
+                .replace("#PROLIFERATION#", chance(mode, "chance_proliferation", settings.chance_proliferation))
+                .replace("#STC#", chance(mode, "chance_STC_creation", settings.chance_STC_creation))
+                .replace("#MIGRATION#", chance(mode, "chance_migration", settings.chance_migration));
+    }
+
+    /**
+     * Compila en memoria una clase sin paquete y devuelve su bytecode.
+     */
+    private static byte[] compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("no hay compilador de Java disponible (se necesita un JDK)");
+
+        ByteArrayOutputStream bytecode = new ByteArrayOutputStream();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytecode;
+                    }
+                };
+            }
+        };
+        JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        StringWriter errors = new StringWriter();
+        boolean ok = compiler.getTask(errors, fileManager, null,
+                Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none"), null,
+                Arrays.asList(unit)).call();
+        if (!ok)
+            throw new IllegalStateException("error al compilar " + className + ":\n" + errors);
+        return bytecode.toByteArray();
+    }
+}
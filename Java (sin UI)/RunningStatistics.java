@@ -0,0 +1,147 @@
+
+/**
+ * @file RunningStatistics.java
+ * @author Yeray Doello Gonzalez
+ * @brief Media, varianza, mínimo y máximo calculados en línea
+ */
+
+/**
+ * Acumula la media y la varianza de una serie de valores con el algoritmo de
+ * Welford, sin guardar los valores. Es numéricamente estable aunque la media sea
+ * grande frente a la desviación.
+ */
+public class RunningStatistics {
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Añade un valor.
+     * @param x El valor.
+     */
+    public void add(double x) {
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+        if (x < min)
+            min = x;
+        if (x > max)
+            max = x;
+    }
+
+    /**
+     * Combina en esta instancia los valores acumulados en otra (Chan et al.).
+     * @param other Las estadísticas a combinar.
+     */
+    public void merge(RunningStatistics other) {
+        if (other.count == 0)
+            return;
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * Devuelve la varianza muestral (dividida entre n - 1).
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : Double.NaN;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Devuelve el error estándar de la media.
+     */
+    public double getStandardError() {
+        return Math.sqrt(getVariance() / count);
+    }
+
+    /**
+     * Devuelve la semiamplitud del intervalo de confianza de la media, con la
+     * distribución t de Student de n - 1 grados de libertad.
+     * @param confidence El nivel de confianza (por ejemplo 0.95).
+     * @return La semiamplitud, o infinito con menos de dos valores.
+     */
+    public double getConfidenceHalfWidth(double confidence) {
+        if (count < 2)
+            return Double.POSITIVE_INFINITY;
+        return studentQuantile(1 - (1 - confidence) / 2, count - 1) * getStandardError();
+    }
+
+    /**
+     * Cuantil de la distribución t de Student. Es exacto con uno y dos grados de
+     * libertad y usa el desarrollo de Cornish-Fisher (Abramowitz y Stegun 26.7.5)
+     * a partir de tres.
+     * @param p La probabilidad acumulada.
+     * @param df Los grados de libertad.
+     * @return El cuantil.
+     */
+    public static double studentQuantile(double p, long df) {
+        if (df == 1)
+            return Math.tan(Math.PI * (p - 0.5));
+        if (df == 2)
+            return (2 * p - 1) / Math.sqrt(2 * p * (1 - p));
+        double z = normalQuantile(p);
+        double z2 = z * z;
+        double g1 = (z2 + 1) * z / 4;
+        double g2 = ((5 * z2 + 16) * z2 + 3) * z / 96;
+        double g3 = (((3 * z2 + 19) * z2 + 17) * z2 - 15) * z / 384;
+        double g4 = ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) * z / 92160;
+        double v = df;
+        return z + g1 / v + g2 / (v * v) + g3 / (v * v * v) + g4 / (v * v * v * v);
+    }
+
+    /**
+     * Cuantil de la distribución normal estándar (aproximación racional de Acklam,
+     * error relativo menor que 1.2e-9).
+     * @param p La probabilidad acumulada, entre 0 y 1.
+     * @return El cuantil.
+     */
+    public static double normalQuantile(double p) {
+        final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+        final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01 };
+        final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+        final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00 };
+        double low = 0.02425;
+        if (p < low || p > 1 - low) {
+            double q = Math.sqrt(-2 * Math.log(p < low ? p : 1 - p));
+            double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+            return p < low ? x : -x;
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+}
@@ -0,0 +1,162 @@
+
+/**
+ * @file ScalingBenchmark.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escalado fuerte y débil de las variantes del autómata
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mide cómo escalan las variantes con el número de hilos usando la prueba
+ * generation de {@link AutomatonBenchmark} (JVM calentadas, varias bifurcaciones
+ * y repeticiones por punto):
+ *
+ *   fuerte  la retícula tiene siempre el mismo tamaño y se reparte entre 1, 2, 4...
+ *           hilos hasta el número de núcleos. speedup = T(1) / T(p).
+ *   debil   el área de la retícula crece con el número de hilos (lado = tamaño base
+ *           * raíz de p), de modo que cada hilo tiene siempre la misma cantidad de
+ *           trabajo. speedup escalado = p * T(1) / T(p).
+ *
+ * Para cada punto se calcula la eficiencia paralela (speedup / p) y la fracción
+ * serie de Karp-Flatt, e = (1 / speedup - 1 / p) / (1 - 1 / p), que si crece con p
+ * indica sobrecoste de sincronización más que una parte serie fija. Los hilos de
+ * cada bifurcación se crean una sola vez y cada generación se cronometra entre
+ * barreras, de modo que el coste de crear y unir hilos, que crece con p, no se
+ * confunde con la parte serie.
+ *
+ * Uso: java ScalingBenchmark [opciones]
+ *   --mode fuerte|debil|ambos  tipo de escalado (por defecto ambos)
+ *   --types byte,char,int      tipos de celda (por defecto byte)
+ *   --sync synchronized,lock   modos de sincronización (por defecto lock)
+ *   --preset N                 escenario del menú (por defecto 1)
+ *   --size S                   tamaño (fuerte) o tamaño base con un hilo (débil), por defecto 400
+ *   --max-threads P            máximo de hilos (por defecto el número de núcleos)
+ *   --forks N --warmup N --iterations N --iteration-ms N --generations-per-op N
+ *                              como en AutomatonBenchmark; con más de un hilo solo se
+ *                              admite una generación por operación
+ *   --output f.csv             fichero de resultados (por defecto salida estándar)
+ */
+public class ScalingBenchmark {
+    public static final String CSV_HEADER = "modo,tipo,sincronizacion,escenario,hilos,tamano,media_ns_generacion,"
+            + "error_999,speedup,error_speedup,eficiencia,karp_flatt";
+
+    /**
+     * Devuelve los números de hilos a medir: potencias de dos hasta el máximo y el propio máximo.
+     * @param maxThreads El número máximo de hilos.
+     * @return Los números de hilos en orden creciente.
+     */
+    static List<Integer> threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int p = 1; p <= maxThreads; p *= 2)
+            counts.add(p);
+        if (counts.get(counts.size() - 1) != maxThreads)
+            counts.add(maxThreads);
+        return counts;
+    }
+
+    /**
+     * Calcula la fracción serie de Karp-Flatt.
+     * @param speedup El speedup medido.
+     * @param threads El número de hilos.
+     * @return La fracción serie, o NaN con un hilo.
+     */
+    static double karpFlatt(double speedup, int threads) {
+        if (threads <= 1)
+            return Double.NaN;
+        return (1 / speedup - 1.0 / threads) / (1 - 1.0 / threads);
+    }
+
+    /**
+     * Mide una serie de escalado y escribe una línea CSV por número de hilos.
+     */
+    private static void series(AutomatonBenchmark bench, PrintWriter out, boolean strong, String type, String sync,
+            int preset, int size, List<Integer> threads) throws IOException, InterruptedException {
+        AutomatonBenchmark.Result base = null;
+        for (int p : threads) {
+            int n = strong ? size : (int) Math.round(size * Math.sqrt(p));
+            System.err.println((strong ? "Escalado fuerte " : "Escalado debil ") + type + "/" + sync + ": " + p
+                    + " hilos, tamano " + n);
+            AutomatonBenchmark.Result r = bench.run(new AutomatonBenchmark.Params("generation", type, sync, p, n, preset));
+            if (base == null)
+                base = r;
+            double t1 = base.score.getMean();
+            double tp = r.score.getMean();
+            double speedup = strong ? t1 / tp : p * t1 / tp;
+            // Propagación de los errores relativos de las dos medias
+            double relative = Math.hypot(base.getError() / t1, r.getError() / tp);
+            out.println((strong ? "fuerte" : "debil") + "," + type + "," + sync + "," + preset + "," + p + "," + n + ","
+                    + tp + "," + r.getError() + "," + speedup + "," + speedup * relative + "," + speedup / p + ","
+                    + karpFlatt(speedup, p));
+            out.flush();
+        }
+    }
+
+    /**
+     * Lee las opciones y ejecuta las series de escalado.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si falla la compilación de una variante o la escritura de resultados.
+     * @throws InterruptedException Si se interrumpe la espera de una JVM hija.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String mode = "ambos";
+        String[] types = { "byte" };
+        String[] syncs = { "lock" };
+        int preset = 1;
+        int size = 400;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int generationsPerOp = 1;
+        String output = null;
+        AutomatonBenchmark bench = new AutomatonBenchmark();
+        for (int k = 0; k < args.length; k++) {
+            String value = k + 1 < args.length ? args[k + 1] : "";
+            switch (args[k]) {
+                case "--mode": mode = value; k++; break;
+                case "--types": types = value.split(","); k++; break;
+                case "--sync": syncs = value.split(","); k++; break;
+                case "--preset": preset = Integer.parseInt(value); k++; break;
+                case "--size": size = Integer.parseInt(value); k++; break;
+                case "--max-threads": maxThreads = Integer.parseInt(value); k++; break;
+                case "--forks": bench.setForks(Integer.parseInt(value)); k++; break;
+                case "--warmup": bench.setWarmupIterations(Integer.parseInt(value)); k++; break;
+                case "--iterations": bench.setMeasurementIterations(Integer.parseInt(value)); k++; break;
+                case "--iteration-ms": bench.setIterationMillis(Integer.parseInt(value)); k++; break;
+                case "--generations-per-op": generationsPerOp = Integer.parseInt(value); k++; break;
+                case "--output": output = value; k++; break;
+                default:
+                    System.err.println("Opcion desconocida: " + args[k]);
+                    System.exit(1);
+            }
+        }
+        if (!mode.equals("fuerte") && !mode.equals("debil") && !mode.equals("ambos")) {
+            System.err.println("Modo desconocido: " + mode);
+            System.exit(1);
+        }
+
+        List<Integer> threads = threadCounts(maxThreads);
+        try {
+            bench.setGenerationsPerOp(generationsPerOp);
+            AutomatonBenchmark.checkGenerationsPerOp(generationsPerOp, maxThreads);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        PrintWriter out = output != null ? new PrintWriter(new FileWriter(output)) : new PrintWriter(System.out);
+        out.println(CSV_HEADER);
+        for (String type : types) {
+            for (String sync : syncs) {
+                if (!mode.equals("debil"))
+                    series(bench, out, true, type, sync, preset, size, threads);
+                if (!mode.equals("fuerte"))
+                    series(bench, out, false, type, sync, preset, size, threads);
+            }
+        }
+        if (output != null)
+            out.close();
+        bench.cleanup();
+    }
+}
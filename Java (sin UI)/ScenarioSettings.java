@@ -0,0 +1,153 @@
+
+/**
+ * @file ScenarioSettings.java
+ * @author Yeray Doello Gonzalez
+ * @brief Parámetros de un escenario de simulación leídos de un fichero .settings
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Agrupa los parámetros de un escenario tal y como se guardan en los ficheros
+ * de la carpeta presets (una línea por parámetro, en el mismo orden que los
+ * lee el método main de las variantes del autómata).
+ */
+public class ScenarioSettings {
+    /** Ficheros de escenario disponibles, en el orden del menú de selección. */
+    public static final String[] SCENARIOS = { "defaultsettings.settings", "Scenario1Pmax10.settings",
+            "Scenario1Pmax15.settings", "Scenario1Pmax20.settings", "Scenario2Pmax10.settings",
+            "Scenario2Pmax15.settings", "Scenario2Pmax20.settings", "Scenario3Pmax10.settings",
+            "Scenario3Pmax15.settings", "Scenario3Pmax20.settings", "Scenario3Pmax5.settings",
+            "Scenario4Po0.settings", "Scenario4Po1.settings", "Scenario4Po10.settings",
+            "Scenario4Po30.settings", "Scenario5Cw10Ps1.settings", "Scenario5Cw10Ps10.settings",
+            "Scenario5Cw1Ps1.settings", "Scenario5Cw1Ps10.settings", "Scenario5Cw5Ps1.settings",
+            "Scenario5Cw5Ps10.settings" };
+
+    public final String name;
+    public final int generations;
+    public final int cell_proliferation_potential_max;
+    public final float chance_spontaneous_death;
+    public final int chance_proliferation;
+    public final int chance_migration;
+    public final int chance_STC_creation;
+    public final boolean starter_cell_is_STC;
+
+    /**
+     * Constructor de la clase ScenarioSettings.
+     * @param name Nombre del escenario (normalmente el nombre del fichero).
+     * @param generations Número de generaciones a simular.
+     * @param cell_proliferation_potential_max Potencial máximo de proliferación celular.
+     * @param chance_spontaneous_death Probabilidad de muerte espontánea (0 a 100).
+     * @param chance_proliferation Probabilidad de proliferación (0 a 100).
+     * @param chance_migration Probabilidad de migración (0 a 100).
+     * @param chance_STC_creation Probabilidad de creación de célula madre (0 a 100).
+     * @param starter_cell_is_STC Determina si la célula inicial es de tipo STC.
+     */
+    public ScenarioSettings(String name, int generations, int cell_proliferation_potential_max,
+            float chance_spontaneous_death, int chance_proliferation, int chance_migration,
+            int chance_STC_creation, boolean starter_cell_is_STC) {
+        this.name = name;
+        this.generations = generations;
+        this.cell_proliferation_potential_max = cell_proliferation_potential_max;
+        this.chance_spontaneous_death = chance_spontaneous_death;
+        this.chance_proliferation = chance_proliferation;
+        this.chance_migration = chance_migration;
+        this.chance_STC_creation = chance_STC_creation;
+        this.starter_cell_is_STC = starter_cell_is_STC;
+    }
+
+    /**
+     * Lee un escenario de la carpeta presets.
+     * @param file Nombre del fichero dentro de ./presets/.
+     * @return Los parámetros del escenario.
+     * @throws IOException Si el fichero no existe o no se puede leer.
+     */
+    public static ScenarioSettings load(String file) throws IOException {
+        try (BufferedReader readr = new BufferedReader(new FileReader("./presets/" + file))) {
+            int generations = Integer.parseInt(readr.readLine().trim());
+            int cell_proliferation_potential_max = Integer.parseInt(readr.readLine().trim());
+            float chance_spontaneous_death = Float.parseFloat(readr.readLine().trim());
+            int chance_proliferation = Integer.parseInt(readr.readLine().trim());
+            int chance_migration = Integer.parseInt(readr.readLine().trim());
+            int chance_STC_creation = Integer.parseInt(readr.readLine().trim());
+            boolean starter_cell_is_STC = Boolean.parseBoolean(readr.readLine().trim());
+            return new ScenarioSettings(file, generations, cell_proliferation_potential_max,
+                    chance_spontaneous_death, chance_proliferation, chance_migration, chance_STC_creation,
+                    starter_cell_is_STC);
+        }
+    }
+
+    /**
+     * Lee el escenario con el número que aparece en el menú de selección (1-21).
+     * @param scenario Número del escenario.
+     * @return Los parámetros del escenario.
+     * @throws IOException Si el fichero no existe o no se puede leer.
+     */
+    public static ScenarioSettings load(int scenario) throws IOException {
+        return load(SCENARIOS[scenario - 1]);
+    }
+
+    /**
+     * Devuelve una copia del escenario con otro número de generaciones.
+     * @param generations Número de generaciones a simular.
+     * @return El nuevo escenario.
+     */
+    public ScenarioSettings withGenerations(int generations) {
+        return new ScenarioSettings(name, generations, cell_proliferation_potential_max, chance_spontaneous_death,
+                chance_proliferation, chance_migration, chance_STC_creation, starter_cell_is_STC);
+    }
+
+    /**
+     * Devuelve una copia del escenario con otro valor de uno de sus parámetros,
+     * para las ramas de un estudio. El nombre indica el cambio (nombre_parametro=valor).
+     * @param parameter El nombre del campo (chance_migration, chance_STC_creation...).
+     * @param value El nuevo valor.
+     * @return El nuevo escenario.
+     */
+    public ScenarioSettings withParameter(String parameter, String value) {
+        int generations = this.generations;
+        int pmax = cell_proliferation_potential_max;
+        float death = chance_spontaneous_death;
+        int proliferation = chance_proliferation;
+        int migration = chance_migration;
+        int stc = chance_STC_creation;
+        boolean starter = starter_cell_is_STC;
+        switch (parameter) {
+            case "generations":
+                generations = Integer.parseInt(value);
+                break;
+            case "cell_proliferation_potential_max":
+                pmax = Integer.parseInt(value);
+                break;
+            case "chance_spontaneous_death":
+                death = Float.parseFloat(value);
+                break;
+            case "chance_proliferation":
+                proliferation = Integer.parseInt(value);
+                break;
+            case "chance_migration":
+                migration = Integer.parseInt(value);
+                break;
+            case "chance_STC_creation":
+                stc = Integer.parseInt(value);
+                break;
+            case "starter_cell_is_STC":
+                starter = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Parametro desconocido: " + parameter);
+        }
+        return new ScenarioSettings(name + "_" + parameter + "=" + value, generations, pmax, death, proliferation,
+                migration, stc, starter);
+    }
+
+    @Override
+    public String toString() {
+        return name + " [generaciones=" + generations + ", Pmax=" + cell_proliferation_potential_max
+                + ", muerte=" + chance_spontaneous_death + "%, proliferacion=" + chance_proliferation
+                + "%, migracion=" + chance_migration + "%, STC=" + chance_STC_creation + "%, inicial STC="
+                + starter_cell_is_STC + "]";
+    }
+}
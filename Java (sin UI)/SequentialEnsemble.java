@@ -0,0 +1,278 @@
+
+/**
+ * @file SequentialEnsemble.java
+ * @author Yeray Doello Gonzalez
+ * @brief Conjunto de réplicas que se detiene cuando converge el intervalo de confianza
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lanza réplicas de un escenario hasta que el intervalo de confianza de la media
+ * de una métrica objetivo es más estrecho que una tolerancia, en lugar de fijar
+ * de antemano el número de ejecuciones. Los escenarios con poca varianza se
+ * resuelven con pocas réplicas y los ruidosos reciben las que necesitan.
+ *
+ * Se mantienen en marcha tantas réplicas como núcleos. Tras cada réplica
+ * terminada se comprueba el criterio; al cumplirse no se lanzan más, pero las
+ * que estaban en marcha se terminan y se suman al resultado. Las estadísticas
+ * por generación de {@link EnsembleRunner} se siguen acumulando para todas.
+ *
+ * Métricas objetivo (al final de la réplica):
+ *   poblacion, rtc, stc, radio  estado final de la retícula
+ *   frontera                    generación en la que una célula llega al borde por
+ *                               primera vez (si no llega, cuenta como el número de
+ *                               generaciones y se avisa de las réplicas censuradas)
+ *   tiempo                      tiempo de ejecución en ms
+ *
+ * Uso: java SequentialEnsemble [opciones]
+ *   --scenario N        escenario del menú (por defecto 1)
+ *   --metric M          métrica objetivo (por defecto poblacion)
+ *   --tolerance T       semiamplitud máxima del intervalo (por defecto 0.05)
+ *   --absolute          la tolerancia está en unidades de la métrica y no es
+ *                       relativa a la media
+ *   --confidence C      nivel de confianza (por defecto 0.95)
+ *   --min N             réplicas mínimas antes de comprobar (por defecto 5)
+ *   --max N             réplicas máximas (por defecto 1000)
+ *   --generations G     sustituye el número de generaciones del escenario
+ *   --every K           muestreo de las estadísticas por generación (por defecto 1)
+ *   --threads T         hilos por réplica (por defecto 1)
+ *   --size S            tamaño inicial de la retícula (por defecto 400)
+ *   --seed S            semilla de la primera réplica (por defecto aleatoria)
+ *   --output f.csv      estadísticas por generación (por defecto no se escriben)
+ */
+public class SequentialEnsemble {
+    public static final String[] TARGETS = { "poblacion", "rtc", "stc", "radio", "frontera", "tiempo" };
+
+    /**
+     * Una réplica y lo que se mide de ella.
+     */
+    static class Replicate {
+        final Simulation simulation;
+        int borderGeneration = -1;
+        long time;
+
+        Replicate(Simulation simulation) {
+            this.simulation = simulation;
+            int initialSize = simulation.getSize();
+            simulation.addListener((s, generation) -> {
+                if (borderGeneration < 0 && s.getSize() != initialSize)
+                    borderGeneration = generation;
+            });
+        }
+    }
+
+    private final EnsembleRunner ensemble;
+    private final String target;
+    private final RunningStatistics statistics = new RunningStatistics();
+    private double tolerance = 0.05;
+    private boolean relative = true;
+    private double confidence = 0.95;
+    private int minReplicates = 5;
+    private int maxReplicates = 1000;
+    private int censored;
+
+    /**
+     * Constructor de la clase SequentialEnsemble.
+     * @param ensemble El conjunto que crea las réplicas y acumula las estadísticas por generación.
+     * @param target La métrica objetivo (una de {@link #TARGETS}).
+     */
+    public SequentialEnsemble(EnsembleRunner ensemble, String target) {
+        boolean known = false;
+        for (String t : TARGETS)
+            known |= t.equals(target);
+        if (!known)
+            throw new IllegalArgumentException("Metrica objetivo desconocida: " + target);
+        this.ensemble = ensemble;
+        this.target = target;
+    }
+
+    /**
+     * Fija la tolerancia del intervalo de confianza.
+     * @param tolerance La semiamplitud máxima.
+     * @param relative true si es una fracción de la media, false si está en unidades de la métrica.
+     */
+    public void setTolerance(double tolerance, boolean relative) {
+        this.tolerance = tolerance;
+        this.relative = relative;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    public void setReplicateLimits(int minReplicates, int maxReplicates) {
+        this.minReplicates = Math.max(2, minReplicates);
+        this.maxReplicates = Math.max(this.minReplicates, maxReplicates);
+    }
+
+    public RunningStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int getCensored() {
+        return censored;
+    }
+
+    /**
+     * Indica si el intervalo de confianza de la métrica objetivo ya es suficientemente estrecho.
+     */
+    public boolean converged() {
+        if (statistics.getCount() < minReplicates)
+            return false;
+        double limit = relative ? tolerance * Math.abs(statistics.getMean()) : tolerance;
+        return statistics.getConfidenceHalfWidth(confidence) <= limit;
+    }
+
+    /**
+     * Valor de la métrica objetivo de una réplica terminada.
+     */
+    private double value(Replicate replicate) {
+        switch (target) {
+            case "frontera":
+                if (replicate.borderGeneration < 0) {
+                    censored++;
+                    return replicate.simulation.getGeneration();
+                }
+                return replicate.borderGeneration;
+            case "tiempo":
+                return replicate.time;
+            default:
+                double[] measures = EnsembleRunner.measure(replicate.simulation);
+                switch (target) {
+                    case "rtc":
+                        return measures[0];
+                    case "stc":
+                        return measures[1];
+                    case "radio":
+                        return measures[3];
+                    default:
+                        return measures[2];
+                }
+        }
+    }
+
+    /**
+     * Ejecuta réplicas hasta que converge el intervalo o se alcanza el máximo.
+     * @param seed La semilla de la primera réplica; las demás usan las siguientes.
+     * @return El número de réplicas ejecutadas.
+     * @throws InterruptedException Si se interrumpe la espera de las réplicas.
+     */
+    public int execute(long seed) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallelRuns = Math.max(1, cores / ensemble.getThreadsPerRun());
+        ExecutorService pool = Executors.newFixedThreadPool(parallelRuns);
+        ExecutorCompletionService<Replicate> completion = new ExecutorCompletionService<>(pool);
+        int launched = 0;
+        int inFlight = 0;
+        boolean stopLaunching = false;
+        while (launched < Math.min(parallelRuns, maxReplicates)) {
+            submit(completion, seed + launched++);
+            inFlight++;
+        }
+        while (inFlight > 0) {
+            try {
+                Replicate replicate = completion.take().get();
+                statistics.add(value(replicate));
+                System.err.printf("Replica %d: media %.4f +- %.4f (%s)%n", statistics.getCount(), statistics.getMean(),
+                        statistics.getConfidenceHalfWidth(confidence), target);
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+            inFlight--;
+            // Una vez alcanzado el criterio no se vuelve a lanzar aunque las réplicas en marcha ensanchen el intervalo
+            stopLaunching |= converged();
+            if (!stopLaunching && launched < maxReplicates) {
+                submit(completion, seed + launched++);
+                inFlight++;
+            }
+        }
+        pool.shutdown();
+        return launched;
+    }
+
+    private void submit(ExecutorCompletionService<Replicate> completion, long seed) {
+        Replicate replicate = new Replicate(ensemble.createReplicate(seed));
+        completion.submit(() -> {
+            long start = System.currentTimeMillis();
+            replicate.simulation.run();
+            replicate.time = System.currentTimeMillis() - start;
+            return replicate;
+        });
+    }
+
+    /**
+     * Lee las opciones, ejecuta réplicas hasta la convergencia y muestra el resultado.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer el escenario o escribir los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de las réplicas.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int scenario = 1;
+        String metric = "poblacion";
+        double tolerance = 0.05;
+        boolean relative = true;
+        double confidence = 0.95;
+        int min = 5, max = 1000;
+        int generations = 0;
+        int every = 1;
+        int threads = 1;
+        int size = 400;
+        long seed = System.nanoTime();
+        String output = null;
+        for (int k = 0; k < args.length; k++) {
+            String value = k + 1 < args.length ? args[k + 1] : "";
+            switch (args[k]) {
+                case "--scenario": scenario = Integer.parseInt(value); k++; break;
+                case "--metric": metric = value; k++; break;
+                case "--tolerance": tolerance = Double.parseDouble(value); k++; break;
+                case "--absolute": relative = false; break;
+                case "--confidence": confidence = Double.parseDouble(value); k++; break;
+                case "--min": min = Integer.parseInt(value); k++; break;
+                case "--max": max = Integer.parseInt(value); k++; break;
+                case "--generations": generations = Integer.parseInt(value); k++; break;
+                case "--every": every = Integer.parseInt(value); k++; break;
+                case "--threads": threads = Integer.parseInt(value); k++; break;
+                case "--size": size = Integer.parseInt(value); k++; break;
+                case "--seed": seed = Long.parseLong(value); k++; break;
+                case "--output": output = value; k++; break;
+                default:
+                    System.err.println("Opcion desconocida: " + args[k]);
+                    System.exit(1);
+            }
+        }
+
+        ScenarioSettings settings = ScenarioSettings.load(scenario);
+        if (generations > 0)
+            settings = settings.withGenerations(generations);
+        System.err.println(settings);
+        EnsembleRunner ensemble = new EnsembleRunner(settings, every);
+        ensemble.setThreadsPerRun(threads);
+        ensemble.setSize(size);
+        SequentialEnsemble sequential = new SequentialEnsemble(ensemble, metric);
+        sequential.setTolerance(tolerance, relative);
+        sequential.setConfidence(confidence);
+        sequential.setReplicateLimits(min, max);
+
+        long start = System.currentTimeMillis();
+        int replicates = sequential.execute(seed);
+        RunningStatistics s = sequential.getStatistics();
+        System.out.printf("%s: %d replicas, media %.4f +- %.4f (confianza %.0f%%, desviacion %.4f)%s%n", metric,
+                replicates, s.getMean(), s.getConfidenceHalfWidth(confidence), confidence * 100,
+                s.getStandardDeviation(), sequential.converged() ? "" : " SIN CONVERGER");
+        if (sequential.getCensored() > 0)
+            System.out.println("Aviso: " + sequential.getCensored() + " replicas no llegaron al borde");
+        if (output != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(output))) {
+                ensemble.writeCsv(out);
+            }
+        }
+        System.err.println("Tiempo total: " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
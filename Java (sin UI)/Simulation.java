@@ -0,0 +1,1023 @@
+
+/**
+ * @file Simulation.java
+ * @author Yeray Doello Gonzalez
+ * @brief Simulación del autómata celular con todo su estado en una instancia
+ */
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Autómata celular de tipo byte con bloqueo de filas frontera (el mismo
+ * algoritmo que CellularAutomaton2D_Frontera_acotada_tipo_byte_bloqueo_lock),
+ * pero con la retícula, los parámetros, los generadores aleatorios y la
+ * coordinación de hilos guardados en la instancia en lugar de en campos
+ * estáticos. Así se pueden ejecutar muchas simulaciones a la vez en la misma
+ * JVM, compartiendo el código ya compilado por el JIT y el kernel de reglas
+ * de cada escenario.
+ *
+ * Con un solo hilo y la misma semilla la simulación es reproducible. Con
+ * varios hilos el orden en que se evalúan las filas frontera depende del
+ * bloqueo, igual que en las variantes originales.
+ *
+ * Emite los eventos JFR de {@link SimulationEvents} (generaciones, ampliaciones
+ * del dominio, esperas en la barrera y en el cerrojo, imágenes escritas).
+ *
+ * Puede guardar puntos de control periódicos ({@link #setCheckpointInterval(int)})
+ * con todo el estado necesario para continuar la ejecución en otro proceso
+ * ({@link #restore(String)}); con un solo hilo la continuación es idéntica, bit
+ * a bit, a la ejecución sin interrumpir.
+ *
+ * Una simulación detenida se puede ramificar ({@link #branch(ScenarioSettings)})
+ * para seguir desde la misma generación con otros parámetros. Las ramas
+ * comparten las filas de la retícula y cada una copia una fila solo antes de
+ * escribir en ella (copia al escribir), así que las filas vacías, que son la
+ * mayor parte de un dominio ampliado, no se duplican.
+ */
+public class Simulation {
+    private static final AtomicInteger ids = new AtomicInteger();
+    private static final int CONTENDED_SPINS = 64;
+    private static final int CHECKPOINT_MAGIC = 0x4341434B; // "CACK"
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private final int id;
+    private final ScenarioSettings settings;
+    private final int numThreads;
+    private final long seed;
+    private final RuleKernel kernel;
+    private final SimulationRandom[] rng;
+    private final GenerationBarrier barrier;
+    private final ReentrantLock lck = new ReentrantLock();
+
+    // currentGrid y nextGrid son la misma retícula, como en las variantes originales.
+    private byte[][] grid;
+    // Filas que pueden estar compartidas con otras ramas; null si no comparte ninguna
+    private boolean[] sharedRows;
+    private int size;
+    private int generation;
+    private int targetGeneration;
+    private volatile boolean stopped;
+    private volatile boolean printing = false;
+    // Generaciones entre imágenes; 0 para el reparto por defecto (unas diez por escenario)
+    private volatile int snapshotInterval;
+    private volatile boolean checkpointRequested;
+    // Generaciones entre puntos de control; 0 para no guardarlos
+    private volatile int checkpointInterval;
+    private volatile String checkpointPath;
+    private SnapshotPipeline snapshots;
+    private boolean ownsSnapshots;
+    private final Object pauseLock = new Object();
+    private boolean paused;
+    private volatile long pausedNanos;
+    private volatile long pauseStartNanos;
+    private final AtomicLong barrierWaitNanos = new AtomicLong();
+    private final AtomicLong barrierWaits = new AtomicLong();
+    private GenerationListener[] listeners = new GenerationListener[0];
+    private long elapsedNanos;
+    private long runStartNanos;
+    private volatile boolean running;
+    private PhaseTimers timers;
+    // Evento JFR de la generación en curso; se crea al empezar cada generación
+    private SimulationEvents.GenerationCompleted generationEvent;
+
+    /**
+     * Constructor de la clase Simulation. Crea la retícula con la célula inicial en el centro.
+     * @param settings Los parámetros del escenario.
+     * @param numThreads El número de hilos que recorren la retícula.
+     * @param size El tamaño inicial de la retícula.
+     * @param seed La semilla de los generadores aleatorios de los hilos.
+     */
+    public Simulation(ScenarioSettings settings, int numThreads, int size, long seed) {
+        this.id = ids.incrementAndGet();
+        this.settings = settings;
+        this.numThreads = numThreads;
+        this.seed = seed;
+        this.kernel = kernelFor(settings);
+        this.rng = new SimulationRandom[numThreads];
+        for (int t = 0; t < numThreads; t++)
+            rng[t] = SimulationRandom.forWorker(seed, t);
+        this.barrier = new GenerationBarrier(numThreads, this::endOfGeneration);
+        initializeGrid(size);
+    }
+
+    /**
+     * Devuelve el kernel especializado del escenario o, si no hay compilador, el
+     * kernel genérico precompilado.
+     */
+    private static RuleKernel kernelFor(ScenarioSettings settings) {
+        try {
+            return RuleKernels.create("byte", settings, RuleKernels.Mode.SPECIALIZED);
+        } catch (IllegalStateException e) {
+            return new ByteRuleKernel(settings);
+        }
+    }
+
+    /**
+     * Inicializa la retícula con una única célula en el centro.
+     * @param size El tamaño de la retícula.
+     */
+    private void initializeGrid(int size) {
+        this.size = size;
+        grid = new byte[size][size];
+        int pmax = settings.cell_proliferation_potential_max;
+        grid[size / 2][size / 2] = (byte) (settings.starter_cell_is_STC ? pmax + 1 : pmax);
+        generation = 0;
+    }
+
+    /**
+     * Sustituye la retícula por un estado inicial dado (por ejemplo un tumor ya
+     * crecido de {@link WorkloadGenerator}) y vuelve a la generación 0.
+     * @param grid La retícula, cuadrada. Se usa directamente, sin copiarla.
+     */
+    public void setInitialState(byte[][] grid) {
+        for (byte[] row : grid)
+            if (row.length != grid.length)
+                throw new IllegalArgumentException("La reticula debe ser cuadrada");
+        this.grid = grid;
+        this.size = grid.length;
+        this.generation = 0;
+        this.sharedRows = null;
+    }
+
+    /**
+     * Ejecuta las generaciones que faltan hasta completar las del escenario.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public void run() throws InterruptedException {
+        runUntil(settings.generations);
+    }
+
+    /**
+     * Ejecuta generaciones hasta alcanzar la generación indicada o hasta que se
+     * llame a {@link #stop()}. El hilo que llama hace de hilo 0.
+     *
+     * @param target El número de generaciones completadas al terminar.
+     * @throws InterruptedException Si se interrumpe la espera de los hilos.
+     */
+    public void runUntil(int target) throws InterruptedException {
+        targetGeneration = target;
+        stopped = false;
+        runStartNanos = System.nanoTime();
+        running = true;
+        barrier.reset();
+        if (sharedRows != null)
+            unshareBandEdges();
+        if (printing && snapshots == null) {
+            int pmax = settings.cell_proliferation_potential_max;
+            snapshots = new SnapshotPipeline(FrameSink.fromProperty(settings), SnapshotPipeline.Policy.fromProperty(),
+                    pmax);
+            snapshots.setSource(id);
+            ownsSnapshots = true;
+        }
+        if (timers != null)
+            timers.prepare(generation, size);
+        beginGenerationEvent();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 1; t < numThreads; t++) {
+            final int th_indx = t;
+            threads[t] = new Thread(() -> worker(th_indx), "sim-" + id + "-" + t);
+            threads[t].start();
+        }
+        try {
+            worker(0);
+            for (int t = 1; t < numThreads; t++)
+                threads[t].join();
+        } finally {
+            // Las imágenes pendientes forman parte de la ejecución
+            if (ownsSnapshots) {
+                snapshots.close();
+                snapshots = null;
+                ownsSnapshots = false;
+            } else if (snapshots != null)
+                snapshots.flush();
+            elapsedNanos += System.nanoTime() - runStartNanos;
+            running = false;
+        }
+    }
+
+    /**
+     * Detiene la simulación al final de la generación en curso.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Bucle de un hilo. En cada generación recorre su franja de filas, bloqueando
+     * las filas frontera, y espera al resto en la barrera.
+     */
+    private void worker(int th_indx) {
+        SimulationRandom r = rng[th_indx];
+        // Tras la barrera todos los hilos ven los mismos valores de generation y
+        // targetGeneration, que solo cambian en la acción de la barrera. stopped no
+        // se consulta aquí: cada hilo podría leer un valor distinto y los que
+        // siguieran se quedarían esperando en la barrera a los que ya han salido.
+        while (generation < targetGeneration) {
+            byte[][] g = grid;
+            int n = size;
+            int gen = generation;
+            PhaseTimers t = timers;
+            long start = t != null ? System.nanoTime() : 0;
+            long boundaryNanos = 0;
+            int startRow = th_indx * n / numThreads;
+            int endRow = (th_indx + 1) * n / numThreads;
+            boolean[] shared = sharedRows;
+            for (int i = endRow - 1; i >= startRow; i--) {
+                if (shared != null)
+                    unshareAround(g, shared, i);
+                boolean boundary = numThreads > 1 && (i == startRow || i == endRow - 1) && (i != 0 && i != n - 1);
+                long rowStart = boundary && t != null ? System.nanoTime() : 0;
+                for (int j = n - 1; j > 0; j--) {
+                    if (boundary) {
+                        if (!lck.tryLock())
+                            lockContended(th_indx, gen, i);
+                        try {
+                            kernel.nextState(g, g, i, j, r);
+                        } finally {
+                            lck.unlock();
+                        }
+                    } else
+                        kernel.nextState(g, g, i, j, r);
+                }
+                if (boundary && t != null)
+                    boundaryNanos += System.nanoTime() - rowStart;
+            }
+            long computed = t != null ? System.nanoTime() : 0;
+            SimulationEvents.BarrierWait wait = SimulationEvents.BARRIER_WAIT.isEnabled()
+                    ? new SimulationEvents.BarrierWait()
+                    : null;
+            long waitStart = System.nanoTime();
+            // Una pausa bloquea la acción de la barrera; ese tiempo no es espera entre hilos
+            long pausedBefore = pausedNanos;
+            if (wait != null)
+                wait.begin();
+            try {
+                barrier.await(th_indx);
+            } catch (InterruptedException | BrokenBarrierException e) {
+                e.printStackTrace();
+                stopped = true;
+                return;
+            }
+            long waitEnd = System.nanoTime();
+            long pause = pausedNanos - pausedBefore;
+            barrierWaitNanos.addAndGet(waitEnd - waitStart - pause);
+            barrierWaits.incrementAndGet();
+            if (wait != null) {
+                wait.end();
+                if (wait.shouldCommit()) {
+                    wait.simulation = id;
+                    wait.threadIndex = th_indx;
+                    wait.generation = gen;
+                    wait.commit();
+                }
+            }
+            if (t != null)
+                t.worker(gen, th_indx, computed - start - boundaryNanos, boundaryNanos, waitEnd - computed - pause);
+        }
+    }
+
+    /**
+     * Acción de la barrera, ejecutada por un único hilo al final de cada
+     * generación: imprime la retícula si corresponde, amplía el dominio si una
+     * célula ha llegado al borde, avanza el contador de generaciones y avisa a
+     * los observadores. Si se ha pedido una pausa, los hilos se quedan aquí
+     * hasta que se reanude la simulación.
+     */
+    private void endOfGeneration() {
+        int gen = generation;
+        int generations = settings.generations;
+        PhaseTimers t = timers;
+        long start = t != null ? System.nanoTime() : 0;
+        int every = snapshotInterval > 0 ? snapshotInterval : Math.max(1, generations / 10 - 1);
+        if (printing && (gen % every == 0 || gen == generations - 1)) {
+            String path = "output/" + settings.name + "_" + id + "_" + numThreads + "_" + gen + ".png";
+            if (snapshots != null)
+                snapshots.submit(grid, gen, path);
+            else
+                printGrid(path);
+        }
+        long printed = t != null ? System.nanoTime() : 0;
+        boolean reached = check_reach_border();
+        long checked = t != null ? System.nanoTime() : 0;
+        if (reached)
+            extend_domain();
+        if (t != null) {
+            t.generation(gen, printed - start, checked - printed, System.nanoTime() - checked);
+            t.prepare(gen + 1, size);
+        }
+        commitGenerationEvent(gen);
+        beginGenerationEvent();
+        generation = gen + 1;
+        for (GenerationListener listener : listeners)
+            listener.generationCompleted(this, gen + 1);
+        int interval = checkpointInterval;
+        boolean requested = checkpointRequested;
+        if (requested) {
+            checkpointRequested = false;
+            new File("output").mkdirs();
+            printGrid("output/" + settings.name + "_" + id + "_checkpoint_" + (gen + 1) + ".png");
+        }
+        if (requested || interval > 0 && (gen + 1) % interval == 0) {
+            try {
+                writeCheckpoint(getCheckpointPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // Después de los observadores, que pueden haber creado una rama
+        if (sharedRows != null)
+            unshareBandEdges();
+        awaitResume();
+        // La parada se decide aquí, una sola vez para todos los hilos
+        if (stopped)
+            targetGeneration = generation;
+    }
+
+    /**
+     * Bloquea la acción de la barrera mientras la simulación esté en pausa. El
+     * tiempo en pausa no cuenta en {@link #getElapsedNanos()}.
+     */
+    private void awaitResume() {
+        synchronized (pauseLock) {
+            if (!paused || stopped)
+                return;
+            pauseStartNanos = System.nanoTime();
+            try {
+                while (paused && !stopped)
+                    pauseLock.wait();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+            }
+            pausedNanos += System.nanoTime() - pauseStartNanos;
+            pauseStartNanos = 0;
+        }
+    }
+
+    /**
+     * Pausa la simulación al final de la generación en curso.
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Reanuda una simulación en pausa.
+     */
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    /**
+     * Pide que al final de la generación en curso se guarde una imagen de la
+     * retícula en output/, aunque la impresión esté desactivada, y un punto de
+     * control en {@link #getCheckpointPath()}.
+     */
+    public void requestCheckpoint() {
+        checkpointRequested = true;
+    }
+
+    /**
+     * Espera el cerrojo de las filas frontera cuando tryLock ha fallado y registra
+     * la espera como evento JFR. Solo se llega aquí si otro hilo tiene el cerrojo,
+     * así que el camino sin contención no cambia.
+     */
+    private void lockContended(int th_indx, int gen, int row) {
+        if (!SimulationEvents.LOCK_CONTENDED.isEnabled()) {
+            // El cerrojo se tiene durante una sola celda: reintentar un poco evita que
+            // lock() cree un nodo de la cola de espera. Tras unas vueltas se cede el
+            // procesador por si el hilo que lo tiene se ha quedado sin él.
+            for (int k = 0; k < CONTENDED_SPINS; k++) {
+                if (lck.tryLock())
+                    return;
+                if (k < CONTENDED_SPINS / 4)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+            }
+            lck.lock();
+            return;
+        }
+        SimulationEvents.LockContended event = new SimulationEvents.LockContended();
+        int queued = lck.getQueueLength();
+        event.begin();
+        lck.lock();
+        event.end();
+        if (event.shouldCommit()) {
+            event.simulation = id;
+            event.threadIndex = th_indx;
+            event.generation = gen;
+            event.row = row;
+            event.queueLength = queued;
+            event.commit();
+        }
+    }
+
+    private void beginGenerationEvent() {
+        if (!SimulationEvents.GENERATION_COMPLETED.isEnabled()) {
+            generationEvent = null;
+            return;
+        }
+        generationEvent = new SimulationEvents.GenerationCompleted();
+        generationEvent.begin();
+    }
+
+    /**
+     * Cierra el evento JFR de la generación. La población solo se cuenta si el
+     * evento se va a registrar.
+     */
+    private void commitGenerationEvent(int gen) {
+        SimulationEvents.GenerationCompleted event = generationEvent;
+        if (event == null)
+            return;
+        event.end();
+        if (event.shouldCommit()) {
+            int[] counts = countCells();
+            event.simulation = id;
+            event.generation = gen;
+            event.size = size;
+            event.population = counts[0] + counts[1];
+            event.stc = counts[1];
+            event.commit();
+        }
+    }
+
+    /**
+     * Añade un observador que se llamará al final de cada generación.
+     * @param listener El observador.
+     */
+    public void addListener(GenerationListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    /**
+     * Devuelve el tiempo de reloj acumulado ejecutando generaciones, incluida la
+     * ejecución en curso si la hay.
+     * @return El tiempo en nanosegundos.
+     */
+    public long getElapsedNanos() {
+        long now = System.nanoTime();
+        long pauseStart = pauseStartNanos;
+        long paused = pausedNanos + (pauseStart != 0 ? now - pauseStart : 0);
+        return (running ? elapsedNanos + now - runStartNanos : elapsedNanos) - paused;
+    }
+
+    /**
+     * Devuelve la espera media de un hilo en la barrera por generación, sin
+     * contar el tiempo en pausa.
+     * @return El tiempo en nanosegundos, o 0 si aún no ha terminado ninguna generación.
+     */
+    public long getAverageBarrierWaitNanos() {
+        long waits = barrierWaits.get();
+        return waits == 0 ? 0 : barrierWaitNanos.get() / waits;
+    }
+
+    /**
+     * Crea una rama que continúa desde la generación actual con otros parámetros,
+     * el mismo número de hilos y el mismo estado de los generadores aleatorios
+     * (las diferencias entre ramas se deben solo a los parámetros). La rama y
+     * esta simulación comparten las filas de la retícula con copia al escribir.
+     *
+     * Debe llamarse con la simulación detenida o desde un {@link GenerationListener}.
+     * @param settings Los parámetros de la rama, con el mismo potencial de proliferación máximo.
+     * @return La rama, detenida en la generación actual.
+     */
+    public Simulation branch(ScenarioSettings settings) {
+        Simulation branch = branch(settings, seed);
+        for (int t = 0; t < numThreads; t++)
+            branch.rng[t].setState(rng[t].getState());
+        return branch;
+    }
+
+    /**
+     * Crea una rama como {@link #branch(ScenarioSettings)}, pero con generadores
+     * aleatorios nuevos a partir de otra semilla (réplicas de una misma rama).
+     * @param settings Los parámetros de la rama, con el mismo potencial de proliferación máximo.
+     * @param seed La semilla de los generadores de la rama.
+     * @return La rama, detenida en la generación actual.
+     */
+    public Simulation branch(ScenarioSettings settings, long seed) {
+        if (settings.cell_proliferation_potential_max != this.settings.cell_proliferation_potential_max)
+            throw new IllegalArgumentException("Una rama no puede cambiar el potencial de proliferacion maximo");
+        Simulation branch = new Simulation(settings, numThreads, 1, seed);
+        branch.grid = grid.clone();
+        branch.size = size;
+        branch.generation = generation;
+        branch.snapshotInterval = snapshotInterval;
+        // Las filas pasan a ser de las dos: cualquiera de ellas las copia antes de escribir
+        sharedRows = new boolean[size];
+        Arrays.fill(sharedRows, true);
+        branch.sharedRows = sharedRows.clone();
+        return branch;
+    }
+
+    /**
+     * Copia las filas compartidas alrededor de la fila i antes de evaluarla, si
+     * tiene alguna célula: el kernel solo escribe en las filas i - 1, i e i + 1
+     * de una celda ocupada. Las filas que toca cada hilo son solo suyas (las de
+     * los bordes de las franjas se copian antes, en {@link #unshareBandEdges()}),
+     * así que no hace falta sincronización.
+     */
+    private static void unshareAround(byte[][] g, boolean[] shared, int i) {
+        int lo = Math.max(0, i - 1);
+        int hi = Math.min(g.length - 1, i + 1);
+        if (!shared[lo] && !shared[i] && !shared[hi])
+            return;
+        byte[] row = g[i];
+        for (int j = 0; j < row.length; j++) {
+            if (row[j] != 0) {
+                for (int k = lo; k <= hi; k++) {
+                    if (shared[k]) {
+                        g[k] = g[k].clone();
+                        shared[k] = false;
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copia las filas en las que pueden escribir dos hilos (las de los bordes de
+     * cada franja y sus vecinas) y deja de comprobar las filas compartidas cuando
+     * ya no queda ninguna. Se llama con los hilos parados.
+     */
+    private void unshareBandEdges() {
+        boolean[] shared = sharedRows;
+        int n = size;
+        if (numThreads > 1) {
+            for (int t = 0; t < numThreads; t++) {
+                int startRow = t * n / numThreads;
+                int endRow = (t + 1) * n / numThreads;
+                unshareRow(shared, startRow - 1);
+                unshareRow(shared, startRow);
+                unshareRow(shared, endRow - 1);
+                unshareRow(shared, endRow);
+            }
+        }
+        for (boolean s : shared)
+            if (s)
+                return;
+        sharedRows = null;
+    }
+
+    private static boolean isEmpty(byte[] row) {
+        for (byte cell : row)
+            if (cell != 0)
+                return false;
+        return true;
+    }
+
+    private void unshareRow(boolean[] shared, int k) {
+        if (k >= 0 && k < size && shared[k]) {
+            grid[k] = grid[k].clone();
+            shared[k] = false;
+        }
+    }
+
+    /**
+     * Devuelve cuántas filas de la retícula comparte todavía con otras ramas.
+     */
+    public int getSharedRowCount() {
+        boolean[] shared = sharedRows;
+        int count = 0;
+        if (shared != null)
+            for (boolean s : shared)
+                if (s)
+                    count++;
+        return count;
+    }
+
+    /**
+     * Verifica si hay una célula en el borde de la cuadrícula.
+     * @return true si se debe ampliar el dominio.
+     */
+    private boolean check_reach_border() {
+        for (int i = 0; i < size; i++)
+            if (grid[0][i] != 0 || grid[size - 1][i] != 0 || grid[i][0] != 0 || grid[i][size - 1] != 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Amplía la cuadrícula a 1.5 veces su tamaño, copiando el contenido en el centro.
+     * En una rama que aún comparte filas, las filas vacías de la retícula nueva
+     * apuntan todas a una misma fila a cero marcada como compartida, que se copia
+     * al escribir en ella, para que ampliar el dominio no multiplique la memoria
+     * de todas las ramas.
+     */
+    private void extend_domain() {
+        SimulationEvents.DomainExtended event = new SimulationEvents.DomainExtended();
+        event.begin();
+        int oldSize = size;
+        int newSize = size + size / 2;
+        int offset = size / 4;
+        byte[][] newGrid;
+        if (sharedRows == null) {
+            newGrid = new byte[newSize][newSize];
+            for (int i = 0; i < size; i++)
+                System.arraycopy(grid[i], 0, newGrid[i + offset], offset, size);
+        } else {
+            newGrid = new byte[newSize][];
+            boolean[] shared = new boolean[newSize];
+            byte[] empty = new byte[newSize];
+            for (int i = 0; i < newSize; i++) {
+                int old = i - offset;
+                if (old >= 0 && old < size && !isEmpty(grid[old])) {
+                    newGrid[i] = new byte[newSize];
+                    System.arraycopy(grid[old], 0, newGrid[i], offset, size);
+                } else {
+                    newGrid[i] = empty;
+                    shared[i] = true;
+                }
+            }
+            sharedRows = shared;
+        }
+        size = newSize;
+        grid = newGrid;
+        event.end();
+        if (event.shouldCommit()) {
+            event.simulation = id;
+            event.generation = generation;
+            event.oldSize = oldSize;
+            event.newSize = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Imprime el estado de la cuadrícula en una imagen PNG con paleta, coloreando las células según su estado.
+     * La imagen se codifica en paralelo por franjas ({@link ParallelPngWriter}).
+     * @param path La ruta del fichero de salida.
+     */
+    public void printGrid(String path) {
+        SimulationEvents.SnapshotWritten event = new SimulationEvents.SnapshotWritten();
+        event.begin();
+        byte[][] grid = this.grid;
+        ParallelPngWriter writer = new ParallelPngWriter(IndexedGridImage.colorModel(settings.cell_proliferation_potential_max));
+        try {
+            // Se lee la retícula directamente: printGrid se llama con los hilos parados en la barrera
+            long bytes = writer.write(path, grid.length, grid.length, ParallelPngWriter.columnsOf(grid));
+            event.end();
+            if (event.shouldCommit()) {
+                event.simulation = id;
+                event.generation = generation;
+                event.path = path;
+                event.format = "png";
+                event.bytes = bytes;
+                event.commit();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Colores RGB por valor de celda: blanco si está vacía, rojo proporcional al
+     * potencial de proliferación para las RTC y amarillo para las STC (pmax + 1).
+     * @param pmax El potencial de proliferación máximo.
+     * @return Un array de pmax + 2 colores.
+     */
+    static int[] palette(int pmax) {
+        int[] palette = new int[pmax + 2];
+        palette[0] = Color.WHITE.getRGB();
+        for (int v = 1; v <= pmax; v++)
+            palette[v] = 0xFF000000 | (255 * v / pmax) << 16;
+        palette[pmax + 1] = Color.YELLOW.getRGB();
+        return palette;
+    }
+
+    /**
+     * Cuenta las células de la retícula.
+     * @return Un array {RTC, STC} con el número de células de cada tipo.
+     */
+    public int[] countCells() {
+        int pmax = settings.cell_proliferation_potential_max;
+        int[] counts = new int[2];
+        // Copia local: se puede llamar mientras avanza la simulación (recuento aproximado)
+        byte[][] g = grid;
+        for (int i = 0; i < g.length; i++) {
+            byte[] row = g[i];
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] > pmax)
+                    counts[1]++;
+                else if (row[j] > 0)
+                    counts[0]++;
+            }
+        }
+        return counts;
+    }
+
+    public void setPrinting(boolean printing) {
+        this.printing = printing;
+    }
+
+    public boolean isPrinting() {
+        return printing;
+    }
+
+    /**
+     * Usa un pipeline propio para las imágenes de la simulación (por ejemplo con
+     * otro destino o política). Si no se indica, al imprimir se crea uno con
+     * {@link PngFrameSink} para cada ejecución. Debe llamarse con la simulación
+     * detenida; quien lo crea se encarga de cerrarlo.
+     * @param snapshots El pipeline, o null para volver al de por defecto.
+     */
+    public void setSnapshotPipeline(SnapshotPipeline snapshots) {
+        this.snapshots = snapshots;
+        this.ownsSnapshots = false;
+        if (snapshots != null)
+            snapshots.setSource(id);
+    }
+
+    /**
+     * Cambia cada cuántas generaciones se imprime la retícula.
+     * @param snapshotInterval Las generaciones entre imágenes, o 0 para el reparto por defecto.
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = Math.max(0, snapshotInterval);
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Guarda un punto de control cada cierto número de generaciones, al final de
+     * la generación y con los hilos parados en la barrera.
+     * @param checkpointInterval Las generaciones entre puntos de control, o 0 para no guardarlos.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(0, checkpointInterval);
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Cambia el fichero de los puntos de control periódicos.
+     * @param checkpointPath La ruta, o null para la de por defecto.
+     */
+    public void setCheckpointPath(String checkpointPath) {
+        this.checkpointPath = checkpointPath;
+    }
+
+    /**
+     * Devuelve el fichero de los puntos de control. Por defecto depende solo del
+     * escenario, la semilla y los hilos, así que una simulación restaurada sigue
+     * escribiendo en el mismo fichero del que se leyó.
+     */
+    public String getCheckpointPath() {
+        String path = checkpointPath;
+        return path != null ? path : "output/" + settings.name + "_" + seed + "_" + numThreads + ".checkpoint";
+    }
+
+    /**
+     * Guarda el estado completo de la simulación: parámetros, semilla, hilos,
+     * generación, tamaño, estado de los generadores aleatorios y retícula,
+     * comprimido con gzip. Se escribe en un fichero temporal que se sincroniza
+     * con el disco y se renombra de forma atómica, así que si el proceso muere a
+     * mitad de la escritura queda el punto de control anterior.
+     *
+     * Debe llamarse con la simulación detenida o desde el final de una generación.
+     * @param path La ruta del fichero.
+     * @throws IOException Si falla la escritura.
+     */
+    public void writeCheckpoint(String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            GZIPOutputStream gzip = new GZIPOutputStream(file, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 1 << 16));
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeUTF(settings.name);
+            out.writeInt(settings.generations);
+            out.writeInt(settings.cell_proliferation_potential_max);
+            out.writeFloat(settings.chance_spontaneous_death);
+            out.writeInt(settings.chance_proliferation);
+            out.writeInt(settings.chance_migration);
+            out.writeInt(settings.chance_STC_creation);
+            out.writeBoolean(settings.starter_cell_is_STC);
+            out.writeInt(numThreads);
+            out.writeLong(seed);
+            out.writeInt(generation);
+            out.writeLong(getElapsedNanos());
+            for (SimulationRandom r : rng)
+                out.writeLong(r.getState());
+            out.writeInt(size);
+            for (int i = 0; i < size; i++)
+                out.write(grid[i], 0, size);
+            out.flush();
+            gzip.finish();
+            file.getFD().sync();
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Crea una simulación a partir de un punto de control de {@link #writeCheckpoint(String)}.
+     * Sigue en la generación guardada, con la misma retícula y los mismos
+     * generadores aleatorios, y guarda sus puntos de control en el mismo fichero.
+     * @param path La ruta del fichero.
+     * @return La simulación, detenida.
+     * @throws IOException Si no se puede leer o no es un punto de control.
+     */
+    public static Simulation restore(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(path), 1 << 16), 1 << 16))) {
+            if (in.readInt() != CHECKPOINT_MAGIC)
+                throw new IOException("No es un punto de control: " + path);
+            int version = in.readInt();
+            if (version != CHECKPOINT_VERSION)
+                throw new IOException("Version de punto de control no soportada: " + version);
+            ScenarioSettings settings = new ScenarioSettings(in.readUTF(), in.readInt(), in.readInt(),
+                    in.readFloat(), in.readInt(), in.readInt(), in.readInt(), in.readBoolean());
+            int numThreads = in.readInt();
+            long seed = in.readLong();
+            int generation = in.readInt();
+            long elapsedNanos = in.readLong();
+            long[] states = new long[numThreads];
+            for (int t = 0; t < numThreads; t++)
+                states[t] = in.readLong();
+            int size = in.readInt();
+            byte[][] grid = new byte[size][size];
+            for (int i = 0; i < size; i++)
+                in.readFully(grid[i]);
+
+            Simulation simulation = new Simulation(settings, numThreads, 1, seed);
+            simulation.setInitialState(grid);
+            simulation.generation = generation;
+            simulation.elapsedNanos = elapsedNanos;
+            for (int t = 0; t < numThreads; t++)
+                simulation.rng[t].setState(states[t]);
+            simulation.checkpointPath = path;
+            return simulation;
+        }
+    }
+
+    /**
+     * Activa los tiempos por fase. Debe llamarse con la simulación detenida.
+     * @param timers Los tiempos, o null para desactivarlos.
+     */
+    public void setPhaseTimers(PhaseTimers timers) {
+        this.timers = timers;
+    }
+
+    public PhaseTimers getPhaseTimers() {
+        return timers;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ScenarioSettings getSettings() {
+        return settings;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public RuleKernel getKernel() {
+        return kernel;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Devuelve la retícula actual. Solo debe leerse cuando la simulación no está
+     * avanzando (antes o después de run) o desde el final de una generación.
+     * @return La retícula.
+     */
+    public byte[][] getGrid() {
+        return grid;
+    }
+
+    /**
+     * Ejecuta varias simulaciones del mismo escenario a la vez en esta JVM, o
+     * continúa simulaciones desde sus puntos de control.
+     * Uso: java Simulation [escenario 1-21] [simulaciones] [hilos por simulacion] [semilla]
+     *      java Simulation --resume punto_de_control [punto_de_control...]
+     * Con -Dcheckpoint.interval=N cada simulación guarda un punto de control cada N generaciones.
+     * Con -Dinitial.state=archivo las simulaciones nuevas parten del estado de un
+     * archivo ({@link InitialStateLoader}) en lugar de una célula en el centro.
+     * Con -Dlive.file=archivo la primera simulación publica su estado en ese archivo
+     * ({@link LiveStatePublisher}) para verlo con java UI --attach archivo.
+     * @param args Argumentos de línea de comandos.
+     * @throws Exception Si no se puede leer el escenario o falla alguna simulación.
+     */
+    public static void main(String[] args) throws Exception {
+        int checkpointInterval = Integer.getInteger("checkpoint.interval", 0);
+        Simulation[] simulations;
+        if (args.length > 0 && args[0].equals("--resume")) {
+            simulations = new Simulation[args.length - 1];
+            for (int r = 0; r < simulations.length; r++) {
+                simulations[r] = restore(args[r + 1]);
+                System.out.println("Continuando " + args[r + 1] + ": " + simulations[r].getSettings().name
+                        + ", generacion " + simulations[r].getGeneration() + ", tamano " + simulations[r].getSize());
+            }
+        } else {
+            int scenario = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+            int runs = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+            ScenarioSettings settings = ScenarioSettings.load(scenario);
+            System.out.println(settings);
+            InitialStateLoader initialState = InitialStateLoader.fromProperty();
+            if (initialState != null)
+                System.out.println("Estado inicial: " + initialState);
+            simulations = new Simulation[runs];
+            for (int r = 0; r < runs; r++) {
+                simulations[r] = new Simulation(settings, threads, 400, seed + r);
+                if (initialState != null)
+                    initialState.apply(simulations[r]);
+            }
+        }
+        if (simulations.length == 0)
+            return;
+        System.out.println("Kernel de reglas: " + simulations[0].getKernel().describe());
+        LiveStatePublisher live = LiveStatePublisher.fromProperty();
+        if (live != null)
+            simulations[0].addListener(live);
+        int threads = simulations[0].getNumThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / threads));
+        ExecutorCompletionService<Simulation> completion = new ExecutorCompletionService<>(pool);
+        long start = System.currentTimeMillis();
+        for (Simulation simulation : simulations) {
+            simulation.setCheckpointInterval(checkpointInterval);
+            completion.submit(() -> {
+                SimulationMonitor monitor = SimulationMonitor.register(simulation);
+                try {
+                    simulation.run();
+                } finally {
+                    if (monitor != null)
+                        monitor.unregister();
+                }
+                return simulation;
+            });
+        }
+        for (int r = 0; r < simulations.length; r++) {
+            Simulation simulation = completion.take().get();
+            int[] counts = simulation.countCells();
+            System.out.println("Simulacion " + simulation.getId() + " (semilla " + simulation.getSeed() + "): RTC="
+                    + counts[0] + " STC=" + counts[1] + " tamano=" + simulation.getSize() + " ("
+                    + (System.currentTimeMillis() - start) + " ms)");
+        }
+        pool.shutdown();
+        if (live != null)
+            live.close();
+        System.out.println("Tiempo total de " + simulations.length + " simulaciones: " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,138 @@
+
+/**
+ * @file SimulationEvents.java
+ * @author Yeray Doello Gonzalez
+ * @brief Eventos de Java Flight Recorder de la simulación
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Eventos JFR que emite {@link Simulation}. Aparecen en la misma grabación que
+ * los de la JVM (GC, safepoints, muestras de CPU), de modo que se puede ver qué
+ * fase de la simulación coincide con cada pausa o pico. Los eventos de cada
+ * generación solo se crean si alguna grabación tiene activado su tipo, así que
+ * sin grabación el bucle de generaciones no reserva memoria por ellos.
+ *
+ * Uso: java -XX:StartFlightRecording=filename=simulacion.jfr Simulation 5 1 4
+ *      jfr print --events simulation.GenerationCompleted simulacion.jfr
+ */
+public final class SimulationEvents {
+    private SimulationEvents() {
+    }
+
+    static final EventType GENERATION_COMPLETED = EventType.getEventType(GenerationCompleted.class);
+    static final EventType BARRIER_WAIT = EventType.getEventType(BarrierWait.class);
+    static final EventType LOCK_CONTENDED = EventType.getEventType(LockContended.class);
+
+    @Name("simulation.GenerationCompleted")
+    @Label("Generacion completada")
+    @Category({ "Automata celular" })
+    @Description("Una generacion completa de la simulacion, desde que empieza el recorrido hasta el final de la accion de la barrera")
+    @StackTrace(false)
+    public static class GenerationCompleted extends Event {
+        @Label("Simulacion")
+        int simulation;
+
+        @Label("Generacion")
+        int generation;
+
+        @Label("Tamano")
+        int size;
+
+        @Label("Poblacion")
+        @Description("Numero de celulas RTC y STC al final de la generacion")
+        int population;
+
+        @Label("STC")
+        int stc;
+    }
+
+    @Name("simulation.DomainExtended")
+    @Label("Dominio ampliado")
+    @Category({ "Automata celular" })
+    @Description("Ampliacion de la reticula al llegar una celula al borde; la duracion es el tiempo de copia")
+    @StackTrace(false)
+    public static class DomainExtended extends Event {
+        @Label("Simulacion")
+        int simulation;
+
+        @Label("Generacion")
+        int generation;
+
+        @Label("Tamano anterior")
+        int oldSize;
+
+        @Label("Tamano nuevo")
+        int newSize;
+    }
+
+    @Name("simulation.BarrierWait")
+    @Label("Espera en la barrera")
+    @Category({ "Automata celular" })
+    @Description("Tiempo que un hilo espera en la barrera de fin de generacion")
+    @StackTrace(false)
+    public static class BarrierWait extends Event {
+        @Label("Simulacion")
+        int simulation;
+
+        @Label("Hilo")
+        int threadIndex;
+
+        @Label("Generacion")
+        int generation;
+    }
+
+    @Name("simulation.SnapshotWritten")
+    @Label("Instantanea escrita")
+    @Category({ "Automata celular" })
+    @Description("Escritura de una imagen o instantanea de la reticula")
+    @StackTrace(false)
+    public static class SnapshotWritten extends Event {
+        @Label("Simulacion")
+        int simulation;
+
+        @Label("Generacion")
+        int generation;
+
+        @Label("Fichero")
+        String path;
+
+        @Label("Formato")
+        String format;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("simulation.LockContended")
+    @Label("Cerrojo de frontera disputado")
+    @Category({ "Automata celular" })
+    @Description("Un hilo ha tenido que esperar el cerrojo de las filas frontera porque lo tenia otro hilo")
+    @StackTrace(false)
+    public static class LockContended extends Event {
+        @Label("Simulacion")
+        int simulation;
+
+        @Label("Hilo")
+        int threadIndex;
+
+        @Label("Generacion")
+        int generation;
+
+        @Label("Fila")
+        int row;
+
+        @Label("Hilos en cola")
+        @Description("Hilos que esperaban el cerrojo al empezar la espera")
+        int queueLength;
+    }
+}
@@ -0,0 +1,195 @@
+
+/**
+ * @file SimulationMonitor.java
+ * @author Yeray Doello Gonzalez
+ * @brief Publicación por JMX de las métricas y el control de una simulación
+ */
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * MBean de una {@link Simulation} en curso. Permite seguir desde jconsole,
+ * VisualVM o cualquier cliente JMX una ejecución larga sin interfaz: generación,
+ * población, tamaño del dominio, celdas actualizadas por segundo, espera media
+ * en la barrera y memoria de la retícula. También permite pausarla, reanudarla,
+ * cambiar cada cuántas generaciones se guarda una imagen y pedir una imagen y
+ * un punto de control en la siguiente generación.
+ *
+ * Se registra como simulation:type=Simulation,id=N,scenario="nombre". La
+ * población se cuenta al consultarla, recorriendo la retícula mientras la
+ * simulación avanza, así que es aproximada y cuesta un recorrido completo.
+ *
+ * Uso: java -Dcom.sun.management.jmxremote.port=9010 -Dcom.sun.management.jmxremote.authenticate=false
+ *      -Dcom.sun.management.jmxremote.ssl=false Simulation 1 1 4
+ */
+public class SimulationMonitor implements SimulationMonitorMBean, GenerationListener {
+    private final Simulation simulation;
+    private final ObjectName name;
+    private final long startElapsed;
+    private volatile long cells;
+    private int lastSize;
+
+    private SimulationMonitor(Simulation simulation, ObjectName name) {
+        this.simulation = simulation;
+        this.name = name;
+        this.startElapsed = simulation.getElapsedNanos();
+        this.lastSize = simulation.getSize();
+    }
+
+    /**
+     * Crea el MBean de una simulación y lo registra en el servidor de la plataforma.
+     * @param simulation La simulación, antes de ejecutarla.
+     * @return El MBean registrado, o null si no se ha podido registrar.
+     */
+    public static SimulationMonitor register(Simulation simulation) {
+        try {
+            ObjectName name = new ObjectName("simulation:type=Simulation,id=" + simulation.getId() + ",scenario="
+                    + ObjectName.quote(simulation.getSettings().name));
+            SimulationMonitor monitor = new SimulationMonitor(simulation, name);
+            simulation.addListener(monitor);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, name);
+            return monitor;
+        } catch (JMException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Retira el MBean del servidor, por ejemplo al terminar la simulación.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return name;
+    }
+
+    @Override
+    public void generationCompleted(Simulation simulation, int generation) {
+        // Celdas recorridas en la generación, con el tamaño que tenía antes de ampliar el dominio
+        cells += (long) lastSize * (lastSize - 1);
+        lastSize = simulation.getSize();
+    }
+
+    @Override
+    public String getScenario() {
+        return simulation.getSettings().name;
+    }
+
+    @Override
+    public int getThreads() {
+        return simulation.getNumThreads();
+    }
+
+    @Override
+    public int getGeneration() {
+        return simulation.getGeneration();
+    }
+
+    @Override
+    public int getTargetGenerations() {
+        return simulation.getSettings().generations;
+    }
+
+    @Override
+    public int getDomainSize() {
+        return simulation.getSize();
+    }
+
+    @Override
+    public int getPopulation() {
+        int[] counts = simulation.countCells();
+        return counts[0] + counts[1];
+    }
+
+    @Override
+    public int getStcCount() {
+        return simulation.countCells()[1];
+    }
+
+    @Override
+    public double getCellsPerSecond() {
+        long nanos = simulation.getElapsedNanos() - startElapsed;
+        return nanos > 0 ? cells * 1e9 / nanos : 0;
+    }
+
+    @Override
+    public double getAverageBarrierWaitMillis() {
+        return simulation.getAverageBarrierWaitNanos() / 1e6;
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return simulation.getElapsedNanos() / 1e9;
+    }
+
+    /**
+     * Estimación de la memoria de la retícula: el array de filas y cada fila con
+     * su cabecera, alineadas a 8 bytes como en una JVM de 64 bits con referencias comprimidas.
+     * Las filas que una rama comparte todavía con otras no se cuentan.
+     */
+    @Override
+    public long getMemoryFootprintBytes() {
+        long n = simulation.getSize();
+        return align(16 + 4 * n) + (n - simulation.getSharedRowCount()) * align(16 + n);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    @Override
+    public boolean isPaused() {
+        return simulation.isPaused();
+    }
+
+    @Override
+    public boolean isPrinting() {
+        return simulation.isPrinting();
+    }
+
+    @Override
+    public void setPrinting(boolean printing) {
+        if (printing)
+            new File("output").mkdirs();
+        simulation.setPrinting(printing);
+    }
+
+    @Override
+    public int getSnapshotInterval() {
+        return simulation.getSnapshotInterval();
+    }
+
+    @Override
+    public void setSnapshotInterval(int generations) {
+        simulation.setSnapshotInterval(generations);
+    }
+
+    @Override
+    public void pause() {
+        simulation.pause();
+    }
+
+    @Override
+    public void resume() {
+        simulation.resume();
+    }
+
+    @Override
+    public void requestCheckpoint() {
+        simulation.requestCheckpoint();
+    }
+}
@@ -0,0 +1,50 @@
+
+/**
+ * @file SimulationMonitorMBean.java
+ * @author Yeray Doello Gonzalez
+ * @brief Interfaz JMX de una simulación en curso
+ */
+
+/**
+ * Atributos y operaciones que {@link SimulationMonitor} publica por JMX para
+ * cada {@link Simulation}.
+ */
+public interface SimulationMonitorMBean {
+    String getScenario();
+
+    int getThreads();
+
+    int getGeneration();
+
+    int getTargetGenerations();
+
+    int getDomainSize();
+
+    int getPopulation();
+
+    int getStcCount();
+
+    double getCellsPerSecond();
+
+    double getAverageBarrierWaitMillis();
+
+    double getElapsedSeconds();
+
+    long getMemoryFootprintBytes();
+
+    boolean isPaused();
+
+    boolean isPrinting();
+
+    void setPrinting(boolean printing);
+
+    int getSnapshotInterval();
+
+    void setSnapshotInterval(int generations);
+
+    void pause();
+
+    void resume();
+
+    void requestCheckpoint();
+}
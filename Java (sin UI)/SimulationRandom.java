@@ -0,0 +1,64 @@
+
+/**
+ * @file SimulationRandom.java
+ * @author Yeray Doello Gonzalez
+ * @brief Generador aleatorio determinista con estado accesible
+ */
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Generador SplitMix64. A diferencia de ThreadLocalRandom, su estado es un único
+ * long que se puede consultar y restaurar, de modo que una simulación con
+ * semilla fija es reproducible.
+ */
+public final class SimulationRandom implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private long state;
+
+    /**
+     * Constructor de la clase SimulationRandom.
+     * @param seed La semilla del generador.
+     */
+    public SimulationRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Crea el generador del hilo th_indx a partir de la semilla de una simulación.
+     * @param seed La semilla de la simulación.
+     * @param th_indx El índice del hilo.
+     * @return El generador del hilo.
+     */
+    public static SimulationRandom forWorker(long seed, int th_indx) {
+        return new SimulationRandom(mix(seed + (th_indx + 1) * GOLDEN_GAMMA));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Devuelve un entero en [0, bound) por multiplicación y desplazamiento. El sesgo
+     * es del orden de bound / 2^32, despreciable para los límites del autómata.
+     */
+    @Override
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
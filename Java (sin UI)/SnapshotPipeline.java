@@ -0,0 +1,296 @@
+
+/**
+ * @file SnapshotPipeline.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escritura asíncrona de instantáneas de la retícula
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Saca la codificación y la escritura de las imágenes del camino crítico de la
+ * simulación. Sin él, el hilo que imprime codifica el PNG dentro de la
+ * generación mientras los demás esperan en la barrera, y activar la impresión
+ * multiplica el tiempo de ejecución.
+ *
+ * El hilo de la simulación solo copia la retícula en uno de los tres frames del
+ * anillo (un byte por celda: 0 vacía, 1..pmax RTC, pmax + 1 STC, el formato de
+ * {@link IndexedGridImage}) y sigue; un
+ * hilo escritor en segundo plano pasa los frames pendientes, en orden, al
+ * {@link FrameSink}. Si los tres frames están ocupados (uno escribiéndose y dos
+ * pendientes), se aplica la política:
+ *
+ *   DROP      se descarta la instantánea nueva
+ *   BLOCK     la simulación espera a que quede un frame libre (no se pierde ninguna)
+ *   COALESCE  la instantánea nueva sustituye a la pendiente más reciente
+ *
+ * La política por defecto se lee de -Dsnapshot.policy=drop|block|coalesce
+ * (BLOCK si no se indica, que conserva todas las imágenes como antes).
+ */
+public class SnapshotPipeline implements AutoCloseable {
+    public enum Policy {
+        DROP, BLOCK, COALESCE;
+
+        /**
+         * Devuelve la política indicada con -Dsnapshot.policy, o BLOCK.
+         */
+        public static Policy fromProperty() {
+            return valueOf(System.getProperty("snapshot.policy", "block").toUpperCase());
+        }
+    }
+
+    public static final int BUFFERS = 3;
+
+    /**
+     * Una instantánea de la retícula, fila a fila.
+     */
+    public static final class Frame {
+        private byte[] cells = new byte[0];
+        private int size;
+        private int generation;
+        private String path;
+
+        private void resize(int size) {
+            this.size = size;
+            if (cells.length < size * size)
+                cells = new byte[size * size];
+        }
+
+        public byte[] getCells() {
+            return cells;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Devuelve el valor de la celda (i, j): 0, 1..pmax o pmax + 1.
+         */
+        public int get(int i, int j) {
+            return cells[i * size + j];
+        }
+    }
+
+    private final FrameSink sink;
+    private final Policy policy;
+    private final int pmax;
+    private final Thread writer;
+    private final ArrayDeque<Frame> free = new ArrayDeque<>(BUFFERS);
+    private final ArrayDeque<Frame> pending = new ArrayDeque<>(BUFFERS);
+    private boolean writing;
+    private boolean closed;
+    private int source;
+    private long submitted;
+    private long written;
+    private long dropped;
+    private long coalesced;
+    private long blockedNanos;
+
+    /**
+     * Constructor de la clase SnapshotPipeline. Arranca el hilo escritor.
+     * @param sink El destino de las instantáneas.
+     * @param policy La política cuando no hay frames libres.
+     * @param pmax El potencial de proliferación máximo (como mucho 254).
+     */
+    public SnapshotPipeline(FrameSink sink, Policy policy, int pmax) {
+        if (pmax > 254)
+            throw new IllegalArgumentException("pmax + 1 debe caber en un byte: " + pmax);
+        this.sink = sink;
+        this.policy = policy;
+        this.pmax = pmax;
+        for (int k = 0; k < BUFFERS; k++)
+            free.add(new Frame());
+        writer = new Thread(this::drain, "snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Identifica a la simulación en los eventos JFR de las instantáneas.
+     */
+    public void setSource(int source) {
+        this.source = source;
+    }
+
+    /**
+     * Obtiene un frame libre según la política, o null si hay que descartar la instantánea.
+     */
+    private synchronized Frame acquire() {
+        submitted++;
+        Frame frame = free.poll();
+        if (frame != null)
+            return frame;
+        if (policy == Policy.DROP) {
+            dropped++;
+            return null;
+        }
+        if (policy == Policy.COALESCE) {
+            frame = pending.pollLast();
+            if (frame != null) {
+                coalesced++;
+                return frame;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            while ((frame = free.poll()) == null)
+                wait();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            dropped++;
+            return null;
+        } finally {
+            blockedNanos += System.nanoTime() - start;
+        }
+        return frame;
+    }
+
+    private synchronized void publish(Frame frame, int generation, String path) {
+        frame.generation = generation;
+        frame.path = path;
+        pending.addLast(frame);
+        notifyAll();
+    }
+
+    /**
+     * Encola una instantánea de una retícula de tipo byte. Al final de una
+     * generación sus valores ya son 0..pmax + 1, así que se copia fila a fila
+     * sin convertir.
+     * @param grid La retícula; se copia antes de volver.
+     * @param generation La generación.
+     * @param path La ruta del fichero de salida.
+     */
+    public void submit(byte[][] grid, int generation, String path) {
+        Frame frame = acquire();
+        if (frame == null)
+            return;
+        frame.resize(grid.length);
+        IndexedGridImage.copy(grid, frame.cells);
+        publish(frame, generation, path);
+    }
+
+    /**
+     * Encola una instantánea de una retícula de tipo char.
+     * @param grid La retícula; se copia antes de volver.
+     * @param generation La generación.
+     * @param path La ruta del fichero de salida.
+     */
+    public void submit(char[][] grid, int generation, String path) {
+        Frame frame = acquire();
+        if (frame == null)
+            return;
+        frame.resize(grid.length);
+        IndexedGridImage.copy(grid, frame.cells, pmax);
+        publish(frame, generation, path);
+    }
+
+    /**
+     * Encola una instantánea de una retícula de tipo int.
+     * @param grid La retícula; se copia antes de volver.
+     * @param generation La generación.
+     * @param path La ruta del fichero de salida.
+     */
+    public void submit(int[][] grid, int generation, String path) {
+        Frame frame = acquire();
+        if (frame == null)
+            return;
+        frame.resize(grid.length);
+        IndexedGridImage.copy(grid, frame.cells, pmax);
+        publish(frame, generation, path);
+    }
+
+    /**
+     * Bucle del hilo escritor.
+     */
+    private void drain() {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed)
+                        wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.isEmpty())
+                    return;
+                frame = pending.pollFirst();
+                writing = true;
+            }
+            SimulationEvents.SnapshotWritten event = new SimulationEvents.SnapshotWritten();
+            event.begin();
+            try {
+                long bytes = sink.write(frame);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.simulation = source;
+                    event.generation = frame.generation;
+                    event.path = frame.path;
+                    event.format = sink.getFormat();
+                    event.bytes = bytes;
+                    event.commit();
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                written++;
+                writing = false;
+                free.addLast(frame);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Espera a que se hayan escrito todas las instantáneas encoladas.
+     */
+    public synchronized void flush() {
+        try {
+            while (!pending.isEmpty() || writing)
+                wait();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Escribe las instantáneas pendientes, detiene el hilo escritor y cierra el destino.
+     */
+    @Override
+    public void close() {
+        flush();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+            sink.close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Resume lo que ha hecho el pipeline.
+     * @return Una línea con las instantáneas escritas, descartadas y combinadas.
+     */
+    public synchronized String describe() {
+        return "Instantaneas (" + policy.name().toLowerCase() + "): " + submitted + " pedidas, " + written
+                + " escritas, " + dropped + " descartadas, " + coalesced + " combinadas, "
+                + String.format("%.1f", blockedNanos / 1e6) + " ms de espera";
+    }
+}
@@ -0,0 +1,285 @@
+
+/**
+ * @file SweepRunner.java
+ * @author Yeray Doello Gonzalez
+ * @brief Ejecución concurrente de barridos de escenarios y parámetros
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ejecuta un barrido de simulaciones repartiendo las ejecuciones entre los
+ * núcleos disponibles. El barrido puede ser una lista de escenarios de la
+ * carpeta presets o el producto cartesiano de rangos de Pmax y de las
+ * probabilidades de muerte, proliferación, migración y creación de STC
+ * aplicados sobre un escenario base.
+ *
+ * El reparto prefiere ejecutar simulaciones completas en paralelo (sin
+ * barreras ni bloqueos entre hilos) y solo da varios hilos a cada simulación
+ * cuando hay menos ejecuciones que núcleos. Cada resultado se escribe en
+ * cuanto termina su simulación.
+ *
+ * Uso: java SweepRunner [opciones]
+ *   --presets all|1,3,5-8    escenarios del menú a ejecutar
+ *   --base N                 escenario base para los rangos (por defecto 1)
+ *   --pmax a:b:paso          rango de Pmax (también valores sueltos: 10,15,20)
+ *   --death a:b:paso         rango de la probabilidad de muerte espontánea
+ *   --proliferation a:b:paso rango de la probabilidad de proliferación
+ *   --migration a:b:paso     rango de la probabilidad de migración
+ *   --stc a:b:paso           rango de la probabilidad de creación de STC
+ *   --generations G          sustituye el número de generaciones de los escenarios
+ *   --replicates R           ejecuciones por combinación (por defecto 1)
+ *   --threads T              hilos por simulación (por defecto automático)
+ *   --size S                 tamaño inicial de la retícula (por defecto 400)
+ *   --seed S                 semilla base (por defecto aleatoria)
+ *   --output fichero.csv     fichero de resultados (por defecto salida estándar)
+ */
+public class SweepRunner {
+    /**
+     * Una ejecución del barrido.
+     */
+    static class Run {
+        final ScenarioSettings settings;
+        final int replicate;
+        final long seed;
+
+        Run(ScenarioSettings settings, int replicate, long seed) {
+            this.settings = settings;
+            this.replicate = replicate;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Resultado de una ejecución.
+     */
+    static class Result {
+        final Run run;
+        final Simulation simulation;
+        final long time;
+
+        Result(Run run, Simulation simulation, long time) {
+            this.run = run;
+            this.simulation = simulation;
+            this.time = time;
+        }
+    }
+
+    public static final String CSV_HEADER = "escenario,pmax,muerte,proliferacion,migracion,stc,replica,semilla,hilos,"
+            + "generaciones,tamano,rtc,stc_celulas,tiempo_ms";
+
+    private final List<Run> runs = new ArrayList<>();
+    private int threadsPerRun = 0;
+    private int size = 400;
+
+    /**
+     * Añade una ejecución al barrido.
+     * @param settings Los parámetros del escenario.
+     * @param replicate El número de réplica.
+     * @param seed La semilla de la ejecución.
+     */
+    public void add(ScenarioSettings settings, int replicate, long seed) {
+        runs.add(new Run(settings, replicate, seed));
+    }
+
+    public void setThreadsPerRun(int threadsPerRun) {
+        this.threadsPerRun = threadsPerRun;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Decide cuántos hilos recibe cada simulación: uno si hay al menos tantas
+     * ejecuciones como núcleos y, si no, los núcleos repartidos entre ellas.
+     * @param cores El número de núcleos disponibles.
+     * @return El número de hilos por simulación.
+     */
+    int threadsPerRun(int cores) {
+        if (threadsPerRun > 0)
+            return threadsPerRun;
+        return Math.max(1, cores / Math.max(1, runs.size()));
+    }
+
+    /**
+     * Ejecuta el barrido y escribe una línea CSV por ejecución según van terminando.
+     * @param out Destino de los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de las ejecuciones.
+     */
+    public void execute(PrintWriter out) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = threadsPerRun(cores);
+        int parallelRuns = Math.max(1, cores / threads);
+        System.err.println("Barrido de " + runs.size() + " ejecuciones: " + parallelRuns
+                + " simulaciones a la vez con " + threads + " hilos cada una (" + cores + " nucleos)");
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelRuns);
+        ExecutorCompletionService<Result> completion = new ExecutorCompletionService<>(pool);
+        for (Run run : runs) {
+            completion.submit(() -> {
+                Simulation simulation = new Simulation(run.settings, threads, size, run.seed);
+                long start = System.currentTimeMillis();
+                simulation.run();
+                return new Result(run, simulation, System.currentTimeMillis() - start);
+            });
+        }
+        out.println(CSV_HEADER);
+        out.flush();
+        for (int k = 0; k < runs.size(); k++) {
+            try {
+                out.println(csv(completion.take().get()));
+                out.flush();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Convierte un resultado en una línea CSV.
+     */
+    static String csv(Result result) {
+        ScenarioSettings s = result.run.settings;
+        int[] counts = result.simulation.countCells();
+        return s.name + "," + s.cell_proliferation_potential_max + "," + s.chance_spontaneous_death + ","
+                + s.chance_proliferation + "," + s.chance_migration + "," + s.chance_STC_creation + ","
+                + result.run.replicate + "," + result.run.seed + "," + result.simulation.getNumThreads() + ","
+                + result.simulation.getGeneration() + "," + result.simulation.getSize() + "," + counts[0] + ","
+                + counts[1] + "," + result.time;
+    }
+
+    /**
+     * Interpreta una lista de valores ("10,15,20") o un rango ("10:20:5").
+     * @param spec La especificación.
+     * @return Los valores.
+     */
+    static double[] parseValues(String spec) {
+        if (spec.contains(":")) {
+            String[] parts = spec.split(":");
+            double from = Double.parseDouble(parts[0]);
+            double to = Double.parseDouble(parts[1]);
+            double step = parts.length > 2 ? Double.parseDouble(parts[2]) : 1;
+            if (step <= 0)
+                throw new IllegalArgumentException("El paso del rango debe ser positivo: " + spec);
+            int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+            double[] values = new double[Math.max(0, count)];
+            for (int k = 0; k < values.length; k++)
+                values[k] = from + k * step;
+            return values;
+        }
+        String[] parts = spec.split(",");
+        double[] values = new double[parts.length];
+        for (int k = 0; k < parts.length; k++)
+            values[k] = Double.parseDouble(parts[k]);
+        return values;
+    }
+
+    /**
+     * Interpreta la lista de escenarios del menú ("all", "1,3,5-8").
+     * @param spec La especificación.
+     * @return Los números de escenario (1-21).
+     */
+    static List<Integer> parsePresets(String spec) {
+        List<Integer> presets = new ArrayList<>();
+        if (spec.equals("all")) {
+            for (int k = 1; k <= ScenarioSettings.SCENARIOS.length; k++)
+                presets.add(k);
+            return presets;
+        }
+        for (String part : spec.split(",")) {
+            if (part.contains("-")) {
+                String[] bounds = part.split("-");
+                for (int k = Integer.parseInt(bounds[0]); k <= Integer.parseInt(bounds[1]); k++)
+                    presets.add(k);
+            } else
+                presets.add(Integer.parseInt(part));
+        }
+        return presets;
+    }
+
+    /**
+     * Lee las opciones, construye el barrido y lo ejecuta.
+     * @param args Argumentos de línea de comandos.
+     * @throws IOException Si no se puede leer un escenario o escribir los resultados.
+     * @throws InterruptedException Si se interrumpe la espera de las ejecuciones.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String presets = null;
+        int base = 1;
+        String pmax = null, death = null, proliferation = null, migration = null, stc = null;
+        int generations = 0;
+        int replicates = 1;
+        long seed = System.nanoTime();
+        String output = null;
+        SweepRunner sweep = new SweepRunner();
+
+        for (int k = 0; k < args.length; k++) {
+            String value = k + 1 < args.length ? args[k + 1] : "";
+            switch (args[k]) {
+                case "--presets": presets = value; k++; break;
+                case "--base": base = Integer.parseInt(value); k++; break;
+                case "--pmax": pmax = value; k++; break;
+                case "--death": death = value; k++; break;
+                case "--proliferation": proliferation = value; k++; break;
+                case "--migration": migration = value; k++; break;
+                case "--stc": stc = value; k++; break;
+                case "--generations": generations = Integer.parseInt(value); k++; break;
+                case "--replicates": replicates = Integer.parseInt(value); k++; break;
+                case "--threads": sweep.setThreadsPerRun(Integer.parseInt(value)); k++; break;
+                case "--size": sweep.setSize(Integer.parseInt(value)); k++; break;
+                case "--seed": seed = Long.parseLong(value); k++; break;
+                case "--output": output = value; k++; break;
+                default:
+                    System.err.println("Opcion desconocida: " + args[k]);
+                    System.exit(1);
+            }
+        }
+
+        List<ScenarioSettings> scenarios = new ArrayList<>();
+        if (presets != null) {
+            for (int p : parsePresets(presets))
+                scenarios.add(ScenarioSettings.load(p));
+        } else {
+            ScenarioSettings b = ScenarioSettings.load(base);
+            double[] pmaxValues = pmax != null ? parseValues(pmax) : new double[] { b.cell_proliferation_potential_max };
+            double[] deathValues = death != null ? parseValues(death) : new double[] { b.chance_spontaneous_death };
+            double[] proliferationValues = proliferation != null ? parseValues(proliferation)
+                    : new double[] { b.chance_proliferation };
+            double[] migrationValues = migration != null ? parseValues(migration) : new double[] { b.chance_migration };
+            double[] stcValues = stc != null ? parseValues(stc) : new double[] { b.chance_STC_creation };
+            for (double pm : pmaxValues)
+                for (double d : deathValues)
+                    for (double p : proliferationValues)
+                        for (double m : migrationValues)
+                            for (double s : stcValues)
+                                scenarios.add(new ScenarioSettings(b.name, b.generations, (int) pm, (float) d,
+                                        (int) p, (int) m, (int) s, b.starter_cell_is_STC));
+        }
+
+        long runSeed = seed;
+        for (ScenarioSettings s : scenarios)
+            for (int r = 0; r < replicates; r++)
+                sweep.add(generations > 0 ? s.withGenerations(generations) : s, r, runSeed++);
+
+        PrintWriter out = output != null ? new PrintWriter(new FileWriter(output)) : new PrintWriter(System.out);
+        long start = System.currentTimeMillis();
+        sweep.execute(out);
+        if (output != null)
+            out.close();
+        System.err.println("Tiempo total del barrido: " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * @file TilePyramidFrameSink.java
+ * @author Yeray Doello Gonzalez
+ * @brief Exportación de instantáneas como pirámide de teselas
+ */
+
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Guarda cada instantánea como una pirámide de teselas PNG de TILE x TILE
+ * píxeles, para poder explorar dominios demasiado grandes para una sola imagen
+ * con un visor de mapas (disposición z/x/y.png). El nivel más profundo tiene
+ * las celdas a resolución completa, con los colores de printGrid; en cada nivel
+ * anterior un píxel resume un bloque de 2 x 2 píxeles del siguiente, coloreado
+ * según la densidad de población del bloque (de blanco, vacío, a rojo oscuro,
+ * lleno). El nivel 0 cabe en una sola tesela.
+ *
+ * Todo se genera en una sola pasada sobre la retícula, por franjas de TILE filas
+ * de la imagen: cada franja produce sus teselas a resolución completa y suma sus
+ * células ocupadas en una franja de recuentos por nivel, que se escribe cuando
+ * se completa. Nunca se construye la imagen entera; en memoria solo están la
+ * franja actual y una franja de recuentos por nivel.
+ *
+ * Las teselas vacías no se escriben (el visor muestra el fondo blanco). Cada
+ * pirámide va en el directorio ruta_tiles/ de la instantánea, con un
+ * pyramid.json que describe el tamaño, los niveles y la generación.
+ */
+public class TilePyramidFrameSink implements FrameSink {
+    public static final int TILE = 256;
+
+    private final IndexColorModel cells;
+    private final IndexColorModel density;
+    private final byte[] strip = new byte[TILE * TILE];
+    private byte[] rows = new byte[0];
+    private long bytes;
+
+    /**
+     * Constructor de la clase TilePyramidFrameSink.
+     * @param pmax El potencial de proliferación máximo del escenario.
+     */
+    public TilePyramidFrameSink(int pmax) {
+        this.cells = IndexedGridImage.colorModel(pmax);
+        this.density = densityModel();
+    }
+
+    /**
+     * Paleta de densidad: el índice 0 es un bloque vacío (blanco) y 255 uno lleno (rojo oscuro).
+     */
+    static IndexColorModel densityModel() {
+        int[] lut = new int[256];
+        lut[0] = 0xFFFFFFFF;
+        for (int d = 1; d < 256; d++) {
+            int fade = 230 * (255 - d) / 254;
+            int red = 255 - 100 * d / 255;
+            lut[d] = 0xFF000000 | red << 16 | fade << 8 | fade;
+        }
+        return new IndexColorModel(8, 256, lut, 0, false, -1, DataBuffer.TYPE_BYTE);
+    }
+
+    /**
+     * Devuelve el número de niveles de una retícula: el último a resolución
+     * completa y el 0 en una sola tesela.
+     * @param size El lado de la retícula.
+     */
+    public static int levels(int size) {
+        int levels = 1;
+        while ((size - 1 >> levels - 1) >= TILE)
+            levels++;
+        return levels;
+    }
+
+    /**
+     * Recuentos de células ocupadas de un nivel reducido, para una franja de TILE filas del nivel.
+     */
+    private static final class Level {
+        final int z;
+        final int shift;
+        final int width;
+        final int[] counts;
+        int band;
+
+        Level(int z, int shift, int size) {
+            this.z = z;
+            this.shift = shift;
+            this.width = (size + (1 << shift) - 1) >> shift;
+            this.counts = new int[TILE * width];
+        }
+    }
+
+    @Override
+    public long write(SnapshotPipeline.Frame frame) throws IOException {
+        int size = frame.getSize();
+        String base = frame.getPath().endsWith(".png")
+                ? frame.getPath().substring(0, frame.getPath().length() - 4)
+                : frame.getPath();
+        File dir = new File(base + "_tiles");
+        int levels = levels(size);
+        int full = levels - 1;
+        bytes = 0;
+
+        Level[] reduced = new Level[full];
+        for (int z = 0; z < full; z++)
+            reduced[z] = new Level(z, full - z, size);
+
+        ParallelPngWriter.RowSource source = ParallelPngWriter.columnsOf(frame.getCells(), size);
+        ParallelPngWriter cellWriter = new ParallelPngWriter(cells);
+        ParallelPngWriter densityWriter = new ParallelPngWriter(density);
+        if (rows.length < TILE * size)
+            rows = new byte[TILE * size];
+        for (int y0 = 0; y0 < size; y0 += TILE) {
+            int count = Math.min(TILE, size - y0);
+            source.read(y0, count, rows);
+
+            // Teselas a resolución completa de la franja
+            for (int x0 = 0; x0 < size; x0 += TILE) {
+                int w = Math.min(TILE, size - x0);
+                if (copyTile(rows, size, x0, w, count, strip))
+                    writeTile(cellWriter, dir, full, x0 / TILE, y0 / TILE, w, count, strip);
+            }
+
+            // Células ocupadas de la franja, por bloque de cada nivel reducido
+            for (int r = 0; r < count; r++) {
+                int y = y0 + r;
+                int off = r * size;
+                for (int x = 0; x < size; x++) {
+                    if (rows[off + x] == 0)
+                        continue;
+                    for (Level level : reduced)
+                        level.counts[((y >> level.shift) & (TILE - 1)) * level.width + (x >> level.shift)]++;
+                }
+            }
+
+            // Las franjas de recuentos completas se escriben y se vacían
+            int end = y0 + count;
+            for (Level level : reduced) {
+                int bandRows = TILE << level.shift;
+                if (end % bandRows == 0 || end == size) {
+                    flushLevel(densityWriter, dir, level, size);
+                    level.band++;
+                }
+            }
+        }
+
+        dir.mkdirs();
+        try (PrintWriter manifest = new PrintWriter(new FileWriter(new File(dir, "pyramid.json")))) {
+            manifest.println("{\"size\": " + size + ", \"tileSize\": " + TILE + ", \"levels\": " + levels
+                    + ", \"generation\": " + frame.getGeneration() + ", \"layout\": \"{z}/{x}/{y}.png\"}");
+        }
+        return bytes;
+    }
+
+    /**
+     * Copia una tesela de la franja al buffer de la tesela.
+     * @return false si la tesela está vacía.
+     */
+    private static boolean copyTile(byte[] rows, int width, int x0, int w, int h, byte[] tile) {
+        boolean any = false;
+        for (int r = 0; r < h; r++) {
+            int src = r * width + x0;
+            for (int c = 0; c < w; c++) {
+                byte v = rows[src + c];
+                tile[r * w + c] = v;
+                any |= v != 0;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Escribe las teselas de la franja actual de un nivel reducido y vacía sus recuentos.
+     */
+    private void flushLevel(ParallelPngWriter writer, File dir, Level level, int size) throws IOException {
+        int shift = level.shift;
+        int height = (size + (1 << shift) - 1) >> shift;
+        int h = Math.min(TILE, height - level.band * TILE);
+        double scale = 254.0 / (1 << 2 * shift);
+        for (int x0 = 0; x0 < level.width; x0 += TILE) {
+            int w = Math.min(TILE, level.width - x0);
+            boolean any = false;
+            for (int r = 0; r < h; r++) {
+                for (int c = 0; c < w; c++) {
+                    int n = level.counts[r * level.width + x0 + c];
+                    strip[r * w + c] = (byte) (n == 0 ? 0 : 1 + (int) (n * scale));
+                    any |= n != 0;
+                }
+            }
+            if (any)
+                writeTile(writer, dir, level.z, x0 / TILE, level.band, w, h, strip);
+        }
+        Arrays.fill(level.counts, 0);
+    }
+
+    private void writeTile(ParallelPngWriter writer, File dir, int z, int x, int y, int w, int h, byte[] tile)
+            throws IOException {
+        File column = new File(dir, z + File.separator + x);
+        column.mkdirs();
+        bytes += writer.write(new File(column, y + ".png").getPath(), w, h,
+                (row, count, dst) -> System.arraycopy(tile, row * w, dst, 0, count * w));
+    }
+
+    @Override
+    public String getFormat() {
+        return "tiles";
+    }
+}
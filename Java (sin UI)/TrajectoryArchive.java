@@ -0,0 +1,501 @@
+
+/**
+ * @file TrajectoryArchive.java
+ * @author Yeray Doello Gonzalez
+ * @brief Archivo binario con la trayectoria completa de una simulación
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Formato de archivo para la trayectoria de una simulación: todas las
+ * instantáneas de una ejecución en un solo fichero, con el valor real de cada
+ * celda (los PNG solo guardan el color) y mucho más rápido de escribir.
+ *
+ * Estructura (enteros en big-endian):
+ *
+ *   cabecera   MAGIC, VERSION, los parámetros del escenario y el intervalo entre fotogramas clave
+ *   frames     tipo (KEY o DELTA), generación, lado de la retícula, longitud y datos
+ *   índice     por frame: desplazamiento, generación, lado y tipo
+ *   pie        desplazamiento del índice, número de frames, INDEX_MAGIC
+ *
+ * Los datos de un frame son las celdas fila a fila (0 vacía, 1..pmax RTC,
+ * pmax + 1 STC), en un fotograma clave, o su XOR con el frame anterior, en un
+ * delta, codificados como pares (ceros que se saltan, bytes literales) con las
+ * longitudes en varint: como casi toda la retícula está vacía o no cambia, un
+ * delta ocupa poco más que las celdas que han cambiado. Hay un fotograma clave
+ * al principio, cada keyInterval frames y siempre que extend_domain cambia el
+ * tamaño, que queda así registrado en el frame y en el índice.
+ *
+ * El lector proyecta en memoria la cabecera, el índice y, al leer una
+ * generación, solo los datos de los frames desde el fotograma clave anterior,
+ * cada uno con su propia proyección: así el fichero puede superar los 2 GB que
+ * caben en un MappedByteBuffer. Si el fichero no tiene índice (la ejecución no
+ * terminó), recorre las cabeceras de los frames.
+ *
+ * Uso: java TrajectoryArchive archivo [generacion [salida.png]]
+ */
+public final class TrajectoryArchive {
+    public static final int MAGIC = 0x43415452; // "CATR"
+    public static final int INDEX_MAGIC = 0x43414958; // "CAIX"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_KEY_INTERVAL = 64;
+    public static final byte KEY = 0;
+    public static final byte DELTA = 1;
+
+    private static final int INDEX_ENTRY = 8 + 4 + 4 + 1;
+    private static final int FOOTER = 8 + 4 + 4;
+    private static final int FRAME_HEADER = 1 + 4 + 4 + 4;
+    // MAGIC, VERSION, nombre (hasta 65535 bytes), seis parámetros, la célula inicial y el intervalo
+    private static final int MAX_HEADER = 4 + 4 + 2 + 0xFFFF + 6 * 4 + 1 + 4;
+
+    private TrajectoryArchive() {
+    }
+
+    /**
+     * Escribe un archivo de trayectoria, frame a frame.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private final int keyInterval;
+        private long position;
+        private byte[] previous = new byte[0];
+        private int previousSize = -1;
+        private byte[] delta = new byte[0];
+        private byte[] encoded = new byte[0];
+        private long[] offsets = new long[64];
+        private int[] generations = new int[64];
+        private int[] sizes = new int[64];
+        private byte[] kinds = new byte[64];
+        private int frames;
+        private int sinceKey;
+        private long rawBytes;
+
+        /**
+         * Constructor de la clase Writer. Crea el fichero y escribe la cabecera.
+         * @param path La ruta del archivo.
+         * @param settings Los parámetros del escenario.
+         * @param keyInterval El número de frames entre dos fotogramas clave.
+         * @throws IOException Si no se puede crear el fichero.
+         */
+        public Writer(String path, ScenarioSettings settings, int keyInterval) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+            this.keyInterval = keyInterval;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(settings.name);
+            out.writeInt(settings.generations);
+            out.writeInt(settings.cell_proliferation_potential_max);
+            out.writeFloat(settings.chance_spontaneous_death);
+            out.writeInt(settings.chance_proliferation);
+            out.writeInt(settings.chance_migration);
+            out.writeInt(settings.chance_STC_creation);
+            out.writeBoolean(settings.starter_cell_is_STC);
+            out.writeInt(keyInterval);
+            position = out.size();
+        }
+
+        /**
+         * Añade un frame.
+         * @param cells Las celdas, fila a fila (se copian).
+         * @param size El lado de la retícula.
+         * @param generation La generación.
+         * @return Los bytes que ocupa el frame en el archivo.
+         * @throws IOException Si falla la escritura.
+         */
+        public long append(byte[] cells, int size, int generation) throws IOException {
+            int n = size * size;
+            boolean key = size != previousSize || sinceKey >= keyInterval;
+            byte[] data = cells;
+            if (!key) {
+                if (delta.length < n)
+                    delta = new byte[n];
+                for (int k = 0; k < n; k++)
+                    delta[k] = (byte) (cells[k] ^ previous[k]);
+                data = delta;
+            }
+            if (encoded.length < 2 * n + 16)
+                encoded = new byte[2 * n + 16];
+            int length = encode(data, n, encoded);
+
+            if (frames == offsets.length) {
+                int capacity = 2 * frames;
+                offsets = Arrays.copyOf(offsets, capacity);
+                generations = Arrays.copyOf(generations, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+            }
+            offsets[frames] = position;
+            generations[frames] = generation;
+            sizes[frames] = size;
+            kinds[frames] = key ? KEY : DELTA;
+            frames++;
+
+            out.writeByte(key ? KEY : DELTA);
+            out.writeInt(generation);
+            out.writeInt(size);
+            out.writeInt(length);
+            out.write(encoded, 0, length);
+            long bytes = 1 + 4 + 4 + 4 + length;
+            position += bytes;
+            rawBytes += n;
+
+            if (previous.length < n)
+                previous = new byte[n];
+            System.arraycopy(cells, 0, previous, 0, n);
+            previousSize = size;
+            sinceKey = key ? 1 : sinceKey + 1;
+            return bytes;
+        }
+
+        /**
+         * Devuelve el número de frames escritos.
+         */
+        public int getFrameCount() {
+            return frames;
+        }
+
+        /**
+         * Resume el archivo escrito.
+         * @return Una línea con los frames y la compresión.
+         */
+        public String describe() {
+            return frames + " frames, " + position + " bytes (" + String.format("%.1f", rawBytes / (double) Math.max(1, position))
+                    + ":1 frente a las celdas sin comprimir)";
+        }
+
+        /**
+         * Escribe el índice y el pie, y cierra el fichero.
+         * @throws IOException Si falla la escritura.
+         */
+        @Override
+        public void close() throws IOException {
+            long indexOffset = position;
+            for (int k = 0; k < frames; k++) {
+                out.writeLong(offsets[k]);
+                out.writeInt(generations[k]);
+                out.writeInt(sizes[k]);
+                out.writeByte(kinds[k]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(frames);
+            out.writeInt(INDEX_MAGIC);
+            out.close();
+        }
+    }
+
+    /**
+     * Lee un archivo de trayectoria proyectando en memoria las partes que necesita.
+     */
+    public static final class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final ScenarioSettings settings;
+        private final int keyInterval;
+        private long[] offsets;
+        private int[] generations;
+        private int[] sizes;
+        private byte[] kinds;
+        private int frames;
+        private boolean indexed;
+
+        /**
+         * Constructor de la clase Reader. Abre el archivo y lee la cabecera y el índice.
+         * @param path La ruta del archivo.
+         * @throws IOException Si no se puede leer o no es un archivo de trayectoria.
+         */
+        public Reader(String path) throws IOException {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                long length = channel.size();
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, MAX_HEADER));
+                if (length < 8 || header.getInt(0) != MAGIC)
+                    throw new IOException("No es un archivo de trayectoria: " + path);
+                int version = header.getInt(4);
+                if (version != VERSION)
+                    throw new IOException("Version de archivo no soportada: " + version);
+                header.position(8);
+                byte[] name = new byte[header.getShort() & 0xFFFF];
+                header.get(name);
+                settings = new ScenarioSettings(new String(name, StandardCharsets.UTF_8), header.getInt(),
+                        header.getInt(), header.getFloat(), header.getInt(), header.getInt(), header.getInt(),
+                        header.get() != 0);
+                keyInterval = header.getInt();
+                if (!readIndex(length))
+                    scan(header.position(), length);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Lee el índice del final del archivo.
+         * @return false si el archivo no tiene pie (no se cerró).
+         */
+        private boolean readIndex(long length) throws IOException {
+            if (length < FOOTER)
+                return false;
+            MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, length - FOOTER, FOOTER);
+            if (footer.getInt(FOOTER - 4) != INDEX_MAGIC)
+                return false;
+            long indexOffset = footer.getLong(0);
+            int count = footer.getInt(8);
+            if (count < 0 || indexOffset < 0 || indexOffset + (long) count * INDEX_ENTRY + FOOTER != length)
+                return false;
+            allocate(count);
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) count * INDEX_ENTRY);
+            for (int k = 0; k < count; k++) {
+                offsets[k] = index.getLong();
+                generations[k] = index.getInt();
+                sizes[k] = index.getInt();
+                kinds[k] = index.get();
+            }
+            frames = count;
+            indexed = true;
+            return true;
+        }
+
+        /**
+         * Reconstruye el índice recorriendo las cabeceras de los frames, hasta el
+         * primero incompleto.
+         */
+        private void scan(long start, long end) throws IOException {
+            allocate(64);
+            ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER);
+            long offset = start;
+            while (end - offset >= FRAME_HEADER) {
+                record.clear();
+                readFully(record, offset);
+                byte kind = record.get(0);
+                int generation = record.getInt(1);
+                int size = record.getInt(5);
+                int length = record.getInt(9);
+                if ((kind != KEY && kind != DELTA) || length < 0 || length > end - offset - FRAME_HEADER)
+                    break;
+                if (frames == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * frames);
+                    generations = Arrays.copyOf(generations, 2 * frames);
+                    sizes = Arrays.copyOf(sizes, 2 * frames);
+                    kinds = Arrays.copyOf(kinds, 2 * frames);
+                }
+                offsets[frames] = offset;
+                generations[frames] = generation;
+                sizes[frames] = size;
+                kinds[frames] = kind;
+                frames++;
+                offset += FRAME_HEADER + length;
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0)
+                    throw new IOException("Fin de archivo inesperado en " + position);
+            }
+        }
+
+        private void allocate(int capacity) {
+            offsets = new long[Math.max(1, capacity)];
+            generations = new int[Math.max(1, capacity)];
+            sizes = new int[Math.max(1, capacity)];
+            kinds = new byte[Math.max(1, capacity)];
+        }
+
+        public ScenarioSettings getSettings() {
+            return settings;
+        }
+
+        public int getKeyInterval() {
+            return keyInterval;
+        }
+
+        public int getFrameCount() {
+            return frames;
+        }
+
+        /**
+         * Indica si el índice se ha leído del archivo o se ha reconstruido.
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        public int getGeneration(int frame) {
+            return generations[frame];
+        }
+
+        public int getSize(int frame) {
+            return sizes[frame];
+        }
+
+        public boolean isKeyFrame(int frame) {
+            return kinds[frame] == KEY;
+        }
+
+        /**
+         * Busca el frame de una generación.
+         * @param generation La generación.
+         * @return El índice del frame, o -1 si esa generación no está en el archivo.
+         */
+        public int indexOf(int generation) {
+            int k = Arrays.binarySearch(generations, 0, frames, generation);
+            return k >= 0 ? k : -1;
+        }
+
+        /**
+         * Decodifica un frame a partir del fotograma clave anterior.
+         * @param frame El índice del frame.
+         * @return Las celdas, fila a fila, con getSize(frame) de lado.
+         * @throws IOException Si no se pueden proyectar los datos de un frame.
+         */
+        public byte[] read(int frame) throws IOException {
+            int key = frame;
+            while (kinds[key] != KEY)
+                key--;
+            int n = sizes[frame] * sizes[frame];
+            byte[] cells = new byte[n];
+            for (int k = key; k <= frame; k++)
+                decode(payload(k), n, cells, kinds[k] == DELTA);
+            return cells;
+        }
+
+        /**
+         * Proyecta los datos de un frame, que pueden estar en cualquier punto del archivo.
+         */
+        private ByteBuffer payload(int frame) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offsets[frame] + FRAME_HEADER - 4);
+            return channel.map(FileChannel.MapMode.READ_ONLY, offsets[frame] + FRAME_HEADER, length.getInt(0));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Codifica las celdas como pares (ceros, literales) con las longitudes en varint.
+     * @return La longitud de los datos codificados.
+     */
+    static int encode(byte[] data, int n, byte[] out) {
+        int pos = 0;
+        int k = 0;
+        while (k < n) {
+            int zeros = k;
+            while (k < n && data[k] == 0)
+                k++;
+            zeros = k - zeros;
+            int start = k;
+            while (k < n && data[k] != 0)
+                k++;
+            pos = putVarint(out, pos, zeros);
+            pos = putVarint(out, pos, k - start);
+            System.arraycopy(data, start, out, pos, k - start);
+            pos += k - start;
+        }
+        return pos;
+    }
+
+    /**
+     * Decodifica un frame sobre las celdas: los literales se copian en un
+     * fotograma clave y se combinan con XOR en un delta.
+     */
+    static void decode(ByteBuffer in, int n, byte[] cells, boolean xor) {
+        if (!xor)
+            Arrays.fill(cells, 0, n, (byte) 0);
+        int k = 0;
+        while (in.hasRemaining()) {
+            k += getVarint(in);
+            int count = getVarint(in);
+            if (xor) {
+                for (int end = k + count; k < end; k++)
+                    cells[k] ^= in.get();
+            } else {
+                in.get(cells, k, count);
+                k += count;
+            }
+        }
+    }
+
+    private static int putVarint(byte[] out, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[pos++] = (byte) (v & 0x7F | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int getVarint(ByteBuffer in) {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+        }
+    }
+
+    /**
+     * Muestra el contenido de un archivo o exporta una generación a PNG.
+     * @param args El archivo, y opcionalmente la generación y el PNG de salida.
+     * @throws IOException Si no se puede leer el archivo o escribir la imagen.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Uso: java TrajectoryArchive archivo [generacion [salida.png]]");
+            return;
+        }
+        try (Reader reader = new Reader(args[0])) {
+            int frames = reader.getFrameCount();
+            if (args.length == 1) {
+                int keys = 0;
+                for (int k = 0; k < frames; k++)
+                    if (reader.isKeyFrame(k))
+                        keys++;
+                System.out.println(reader.getSettings());
+                System.out.println(frames + " frames (" + keys + " clave), indice "
+                        + (reader.isIndexed() ? "completo" : "reconstruido"));
+                if (frames > 0)
+                    System.out.println("Generaciones " + reader.getGeneration(0) + " a "
+                            + reader.getGeneration(frames - 1) + ", lado " + reader.getSize(0) + " a "
+                            + reader.getSize(frames - 1));
+                return;
+            }
+            int generation = Integer.parseInt(args[1]);
+            int frame = reader.indexOf(generation);
+            if (frame < 0) {
+                System.out.println("La generacion " + generation + " no esta en el archivo");
+                System.exit(1);
+            }
+            byte[] cells = reader.read(frame);
+            int size = reader.getSize(frame);
+            int pmax = reader.getSettings().cell_proliferation_potential_max;
+            int rtc = 0, stc = 0;
+            for (byte c : cells) {
+                if (c > pmax)
+                    stc++;
+                else if (c > 0)
+                    rtc++;
+            }
+            System.out.println("Generacion " + generation + ": lado " + size + ", " + rtc + " RTC, " + stc + " STC");
+            if (args.length > 2) {
+                new ParallelPngWriter(IndexedGridImage.colorModel(pmax)).write(args[2], size, size,
+                        ParallelPngWriter.columnsOf(cells, size));
+                System.out.println("Imagen guardada en " + args[2]);
+            }
+        }
+    }
+}
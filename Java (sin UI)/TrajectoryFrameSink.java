@@ -0,0 +1,71 @@
+
+/**
+ * @file TrajectoryFrameSink.java
+ * @author Yeray Doello Gonzalez
+ * @brief Escritura de instantáneas en archivos de trayectoria
+ */
+
+import java.io.IOException;
+
+/**
+ * Guarda las instantáneas en un {@link TrajectoryArchive} en lugar de un PNG por
+ * generación. Las rutas de los frames siguen siendo las de los PNG
+ * (prefijo_generacion.png); todas las de un mismo prefijo van al archivo
+ * prefijo.trajectory. Si la generación retrocede (otra ejecución con el mismo
+ * prefijo), el archivo se vuelve a empezar, igual que se sobrescribían los PNG.
+ */
+public class TrajectoryFrameSink implements FrameSink {
+    public static final String EXTENSION = ".trajectory";
+
+    private final ScenarioSettings settings;
+    private final int keyInterval;
+    private TrajectoryArchive.Writer writer;
+    private String path;
+    private int lastGeneration;
+
+    /**
+     * Constructor de la clase TrajectoryFrameSink.
+     * @param settings Los parámetros del escenario, para la cabecera.
+     * @param keyInterval El número de frames entre dos fotogramas clave.
+     */
+    public TrajectoryFrameSink(ScenarioSettings settings, int keyInterval) {
+        this.settings = settings;
+        this.keyInterval = keyInterval;
+    }
+
+    /**
+     * Devuelve la ruta del archivo de una instantánea: la suya sin "_generacion.png".
+     * @param framePath La ruta de la instantánea.
+     */
+    public static String archivePath(String framePath) {
+        return FrameSink.runPrefix(framePath) + EXTENSION;
+    }
+
+    @Override
+    public long write(SnapshotPipeline.Frame frame) throws IOException {
+        String target = archivePath(frame.getPath());
+        if (writer != null && (!target.equals(path) || frame.getGeneration() <= lastGeneration)) {
+            writer.close();
+            writer = null;
+        }
+        if (writer == null) {
+            writer = new TrajectoryArchive.Writer(target, settings, keyInterval);
+            path = target;
+        }
+        lastGeneration = frame.getGeneration();
+        return writer.append(frame.getCells(), frame.getSize(), frame.getGeneration());
+    }
+
+    @Override
+    public String getFormat() {
+        return "trajectory";
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+
+/**
+ * @file WorkloadGenerator.java
+ * @author Yeray Doello Gonzalez
+ * @brief Generación de tumores ya crecidos como estado inicial de pruebas de rendimiento
+ */
+
+import java.io.File;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Crea retículas con un tumor de fase avanzada en lugar de una única célula en
+ * el centro, para medir el bucle principal con densidades realistas sin pasar
+ * por la fase inicial dispersa. Hay cuatro patrones:
+ *
+ *   DISC        disco relleno con la densidad indicada
+ *   RING        anillo (la corona exterior del disco, de grosor relativo thickness)
+ *   BLOB        masa de borde irregular y densidad variable
+ *   MULTIFOCUS  varios focos circulares repartidos alrededor del centro
+ *
+ * El radio es una fracción del tamaño de la retícula. Cada célula ocupada es STC
+ * con probabilidad stcFraction y, si no, RTC con un potencial de proliferación
+ * aleatorio entre 1 y Pmax.
+ *
+ * El valor de cada celda se obtiene de un hash de (semilla, i, j), sin estado
+ * compartido, así que las filas se generan en paralelo y el resultado no depende
+ * del número de hilos ni del tipo de retícula: se puede escribir en byte[][],
+ * char[][], int[][] o en cualquier otro destino a través de {@link CellSink}.
+ *
+ * Uso: java WorkloadGenerator [patron] [tamano] [radio] [densidad] [fraccion STC] [semilla]
+ */
+public class WorkloadGenerator {
+    public enum Pattern { DISC, RING, BLOB, MULTIFOCUS }
+
+    /**
+     * Destino de las células generadas.
+     */
+    public interface CellSink {
+        void set(int i, int j, int value);
+    }
+
+    private final Pattern pattern;
+    private double radius = 0.4;
+    private double density = 0.7;
+    private double stcFraction = 0.05;
+    private double thickness = 0.2;
+    private int foci = 5;
+    private long seed = 42;
+
+    /**
+     * Constructor de la clase WorkloadGenerator.
+     * @param pattern El patrón del tumor.
+     */
+    public WorkloadGenerator(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    public void setRadius(double radius) {
+        this.radius = radius;
+    }
+
+    public void setDensity(double density) {
+        this.density = density;
+    }
+
+    public void setStcFraction(double stcFraction) {
+        this.stcFraction = stcFraction;
+    }
+
+    public void setThickness(double thickness) {
+        this.thickness = thickness;
+    }
+
+    public void setFoci(int foci) {
+        this.foci = foci;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Geometría del patrón para un tamaño de retícula concreto.
+     */
+    private final class Shape {
+        final int size;
+        final int pmax;
+        final double center;
+        final double r;
+        final double[] phases = new double[4];
+        final double[] fociI;
+        final double[] fociJ;
+        final double fociR;
+
+        Shape(int size, int pmax) {
+            this.size = size;
+            this.pmax = pmax;
+            this.center = size / 2;
+            this.r = radius * size;
+            SplittableRandom random = new SplittableRandom(seed);
+            for (int k = 0; k < phases.length; k++)
+                phases[k] = random.nextDouble(2 * Math.PI);
+            int n = pattern == Pattern.MULTIFOCUS ? Math.max(1, foci) : 0;
+            fociI = new double[n];
+            fociJ = new double[n];
+            fociR = r * 0.3;
+            for (int k = 0; k < n; k++) {
+                // Centros dentro del disco de radio r - fociR
+                double angle = random.nextDouble(2 * Math.PI);
+                double distance = (r - fociR) * Math.sqrt(random.nextDouble());
+                fociI[k] = center + distance * Math.sin(angle);
+                fociJ[k] = center + distance * Math.cos(angle);
+            }
+        }
+
+        /**
+         * Probabilidad de que la celda (i, j) esté ocupada.
+         */
+        double occupancy(int i, int j) {
+            double di = i - center, dj = j - center;
+            double d2 = di * di + dj * dj;
+            switch (pattern) {
+                case DISC:
+                    return d2 <= r * r ? density : 0;
+                case RING: {
+                    double inner = r * (1 - thickness);
+                    return d2 <= r * r && d2 >= inner * inner ? density : 0;
+                }
+                case BLOB: {
+                    // Borde modulado por armónicos del ángulo y densidad que varía suavemente
+                    double angle = Math.atan2(di, dj);
+                    double edge = r * (0.8 + 0.08 * Math.sin(2 * angle + phases[0]) + 0.06 * Math.sin(3 * angle + phases[1])
+                            + 0.04 * Math.sin(5 * angle + phases[2]));
+                    if (d2 > edge * edge)
+                        return 0;
+                    double wave = Math.cos(i * 6.0 / r + phases[3]) * Math.cos(j * 6.0 / r + phases[0]);
+                    return density * (0.6 + 0.4 * wave);
+                }
+                default:
+                    for (int k = 0; k < fociI.length; k++) {
+                        double fi = i - fociI[k], fj = j - fociJ[k];
+                        if (fi * fi + fj * fj <= fociR * fociR)
+                            return density;
+                    }
+                    return 0;
+            }
+        }
+
+        /**
+         * Valor de la celda (i, j): 0 si está vacía, 1..pmax para una RTC y pmax + 1 para una STC.
+         */
+        int cell(int i, int j) {
+            double p = occupancy(i, j);
+            if (p <= 0)
+                return 0;
+            long h = hash(i, j);
+            if ((h >>> 40) * 0x1.0p-24 >= p)
+                return 0;
+            if (((h >>> 16) & 0xFFFFFF) * 0x1.0p-24 < stcFraction)
+                return pmax + 1;
+            return 1 + (int) ((h & 0xFFFF) % pmax);
+        }
+
+        int firstRow() {
+            return Math.max(0, (int) Math.floor(center - r));
+        }
+
+        int lastRow() {
+            return Math.min(size - 1, (int) Math.ceil(center + r));
+        }
+    }
+
+    private long hash(int i, int j) {
+        long z = seed + i * 0x9e3779b97f4a7c15L + j * 0xc2b2ae3d27d4eb4fL;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Escribe el tumor en un destino cualquiera. Solo se llama al destino para las
+     * celdas ocupadas.
+     * @param size El tamaño de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @param sink El destino.
+     */
+    public void fill(int size, int pmax, CellSink sink) {
+        Shape shape = new Shape(size, pmax);
+        int from = shape.firstRow(), to = shape.lastRow();
+        for (int i = from; i <= to; i++)
+            for (int j = from; j <= to; j++) {
+                int value = shape.cell(i, j);
+                if (value != 0)
+                    sink.set(i, j, value);
+            }
+    }
+
+    /**
+     * Crea una retícula de tipo byte con el tumor, generando las filas en paralelo.
+     * @param size El tamaño de la retícula.
+     * @param pmax El potencial de proliferación máximo (pmax + 1 debe caber en un byte).
+     * @return La retícula.
+     */
+    public byte[][] byteGrid(int size, int pmax) {
+        Shape shape = new Shape(size, pmax);
+        byte[][] grid = new byte[size][size];
+        int from = shape.firstRow(), to = shape.lastRow();
+        IntStream.rangeClosed(from, to).parallel().forEach(i -> {
+            byte[] row = grid[i];
+            for (int j = from; j <= to; j++)
+                row[j] = (byte) shape.cell(i, j);
+        });
+        return grid;
+    }
+
+    /**
+     * Crea una retícula de tipo char con el tumor, generando las filas en paralelo.
+     * @param size El tamaño de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @return La retícula.
+     */
+    public char[][] charGrid(int size, int pmax) {
+        Shape shape = new Shape(size, pmax);
+        char[][] grid = new char[size][size];
+        int from = shape.firstRow(), to = shape.lastRow();
+        IntStream.rangeClosed(from, to).parallel().forEach(i -> {
+            char[] row = grid[i];
+            for (int j = from; j <= to; j++)
+                row[j] = (char) shape.cell(i, j);
+        });
+        return grid;
+    }
+
+    /**
+     * Crea una retícula de tipo int con el tumor, generando las filas en paralelo.
+     * @param size El tamaño de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @return La retícula.
+     */
+    public int[][] intGrid(int size, int pmax) {
+        Shape shape = new Shape(size, pmax);
+        int[][] grid = new int[size][size];
+        int from = shape.firstRow(), to = shape.lastRow();
+        IntStream.rangeClosed(from, to).parallel().forEach(i -> {
+            int[] row = grid[i];
+            for (int j = from; j <= to; j++)
+                row[j] = shape.cell(i, j);
+        });
+        return grid;
+    }
+
+    /**
+     * Crea una retícula del tipo de celda indicado.
+     * @param cellType "byte", "char" o "int".
+     * @param size El tamaño de la retícula.
+     * @param pmax El potencial de proliferación máximo.
+     * @return La retícula (byte[][], char[][] o int[][]).
+     */
+    public Object grid(String cellType, int size, int pmax) {
+        switch (cellType) {
+            case "byte":
+                return byteGrid(size, pmax);
+            case "char":
+                return charGrid(size, pmax);
+            case "int":
+                return intGrid(size, pmax);
+            default:
+                throw new IllegalArgumentException("Tipo de celda desconocido: " + cellType);
+        }
+    }
+
+    /**
+     * Sustituye el estado de una simulación por el tumor generado a su tamaño actual.
+     * @param simulation Una simulación detenida.
+     */
+    public void apply(Simulation simulation) {
+        simulation.setInitialState(byteGrid(simulation.getSize(), simulation.getSettings().cell_proliferation_potential_max));
+    }
+
+    /**
+     * Genera un tumor, muestra cuánto ha tardado y cuántas células tiene, y guarda una imagen.
+     * @param args Argumentos de línea de comandos.
+     */
+    public static void main(String[] args) {
+        Pattern pattern = args.length > 0 ? Pattern.valueOf(args[0].toUpperCase()) : Pattern.DISC;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        WorkloadGenerator generator = new WorkloadGenerator(pattern);
+        if (args.length > 2)
+            generator.setRadius(Double.parseDouble(args[2]));
+        if (args.length > 3)
+            generator.setDensity(Double.parseDouble(args[3]));
+        if (args.length > 4)
+            generator.setStcFraction(Double.parseDouble(args[4]));
+        if (args.length > 5)
+            generator.setSeed(Long.parseLong(args[5]));
+
+        ScenarioSettings settings = new ScenarioSettings("workload_" + pattern.name().toLowerCase(), 0, 10, 0, 0, 0, 0,
+                true);
+        Simulation simulation = new Simulation(settings, 1, size, generator.seed);
+        long start = System.currentTimeMillis();
+        generator.apply(simulation);
+        long time = System.currentTimeMillis() - start;
+        int[] counts = simulation.countCells();
+        System.out.println(pattern + " " + size + "x" + size + ": RTC=" + counts[0] + " STC=" + counts[1] + " ocupacion="
+                + String.format("%.2f%%", 100.0 * (counts[0] + counts[1]) / ((double) size * size)) + " (" + time + " ms)");
+        if (size <= 4096) {
+            new File("output").mkdirs();
+            simulation.printGrid("output/" + settings.name + "_" + size + ".png");
+        }
+    }
+}